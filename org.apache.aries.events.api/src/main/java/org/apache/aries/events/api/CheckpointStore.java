@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+/**
+ * Durable store of the positions reached by named subscriptions.
+ *
+ * The subscriptions do not write to the store for each message they deliver.
+ * The backends coalesce the positions and commit the latest one
+ * asynchronously, based on the number of messages delivered and on time.
+ * On restart, a named subscription resumes from its last committed position.
+ *
+ * A {@code Messaging} component uses the store registered as a service when
+ * there is one, and its own backend specific store otherwise.
+ */
+public interface CheckpointStore {
+
+    /**
+     * @param topic of the subscription
+     * @param name of the subscription
+     * @return the last position committed, as returned by {@link Position#positionToString()},
+     * or {@code null} if none was committed
+     */
+    String load(String topic, String name);
+
+    /**
+     * Commit the position of a subscription, replacing the position committed before.
+     *
+     * @param topic of the subscription
+     * @param name of the subscription
+     * @param position to commit, as returned by {@link Position#positionToString()}
+     */
+    void commit(String topic, String name, String position);
+}
@@ -17,7 +17,7 @@
  */
 package org.apache.aries.events.api;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -30,27 +30,89 @@ import static java.util.Objects.requireNonNull;
  */
 public final class Message {
 
-    private final byte[] payload;
+    private final ByteBuffer payload;
     private final Map<String, String> properties;
+    private final String key;
 
     public Message(byte[] payload, Map<String, String> properties) {
-        requireNonNull(payload);
-        requireNonNull(properties);
-        this.payload = payload.clone();
-        this.properties = unmodifiableMap(new HashMap<>(properties));
+        this(payload, properties, null);
     }
 
+    /**
+     * @param payload of the message
+     * @param properties of the message
+     * @param key of the message or {@code null}. Backends that partition topics
+     *            keep the messages sharing a key in the same partition and thus in order.
+     */
+    public Message(byte[] payload, Map<String, String> properties, String key) {
+        this(ByteBuffer.wrap(requireNonNull(payload).clone()), new HashMap<>(requireNonNull(properties)), key);
+    }
+
+    private Message(ByteBuffer payload, Map<String, String> properties, String key) {
+        this.payload = payload.asReadOnlyBuffer();
+        this.properties = unmodifiableMap(properties);
+        this.key = key;
+    }
+
+    /**
+     * Create a message backed by the remaining bytes of the given buffer
+     * and by the given properties. Neither the payload nor the properties
+     * are copied, thus they must not be modified after the message has
+     * been created. This allows to pass lazily decoded property views.
+     *
+     * @param payload buffer holding the payload between its position and limit
+     * @param properties of the message
+     * @return a new message sharing the buffer content and the properties
+     */
+    public static Message wrap(ByteBuffer payload, Map<String, String> properties) {
+        return wrap(payload, properties, null);
+    }
+
+    /**
+     * Create a keyed message backed by the given buffer and properties,
+     * see {@link #wrap(ByteBuffer, Map)}.
+     *
+     * @param payload buffer holding the payload between its position and limit
+     * @param properties of the message
+     * @param key of the message or {@code null}
+     * @return a new message sharing the buffer content and the properties
+     */
+    public static Message wrap(ByteBuffer payload, Map<String, String> properties, String key) {
+        return new Message(requireNonNull(payload).slice(), requireNonNull(properties), key);
+    }
+
+    /**
+     * @return a copy of the payload
+     */
     public byte[] getPayload() {
-        return payload.clone();
+        byte[] copy = new byte[payload.remaining()];
+        payload.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Access the payload without copying it.
+     *
+     * @return a read-only view of the payload positioned at its first byte
+     */
+    public ByteBuffer payloadBuffer() {
+        return payload.duplicate();
     }
     
     public Map<String, String> getProperties() {
         return properties;
     }
 
+    /**
+     * @return the key of the message or {@code null} if the message has no key
+     */
+    public String getKey() {
+        return key;
+    }
+
     @Override
     public String toString() {
-        return "Message" + properties;
+        return key != null ? "Message[" + key + "]" + properties : "Message" + properties;
     }
 
     @Override
@@ -58,14 +120,15 @@ public final class Message {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Message message = (Message) o;
-        return Arrays.equals(payload, message.payload) &&
-                properties.equals(message.properties);
+        return payload.equals(message.payload) &&
+                properties.equals(message.properties) &&
+                Objects.equals(key, message.key);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(properties);
-        result = 31 * result + Arrays.hashCode(payload);
+        int result = Objects.hash(properties, key);
+        result = 31 * result + payload.hashCode();
         return result;
     }
 
@@ -17,6 +17,11 @@
  */
 package org.apache.aries.events.api;
 
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import org.reactivestreams.Publisher;
+
 /**
  * Journaled messaging API
  */
@@ -32,14 +37,84 @@ public interface Messaging {
      */
     void send(String topic, Message message);
 
+    /**
+     * Send a message to a topic without waiting for it to be persisted.
+     * The returned stage completes with the position assigned to the
+     * message once it is safely persisted, or exceptionally if the
+     * message could not be sent.
+     *
+     * Two messages sent sequentially to the same topic by the same
+     * thread, are guaranteed to be consumed in the same order by all subscribers.
+     *
+     * @param topic to send the message to
+     * @param message to send
+     * @return the position of the message once it is persisted
+     */
+    CompletionStage<Position> sendAsync(String topic, Message message);
+
+    /**
+     * Send a batch of messages to a topic. When this method returns all
+     * messages of the batch are safely persisted.
+     *
+     * The messages of a batch are consumed in the order of the list
+     * by all subscribers.
+     *
+     * @param topic to send the messages to
+     * @param messages to send
+     * @return the positions assigned to the messages, in the order of the list
+     */
+    List<Position> send(String topic, List<Message> messages);
+
     /**
      * Subscribe to a topic.
      * The returned subscription must be closed by the caller to unsubscribe.
+     * A request built with {@link SubscribeRequestBuilder#toPublisher(String)} is
+     * rejected with an {@code IllegalArgumentException}, it has no callback.
+     *
+     * The callback of a subscription is invoked by one thread at a time, even when
+     * the backend reads the topic over several partitions or threads. Concurrent
+     * invocations are opt-in through {@link SubscribeRequestBuilder#parallelism(int)}.
      *
      * @param request to subscribe
      */
     Subscription subscribe(SubscribeRequestBuilder request);
 
+    /**
+     * Create a reactive-streams {@code Publisher} of the messages of a topic.
+     * Each {@code Subscriber} gets its own subscription, starting at the
+     * position or seek of the request. Messages are consumed from the topic
+     * only as demanded through {@code org.reactivestreams.Subscription#request}.
+     * While there is no outstanding demand the subscription does not fetch
+     * further messages, see {@link SubscribeRequestBuilder.SubscribeRequest#hasDemand()}.
+     *
+     * On Java 9 and later, {@code org.reactivestreams.FlowAdapters} adapts the
+     * publisher to {@code java.util.concurrent.Flow.Publisher}.
+     *
+     * @param request built with {@link SubscribeRequestBuilder#toPublisher(String)}
+     * @return a publisher of the messages of the topic
+     */
+    default Publisher<Received> publisher(SubscribeRequestBuilder request) {
+        return new ReceivedPublisher(this, request.buildPublisher());
+    }
+
+    /**
+     * Query the position of the earliest message still available on a topic.
+     *
+     * @param topic to query
+     * @return the position of the earliest available message or the latest
+     *         position if the topic holds no message
+     */
+    Position earliestPosition(String topic);
+
+    /**
+     * Query the position the next message sent to a topic will be assigned.
+     * The difference to the position of a subscription gives its lag.
+     *
+     * @param topic to query
+     * @return the position following the latest message of the topic
+     */
+    Position latestPosition(String topic);
+
     /**
      * Deserialize the position from the string
      * 
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Declarative condition on a {@code Message} property. Being declarative,
+ * the condition can be translated into a query and evaluated by the backend
+ * before the messages are decoded and delivered.
+ */
+@ParametersAreNonnullByDefault
+public final class PropertyFilter {
+
+    public enum Operator {
+        /** the property is equal to the value */
+        EQUALS,
+        /** the property starts with the value */
+        PREFIX,
+        /** the property is equal to any of the values */
+        IN
+    }
+
+    private final String key;
+    private final Operator operator;
+    private final Set<String> values;
+
+    private PropertyFilter(String key, Operator operator, Set<String> values) {
+        this.key = requireNonNull(key, "Key must not be null");
+        this.operator = operator;
+        this.values = Collections.unmodifiableSet(values);
+    }
+
+    /**
+     * @param key of the property
+     * @param value expected
+     * @return a filter matching messages with the property equal to {@code value}
+     */
+    public static PropertyFilter equalTo(String key, String value) {
+        return new PropertyFilter(key, Operator.EQUALS, valueSet(asList(value)));
+    }
+
+    /**
+     * @param key of the property
+     * @param prefix expected
+     * @return a filter matching messages with the property starting with {@code prefix}
+     */
+    public static PropertyFilter startsWith(String key, String prefix) {
+        return new PropertyFilter(key, Operator.PREFIX, valueSet(asList(prefix)));
+    }
+
+    /**
+     * @param key of the property
+     * @param values expected
+     * @return a filter matching messages with the property equal to any of {@code values}
+     */
+    public static PropertyFilter in(String key, Collection<String> values) {
+        return new PropertyFilter(key, Operator.IN, valueSet(values));
+    }
+
+    /**
+     * @param key of the property
+     * @param values expected
+     * @return a filter matching messages with the property equal to any of {@code values}
+     */
+    public static PropertyFilter in(String key, String... values) {
+        return in(key, asList(values));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the expected value for {@link Operator#EQUALS}, the prefix for {@link Operator#PREFIX}
+     * or the first of the expected values for {@link Operator#IN}
+     */
+    public String getValue() {
+        return values.isEmpty() ? null : values.iterator().next();
+    }
+
+    /**
+     * @return the expected values
+     */
+    public Set<String> getValues() {
+        return values;
+    }
+
+    /**
+     * @param value of the property or {@code null} if the message does not have the property
+     * @return {@code true} if the property value matches this filter
+     */
+    public boolean matchesValue(@Nullable String value) {
+        if (value == null) {
+            return false;
+        }
+        switch (operator) {
+        case PREFIX:
+            return value.startsWith(getValue());
+        default:
+            return values.contains(value);
+        }
+    }
+
+    /**
+     * @param properties of the message
+     * @return {@code true} if the message properties match this filter
+     */
+    public boolean matches(Map<String, String> properties) {
+        return matchesValue(properties.get(key));
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyFilter[" + key + " " + operator + " " + values + "]";
+    }
+
+    private static Set<String> valueSet(Collection<String> values) {
+        Set<String> valueSet = new LinkedHashSet<>(values.size());
+        for (String value : values) {
+            valueSet.add(requireNonNull(value, "Value must not be null"));
+        }
+        return valueSet;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+/**
+ * Publisher on top of {@link Messaging#subscribe(SubscribeRequestBuilder)},
+ * subscribing with all the settings of the request. The demand of the subscriber
+ * is exposed to the backend through {@link SubscribeRequest#hasDemand()}, the
+ * backend stops fetching while there is none instead of blocking in the callback.
+ * The few messages a backend already handed over, e.g. from several partitions
+ * at once, are held until requested. The signals are delivered serially, even
+ * when the backend invokes the callback from several threads.
+ */
+final class ReceivedPublisher implements Publisher<Received> {
+
+    private final Messaging messaging;
+    private final SubscribeRequest request;
+
+    ReceivedPublisher(Messaging messaging, SubscribeRequest request) {
+        this.messaging = messaging;
+        this.request = request;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Received> subscriber) {
+        requireNonNull(subscriber, "Subscriber must not be null");
+        DemandSubscription subscription = new DemandSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        SubscribeRequestBuilder builder = SubscribeRequestBuilder.copyOf(request, subscription);
+        try {
+            subscription.attach(messaging.subscribe(builder));
+        } catch (RuntimeException e) {
+            subscription.onError(e);
+        }
+    }
+
+    static final class DemandSubscription implements org.reactivestreams.Subscription {
+
+        private final Subscriber<? super Received> subscriber;
+
+        /**
+         * Held while signalling the subscriber, so that the signals are serial (rule 1.3).
+         */
+        private final Object signalLock = new Object();
+
+        /**
+         * Messages handed over by the backend beyond the demand, delivered once requested.
+         */
+        private final Deque<Received> pending = new ArrayDeque<>();
+
+        private long demand;
+        private boolean cancelled;
+        private boolean terminated;
+        private boolean draining;
+        private Subscription subscription;
+
+        DemandSubscription(Subscriber<? super Received> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                onError(new IllegalArgumentException("Requested demand must be positive (rule 3.9)"));
+                return;
+            }
+            synchronized (this) {
+                demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Subscription toClose;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                pending.clear();
+                toClose = subscription;
+                notifyAll();
+            }
+            if (toClose != null) {
+                toClose.close();
+            }
+        }
+
+        void attach(Subscription subscription) {
+            boolean close;
+            synchronized (this) {
+                this.subscription = subscription;
+                close = cancelled;
+            }
+            if (close) {
+                subscription.close();
+            }
+        }
+
+        /**
+         * @return {@code true} if the subscriber requested further messages
+         */
+        synchronized boolean hasDemand() {
+            return demand > 0 && pending.isEmpty();
+        }
+
+        /**
+         * @param timeoutMs maximum time to wait
+         * @return {@code true} if the subscriber requested further messages in time
+         */
+        synchronized boolean awaitDemand(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            for (long remaining = timeoutMs; ! hasDemand() && ! cancelled && remaining > 0;
+                 remaining = deadline - System.currentTimeMillis()) {
+                wait(remaining);
+            }
+            return hasDemand();
+        }
+
+        /**
+         * Invoked by the backend, which checks the demand before fetching
+         * the messages. Holds the message if there is no demand left.
+         */
+        void onNext(Received received) {
+            synchronized (signalLock) {
+                synchronized (this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (demand == 0 || ! pending.isEmpty()) {
+                        pending.add(received);
+                        return;
+                    }
+                    take();
+                }
+                if (! terminated) {
+                    subscriber.onNext(received);
+                }
+            }
+        }
+
+        /**
+         * Deliver the messages held as far as requested. A request made from
+         * {@code onNext} is served by the drain in progress (rule 3.3).
+         */
+        private void drain() {
+            synchronized (signalLock) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+                try {
+                    for (;;) {
+                        Received next;
+                        synchronized (this) {
+                            if (cancelled || demand == 0 || pending.isEmpty()) {
+                                // Wake up the backend waiting for demand
+                                notifyAll();
+                                return;
+                            }
+                            next = pending.poll();
+                            take();
+                        }
+                        if (! terminated) {
+                            subscriber.onNext(next);
+                        }
+                    }
+                } finally {
+                    draining = false;
+                }
+            }
+        }
+
+        private void take() {
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+        }
+
+        /**
+         * Cancel the subscription and signal the error, after the message being
+         * delivered if any, unless the subscriber cancelled the subscription first.
+         */
+        void onError(Throwable t) {
+            boolean signal;
+            synchronized (this) {
+                signal = !cancelled;
+            }
+            cancel();
+            if (signal) {
+                synchronized (signalLock) {
+                    if (!terminated) {
+                        terminated = true;
+                        subscriber.onError(t);
+                    }
+                }
+            }
+        }
+    }
+}
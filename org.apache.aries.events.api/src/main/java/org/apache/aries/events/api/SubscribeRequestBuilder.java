@@ -17,8 +17,16 @@
  */
 package org.apache.aries.events.api;
 
+import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -40,9 +48,35 @@ public final class SubscribeRequestBuilder {
      * @return a new subscription request
      */
     public static SubscribeRequestBuilder to(String topic, Consumer<Received> callback) {
-        return new SubscribeRequestBuilder(new SubscribeRequest(topic, callback));
+        return new SubscribeRequestBuilder(new SubscribeRequest(topic, callback, null));
+    }
+
+    /**
+     * Build a subscription request for the given topic and {@code Consumer} callback
+     * receiving the consumed messages in batches. A batch is delivered as soon as it
+     * holds {@link #maxBatchSize(int)} messages or when {@link #maxLinger(Duration)}
+     * elapsed since its first message was consumed.
+     *
+     * @param topic to consume from
+     * @param callback to be invoked for each batch of messages consumed, in order
+     * @return a new subscription request
+     */
+    public static SubscribeRequestBuilder toBatches(String topic, Consumer<List<Received>> callback) {
+        return new SubscribeRequestBuilder(new SubscribeRequest(topic, null, callback));
     }
     
+    /**
+     * Build a request for a {@code Publisher} of the messages of the given topic.
+     * The messages are delivered to the subscribers of the publisher
+     * returned by {@link Messaging#publisher(SubscribeRequestBuilder)}.
+     *
+     * @param topic to consume from
+     * @return a new subscription request
+     */
+    public static SubscribeRequestBuilder toPublisher(String topic) {
+        return new SubscribeRequestBuilder(new SubscribeRequest(topic, null, null));
+    }
+
     /**
      * Set the {@code Position} position to start consuming from.
      *
@@ -54,6 +88,20 @@ public final class SubscribeRequestBuilder {
         return this;
     }
     
+    /**
+     * Set the time to start consuming from. The subscription starts with
+     * the earliest message sent at or after this time, or with the next
+     * message sent if there is none. A position set with
+     * {@link #startAt(Position)} takes precedence.
+     *
+     * @param time to start consuming from
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder startAt(Instant time) {
+        this.subscribeRequest.startTime = requireNonNull(time, "Time must not be null");
+        return this;
+    }
+
     /**
      * Set the earliest or latest position to start consuming from
      * when the position is {@code null} or not valid. By default,
@@ -67,20 +115,228 @@ public final class SubscribeRequestBuilder {
         return this;
     }
 
-    
+    /**
+     * Set the maximum number of messages delivered in a single batch.
+     * By default, batches hold at most 100 messages.
+     *
+     * @param maxBatchSize maximum number of messages in a batch
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder maxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be positive");
+        }
+        this.subscribeRequest.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Set the maximum time to wait for further messages before delivering
+     * a batch that is not full. By default, the messages available are
+     * delivered without waiting.
+     *
+     * @param maxLinger maximum time to wait for a batch to fill up
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder maxLinger(Duration maxLinger) {
+        requireNonNull(maxLinger, "Max linger must not be null");
+        if (maxLinger.isNegative()) {
+            throw new IllegalArgumentException("Max linger must not be negative");
+        }
+        this.subscribeRequest.maxLinger = maxLinger;
+        return this;
+    }
+
+    /**
+     * Name the subscription so that it resumes from its last checkpoint.
+     * The positions reached are committed to a {@link CheckpointStore}
+     * and a subscription with the same name and topic starts at the last
+     * position committed, if any, instead of the position set by
+     * {@link #startAt(Position)}, {@link #startAt(Instant)} or {@link #seek(Seek)}.
+     *
+     * @param name of the subscription, unique per topic
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder name(String name) {
+        this.subscribeRequest.name = requireNonNull(name, "Name must not be null");
+        return this;
+    }
+
+    /**
+     * Set the number of messages delivered after which the position of a
+     * named subscription is committed. By default, the position is committed
+     * every 1000 messages.
+     *
+     * @param count of messages between two commits
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder checkpointEvery(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Checkpoint count must be positive");
+        }
+        this.subscribeRequest.checkpointCount = count;
+        return this;
+    }
+
+    /**
+     * Set the maximum time a position reached by a named subscription remains
+     * uncommitted. By default, the position is committed after one second.
+     *
+     * @param interval between the delivery of a message and the commit of the position following it
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder checkpointInterval(Duration interval) {
+        requireNonNull(interval, "Checkpoint interval must not be null");
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative");
+        }
+        this.subscribeRequest.checkpointInterval = interval;
+        return this;
+    }
+
+    /**
+     * Only deliver the messages whose properties match the given filter.
+     * When invoked several times, the messages must match all the filters.
+     * The backends evaluate the filters as early as possible, ideally
+     * before fetching or decoding the messages that do not match.
+     *
+     * @param filter on the message properties
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder filter(PropertyFilter filter) {
+        this.subscribeRequest.filters.add(requireNonNull(filter, "Filter must not be null"));
+        return this;
+    }
+
+    /**
+     * Run the callback in parallel over the given number of workers. The messages
+     * sharing an ordering key are delivered in order, by the same worker, while the
+     * messages with distinct keys are delivered concurrently. The position reported
+     * and committed is the low-water mark of the completed messages. By default,
+     * the messages are delivered one at a time. Only applies to per message callbacks.
+     *
+     * @param workers number of callbacks running concurrently
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder parallelism(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.subscribeRequest.parallelism = workers;
+        return this;
+    }
+
+    /**
+     * Set the property holding the ordering key of the messages delivered in
+     * parallel. By default, the ordering key is the key of the message.
+     *
+     * @param property holding the ordering key
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder orderingKey(String property) {
+        this.subscribeRequest.orderingKey = requireNonNull(property, "Ordering key must not be null");
+        return this;
+    }
+
+    /**
+     * Set how the subscription waits for messages once it is caught up.
+     * By default, the subscription blocks until the next message is sent.
+     *
+     * @param waitStrategy to wait for the next message
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder waitStrategy(WaitStrategy waitStrategy) {
+        this.subscribeRequest.waitStrategy = requireNonNull(waitStrategy, "Wait strategy must not be null");
+        return this;
+    }
+
+    /**
+     * Notify the subscription of the messages it skipped because they were
+     * no longer retained when it reached them. The callback receives the
+     * position of the first message skipped and the position of the next
+     * message delivered. By default, gaps are only logged. Only applies
+     * to the backends detecting gaps.
+     *
+     * @param gapCallback to be invoked for each gap, before delivering the next message
+     * @return the updated subscribe request
+     */
+    public SubscribeRequestBuilder onGap(BiConsumer<Position, Position> gapCallback) {
+        this.subscribeRequest.gapCallback = requireNonNull(gapCallback, "Gap callback must not be null");
+        return this;
+    }
+
+    /**
+     * Copy all the settings of a request, delivering its messages to the subscriber of a publisher.
+     *
+     * @param request to copy
+     * @param demand of the subscriber receiving the messages consumed
+     * @return a new subscription request
+     */
+    static SubscribeRequestBuilder copyOf(SubscribeRequest request, ReceivedPublisher.DemandSubscription demand) {
+        SubscribeRequest copy = new SubscribeRequest(request.topic, demand::onNext, null);
+        copy.demand = demand;
+        copy.position = request.position;
+        copy.startTime = request.startTime;
+        copy.seek = request.seek;
+        copy.maxBatchSize = request.maxBatchSize;
+        copy.maxLinger = request.maxLinger;
+        copy.filters.addAll(request.filters);
+        copy.name = request.name;
+        copy.checkpointCount = request.checkpointCount;
+        copy.checkpointInterval = request.checkpointInterval;
+        copy.parallelism = request.parallelism;
+        copy.orderingKey = request.orderingKey;
+        copy.waitStrategy = request.waitStrategy;
+        copy.gapCallback = request.gapCallback;
+        return new SubscribeRequestBuilder(copy);
+    }
+
+    /**
+     * @return the request
+     * @throws IllegalArgumentException if the request has no callback, a request built
+     *         with {@link #toPublisher(String)} is passed to {@link Messaging#publisher(SubscribeRequestBuilder)}
+     */
     public SubscribeRequest build() {
+        if (subscribeRequest.callback == null && subscribeRequest.batchCallback == null) {
+            throw new IllegalArgumentException(format("Request to %s has no callback, subscribe through Messaging.publisher",
+                    subscribeRequest.topic));
+        }
+        return buildPublisher();
+    }
+
+    /**
+     * @return the request of a publisher, the callback is set by each subscriber
+     */
+    SubscribeRequest buildPublisher() {
+        if (subscribeRequest.parallelism > 1 && subscribeRequest.callback == null) {
+            throw new IllegalStateException("Parallel delivery requires a per message callback");
+        }
         return subscribeRequest;
     }
 
     public static class SubscribeRequest {
         private final String topic;
         private final Consumer<Received> callback;
+        private final Consumer<List<Received>> batchCallback;
         private Position position;
+        private Instant startTime;
         private Seek seek = Seek.latest;
+        private int maxBatchSize = 100;
+        private Duration maxLinger = Duration.ZERO;
+        private final List<PropertyFilter> filters = new ArrayList<>();
+        private String name;
+        private int checkpointCount = 1000;
+        private Duration checkpointInterval = Duration.ofSeconds(1);
+        private int parallelism = 1;
+        private String orderingKey;
+        private WaitStrategy waitStrategy = WaitStrategy.blocking;
+        private BiConsumer<Position, Position> gapCallback;
+        private ReceivedPublisher.DemandSubscription demand;
         
-        private SubscribeRequest(String topic, Consumer<Received> callback) {
+        private SubscribeRequest(String topic, Consumer<Received> callback, Consumer<List<Received>> batchCallback) {
             this.topic = topic;
             this.callback = callback;
+            this.batchCallback = batchCallback;
         }
         
         public String getTopic() {
@@ -91,12 +347,121 @@ public final class SubscribeRequestBuilder {
             return position;
         }
         
+        /**
+         * @return the time to start consuming from or {@code null} if not set
+         */
+        public Instant getStartTime() {
+            return startTime;
+        }
+
         public Seek getSeek() {
             return seek;
         }
         
+        /**
+         * @return the per message callback or {@code null} if messages are delivered in batches
+         */
         public Consumer<Received> getCallback() {
             return callback;
         }
+
+        /**
+         * @return the batch callback or {@code null} if messages are delivered one by one
+         */
+        public Consumer<List<Received>> getBatchCallback() {
+            return batchCallback;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public Duration getMaxLinger() {
+            return maxLinger;
+        }
+
+        /**
+         * @return the name of the subscription or {@code null} if it does not resume from checkpoints
+         */
+        public String getName() {
+            return name;
+        }
+
+        public int getCheckpointCount() {
+            return checkpointCount;
+        }
+
+        public Duration getCheckpointInterval() {
+            return checkpointInterval;
+        }
+
+        /**
+         * @return the number of callbacks running concurrently, {@code 1} if the messages are delivered one at a time
+         */
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        /**
+         * @return the property holding the ordering key or {@code null} if the ordering key is the message key
+         */
+        public String getOrderingKey() {
+            return orderingKey;
+        }
+
+        public WaitStrategy getWaitStrategy() {
+            return waitStrategy;
+        }
+
+        /**
+         * @return the gap callback or {@code null} if gaps are not notified
+         */
+        public BiConsumer<Position, Position> getGapCallback() {
+            return gapCallback;
+        }
+
+        /**
+         * Whether further messages may be delivered. Only the subscriber of a
+         * {@link Messaging#publisher(SubscribeRequestBuilder) publisher} runs out
+         * of demand, the backend then stops fetching the messages of the
+         * subscription, e.g. by pausing it, until {@link #awaitDemand(long)}.
+         *
+         * @return {@code true} if further messages may be delivered
+         */
+        public boolean hasDemand() {
+            return demand == null || demand.hasDemand();
+        }
+
+        /**
+         * Wait until further messages may be delivered, see {@link #hasDemand()}.
+         * Returns early if the subscriber cancels.
+         *
+         * @param timeoutMs maximum time to wait
+         * @return {@code true} if further messages may be delivered
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public boolean awaitDemand(long timeoutMs) throws InterruptedException {
+            return demand == null || demand.awaitDemand(timeoutMs);
+        }
+
+        /**
+         * @return the filters the delivered messages must all match, empty if all messages are delivered
+         */
+        public List<PropertyFilter> getFilters() {
+            return Collections.unmodifiableList(filters);
+        }
+
+        /**
+         * @param properties of a message
+         * @return {@code true} if the message matches all the filters of this request
+         */
+        public boolean matches(Map<String, String> properties) {
+            for (PropertyFilter filter : filters) {
+                if (! filter.matches(properties)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
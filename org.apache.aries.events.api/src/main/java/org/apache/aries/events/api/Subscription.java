@@ -23,4 +23,12 @@ public interface Subscription extends Closeable {
 
     @Override
     void close();
+
+    /**
+     * Take a snapshot of the progress of this subscription.
+     * This is cheap enough to be invoked periodically, e.g. for monitoring.
+     *
+     * @return the current position, lag and delivery count of this subscription
+     */
+    SubscriptionStats stats();
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+import static java.util.Objects.requireNonNull;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the consuming loops of subscriptions.
+ *
+ * Backends hand the loop of each subscription over to the dispatcher.
+ * A loop blocks while waiting for messages and returns once its
+ * subscription is closed, it thus holds a thread for the lifetime of
+ * the subscription. A dispatcher must run as many loops concurrently
+ * as there are open subscriptions, running the subscriptions on a
+ * bounded pool of threads is not supported: the loops beyond its size
+ * would never run. The dispatcher controls how the threads are created
+ * and named, not how many there are. Only virtual threads, on Java 21
+ * and later, make many subscriptions cheap.
+ *
+ * A {@code Messaging} component uses the dispatcher registered as a
+ * service when there is one, and a thread per subscription otherwise.
+ */
+public interface SubscriptionDispatcher {
+
+    /**
+     * Run the consuming loop of a subscription.
+     *
+     * @param name of the subscription, e.g. to name the thread running it
+     * @param loop to run until the subscription is closed
+     */
+    void dispatch(String name, Runnable loop);
+
+    /**
+     * @return a dispatcher running each loop on a new daemon thread
+     */
+    static SubscriptionDispatcher threadPerSubscription() {
+        return (name, loop) -> {
+            Thread thread = new Thread(loop, name);
+            thread.setDaemon(true);
+            thread.start();
+        };
+    }
+
+    /**
+     * @param executor to run the loops on, which must run as many tasks concurrently as there are
+     * open subscriptions, e.g. a cached thread pool. A bounded pool is not supported.
+     * @return a dispatcher running the loops on the given executor
+     */
+    static SubscriptionDispatcher executor(Executor executor) {
+        requireNonNull(executor, "Executor must not be null");
+        return (name, loop) -> executor.execute(loop);
+    }
+
+    /**
+     * @return a dispatcher running each loop on a new virtual thread
+     * @throws UnsupportedOperationException if the JVM does not support virtual threads
+     */
+    static SubscriptionDispatcher virtualThreads() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method named = builderClass.getMethod("name", String.class);
+            Method start = builderClass.getMethod("start", Runnable.class);
+            return (name, loop) -> {
+                try {
+                    Object builder = named.invoke(ofVirtual.invoke(null), name);
+                    start.invoke(builder, loop);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Failed to start virtual thread " + name, e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+/**
+ * Snapshot of the progress of a subscription.
+ */
+public final class SubscriptionStats {
+
+    private final Position position;
+    private final long lag;
+    private final long delivered;
+    private final long startTime;
+    private final long time;
+
+    /**
+     * @param position of the next message to be delivered or {@code null} if not known yet
+     * @param lag number of messages behind the latest position or {@code -1} if not known yet
+     * @param delivered number of messages delivered since the subscription started
+     * @param startTime time the subscription started in milliseconds since the epoch
+     */
+    public SubscriptionStats(Position position, long lag, long delivered, long startTime) {
+        this.position = position;
+        this.lag = lag;
+        this.delivered = delivered;
+        this.startTime = startTime;
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the position of the next message to be delivered or {@code null} if not known yet
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of messages sent to the topic but not delivered yet
+     * or {@code -1} if not known yet
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * @return the number of messages delivered since the subscription started
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the time this snapshot was taken in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the average number of messages delivered per second since the subscription started
+     */
+    public double getDeliveryRate() {
+        return rate(delivered, time - startTime);
+    }
+
+    /**
+     * @param previous snapshot of the same subscription
+     * @return the number of messages delivered per second since the previous snapshot
+     */
+    public double getDeliveryRate(SubscriptionStats previous) {
+        return rate(delivered - previous.delivered, time - previous.time);
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionStats[position=" + position + ", lag=" + lag + ", delivered=" + delivered + "]";
+    }
+
+    private static double rate(long count, long millis) {
+        return millis > 0 ? count * 1000d / millis : 0d;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+/**
+ * How a subscription waits for the next message once it consumed all the
+ * messages available. Strategies that keep the thread running lower the latency
+ * between the sending of a message and its delivery at the cost of CPU usage.
+ * Backends that receive the messages from a remote server may ignore it.
+ */
+public enum WaitStrategy {
+
+    /**
+     * Park the thread until a message is sent. Uses no CPU while waiting.
+     */
+    blocking,
+
+    /**
+     * Spin for a bounded time, then park the thread until a message is sent.
+     */
+    spinning,
+
+    /**
+     * Yield the thread between checks for a message.
+     */
+    yielding,
+
+    /**
+     * Spin on the CPU until a message is sent. Lowest latency,
+     * occupies a core per subscription.
+     */
+    busySpin;
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.aries.events.api.CheckpointStore;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits the positions reached by a named subscription to a {@link CheckpointStore}.
+ *
+ * The subscription reports the position following each message it delivered.
+ * Only the latest position is committed, asynchronously, once the number of
+ * messages set by {@link SubscribeRequestBuilder#checkpointEvery(int)} was
+ * delivered or the interval set by {@link SubscribeRequestBuilder#checkpointInterval}
+ * elapsed since the first position not committed yet. A store is therefore
+ * written to at most once per interval and per count of messages, instead of
+ * once per message.
+ */
+public final class Checkpointer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpointer.class);
+
+    private final CheckpointStore store;
+    private final ScheduledExecutorService writer;
+    private final String topic;
+    private final String name;
+    private final int maxCount;
+    private final long intervalMillis;
+    private final AtomicReference<Position> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param store to commit the positions to
+     * @param writer to commit the positions on, owned by the {@code Messaging} component
+     * @param request of a named subscription
+     */
+    public Checkpointer(CheckpointStore store, ScheduledExecutorService writer, SubscribeRequest request) {
+        this.store = requireNonNull(store, "Store must not be null");
+        this.writer = requireNonNull(writer, "Writer must not be null");
+        this.topic = request.getTopic();
+        this.name = requireNonNull(request.getName(), "Subscription must be named");
+        this.maxCount = request.getCheckpointCount();
+        this.intervalMillis = request.getCheckpointInterval().toMillis();
+    }
+
+    /**
+     * @return a single daemon thread to commit the positions on, which the {@code Messaging}
+     * component shuts down once its subscriptions are closed
+     */
+    public static ScheduledExecutorService newWriter() {
+        return newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CheckpointWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the last position committed for the subscription, as returned by
+     * {@link Position#positionToString()}, or {@code null} if none was committed
+     */
+    public String load() {
+        return store.load(topic, name);
+    }
+
+    /**
+     * Report the position following the messages delivered so far.
+     * The position is converted to a string when it gets committed.
+     *
+     * @param next position to resume from
+     */
+    public void update(Position next) {
+        pending.set(next);
+        try {
+            if (count.incrementAndGet() >= maxCount) {
+                count.set(0);
+                writer.execute(this::flush);
+            } else if (scheduled.compareAndSet(false, true)) {
+                writer.schedule(this::flush, intervalMillis, MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // The writer is shut down, the position is committed when the subscription closes
+        }
+    }
+
+    /**
+     * Commit the latest position reported, if any, before returning.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private synchronized void flush() {
+        // Cleared before taking the position so that a concurrent update schedules a new flush
+        scheduled.set(false);
+        Position next = pending.getAndSet(null);
+        if (next == null) {
+            return;
+        }
+        try {
+            store.commit(topic, name, next.positionToString());
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to commit position {} of subscription {} to topic {}", next.positionToString(), name, topic, e);
+            // Retried with the next position reported unless a newer one is pending already
+            pending.compareAndSet(null, next);
+        }
+    }
+}
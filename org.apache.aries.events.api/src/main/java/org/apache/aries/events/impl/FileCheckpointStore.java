@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import org.apache.aries.events.api.CheckpointStore;
+
+/**
+ * Keeps the position of each subscription in its own file. The files are
+ * replaced atomically so that a crash never leaves a partial position behind.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+
+    private final Path directory;
+
+    /**
+     * @param directory to keep one file per subscription in
+     */
+    public FileCheckpointStore(Path directory) {
+        this.directory = requireNonNull(directory, "Directory must not be null");
+    }
+
+    @Override
+    public String load(String topic, String name) {
+        try {
+            return new String(Files.readAllBytes(file(topic, name)), UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void commit(String topic, String name, String position) {
+        Path file = file(topic, name);
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, position.getBytes(UTF_8));
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path file(String topic, String name) {
+        // The encoded names never contain '@'
+        return directory.resolve(encode(name) + "@" + encode(topic));
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
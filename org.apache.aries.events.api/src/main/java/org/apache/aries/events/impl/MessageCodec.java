@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.aries.events.api.Message;
+
+/**
+ * Binary encoding of the messages for the backends storing them as bytes.
+ * The key and the properties are length prefixed UTF-8 strings, followed by
+ * the length prefixed payload. An instance reuses its encoding buffer and
+ * must not be used concurrently.
+ */
+public final class MessageCodec {
+
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    /**
+     * @param message to encode
+     * @return a buffer holding the encoded message, reused by the next encoding
+     */
+    public ByteBuffer encode(Message message) {
+        buffer.clear();
+        putString(message.getKey());
+        putInt(message.getProperties().size());
+        for (Map.Entry<String, String> property : message.getProperties().entrySet()) {
+            putString(property.getKey());
+            putString(property.getValue());
+        }
+        ByteBuffer payload = message.payloadBuffer();
+        putInt(payload.remaining());
+        ensureRemaining(payload.remaining());
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param encoded buffer holding an encoded message from its position, not copied
+     * @return the message sharing the payload bytes of the buffer
+     */
+    public static Message decode(ByteBuffer encoded) {
+        String key = getString(encoded);
+        int count = encoded.getInt();
+        Map<String, String> properties = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            properties.put(getString(encoded), getString(encoded));
+        }
+        int length = encoded.getInt();
+        ByteBuffer payload = encoded.slice();
+        payload.limit(length);
+        return Message.wrap(payload, properties, key);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        putInt(bytes.length);
+        ensureRemaining(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putInt(int value) {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() < length) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private static String getString(ByteBuffer encoded) {
+        int length = encoded.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (encoded.hasArray()) {
+            String value = new String(encoded.array(), encoded.arrayOffset() + encoded.position(), length, UTF_8);
+            encoded.position(encoded.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        encoded.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the callback of a subscription in parallel over the number of workers set by
+ * {@link SubscribeRequestBuilder#parallelism(int)}. The messages sharing an ordering key
+ * are handed to the same worker and thus delivered in order. The messages without key
+ * are spread over the workers.
+ *
+ * The messages complete out of order, the position reported for a {@link Lane} is
+ * thus the low-water mark of the completed messages: the position following the
+ * last message before which all messages of the lane completed. A subscription
+ * resuming from that position delivers again the messages completed after it.
+ *
+ * A callback throwing an exception or an error is logged and its message counted as completed.
+ * With a single worker, the messages of all the lanes are delivered one at a time.
+ */
+public final class ParallelDispatch implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelDispatch.class);
+
+    /**
+     * Number of messages queued per worker before dispatching blocks.
+     */
+    private static final int QUEUE_SIZE = 256;
+
+    private static final Task STOP = new Task(null, null, null);
+
+    private final Consumer<Received> callback;
+
+    private final String orderingKey;
+
+    private final List<Worker> workers = new ArrayList<>();
+
+    private final AtomicInteger spread = new AtomicInteger();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final CountDownLatch stopped;
+
+    /**
+     * Start the workers.
+     *
+     * @param request with a per message callback
+     * @param dispatcher running the workers
+     */
+    public ParallelDispatch(SubscribeRequest request, SubscriptionDispatcher dispatcher) {
+        this.callback = requireNonNull(request.getCallback(), "Parallel dispatch requires a per message callback");
+        this.orderingKey = request.getOrderingKey();
+        int parallelism = request.getParallelism();
+        this.stopped = new CountDownLatch(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            dispatcher.dispatch(format("ParallelDispatch-%s-%s", request.getTopic(), i), worker);
+        }
+    }
+
+    /**
+     * @param progress notified of the low-water mark of the lane, in order
+     * @return a new lane tracking the position of a sequence of messages, such as a partition
+     */
+    public Lane lane(Consumer<Position> progress) {
+        return new Lane(requireNonNull(progress));
+    }
+
+    /**
+     * Stop the workers once their current callbacks returned, dropping the messages queued.
+     * Must not be invoked while messages are dispatched.
+     */
+    @Override
+    public void close() {
+        if (! closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (Worker worker : workers) {
+            while (! worker.queue.offer(STOP)) {
+                worker.queue.clear();
+            }
+        }
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                stopped.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Worker worker(Message message) {
+        String key = orderingKey != null ? message.getProperties().get(orderingKey) : message.getKey();
+        int hash = key != null ? key.hashCode() : spread.getAndIncrement();
+        return workers.get(Math.floorMod(hash, workers.size()));
+    }
+
+    /**
+     * Sequence of messages dispatched by a single thread in position order.
+     */
+    public final class Lane {
+
+        private final Consumer<Position> progress;
+
+        /**
+         * Messages not completed yet or completed after a message not completed yet, by sequence.
+         */
+        private final NavigableMap<Long, Pending> pending = new TreeMap<>();
+
+        private long sequence;
+
+        private volatile long completed;
+
+        private volatile Position safePosition;
+
+        private Lane(Consumer<Position> progress) {
+            this.progress = progress;
+        }
+
+        /**
+         * Hand the message over to its worker, blocking while the worker queue is full.
+         *
+         * @param received message
+         * @param next position following the message
+         * @throws InterruptedException if interrupted while waiting for the worker, the message is then not delivered
+         */
+        public void dispatch(Received received, Position next) throws InterruptedException {
+            Pending message;
+            synchronized (this) {
+                message = new Pending(next);
+                pending.put(sequence++, message);
+            }
+            try {
+                worker(received.getMessage()).queue.put(new Task(this, message, received));
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    // Last message of the lane, as the messages are dispatched by a single thread
+                    pending.remove(--sequence);
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Move past a message not delivered, such as a message not matching the filters.
+         *
+         * @param next position following the message
+         */
+        public synchronized void skip(Position next) {
+            Pending message = new Pending(next);
+            message.done = true;
+            pending.put(sequence++, message);
+            advance();
+        }
+
+        /**
+         * @return the number of messages completed
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return the low-water mark of the completed messages or {@code null} if no message completed yet
+         */
+        public Position getSafePosition() {
+            return safePosition;
+        }
+
+        private synchronized void completed(Pending message) {
+            message.done = true;
+            completed++;
+            advance();
+        }
+
+        private void advance() {
+            Position safe = null;
+            while (! pending.isEmpty() && pending.firstEntry().getValue().done) {
+                safe = pending.pollFirstEntry().getValue().next;
+            }
+            if (safe != null) {
+                safePosition = safe;
+                // Notified while holding the lock so that the positions are reported in order
+                progress.accept(safe);
+            }
+        }
+    }
+
+    private static final class Pending {
+
+        private final Position next;
+
+        private boolean done;
+
+        private Pending(Position next) {
+            this.next = next;
+        }
+    }
+
+    private static final class Task {
+
+        private final Lane lane;
+
+        private final Pending pending;
+
+        private final Received received;
+
+        private Task(Lane lane, Pending pending, Received received) {
+            this.lane = lane;
+            this.pending = pending;
+            this.received = received;
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+        @Override
+        public void run() {
+            try {
+                for (Task task = queue.take(); task != STOP; task = queue.take()) {
+                    try {
+                        callback.accept(task.received);
+                    } catch (Throwable e) {
+                        // Completing the message anyway so that the lane does not stall
+                        LOG.warn(e.getMessage(), e);
+                    }
+                    task.lane.completed(task.pending);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stopped.countDown();
+            }
+        }
+    }
+}
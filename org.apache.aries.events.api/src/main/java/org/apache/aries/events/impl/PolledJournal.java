@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+/**
+ * Messages indexed by a sequence of offsets, read concurrently by the
+ * {@link PollingSubscription}s without locking.
+ *
+ * @param <T> type of the messages
+ */
+public interface PolledJournal<T> {
+
+    /**
+     * @return the offset of the last message appended, {@code -1} if none
+     */
+    long getLastOffset();
+
+    /**
+     * @param offset to read from
+     * @return the offset, or the offset of the next message available if the messages
+     *         from the offset were removed already
+     */
+    long getNextOffset(long offset);
+
+    /**
+     * @param offset of the message
+     * @return the message or {@code null} if it was not appended yet or was removed
+     */
+    T get(long offset);
+}
@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.api.SubscriptionStats;
+import org.apache.aries.events.api.WaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Subscription polling the journal of a topic from its own thread, run by the
+ * {@link SubscriptionDispatcher}. The messages are delivered one at a time, in
+ * batches or in parallel as set by the request. The backends only convert the
+ * offsets of their journal to and from their positions.
+ */
+public abstract class PollingSubscription implements Subscription {
+
+    /**
+     * Maximum time to wait for demand before checking whether the subscription was closed.
+     */
+    private static final long DEMAND_WAIT_MS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final PollingSubscriptions subscriptions;
+    private final PolledJournal<Message> journal;
+    private final String topicName;
+    private final SubscribeRequest request;
+    private final Checkpointer checkpointer;
+    private final SubscriptionDispatcher dispatcher;
+    private final Consumer<Received> callback;
+    private final Consumer<List<Received>> batchCallback;
+    private final int maxBatchSize;
+    private final WaitStrategy waitStrategy;
+    private final long maxLingerNanos;
+    private final ParallelDispatch parallelDispatch;
+    private final ParallelDispatch.Lane lane;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long startTime = System.currentTimeMillis();
+    private Thread poller;
+    private volatile boolean closed;
+    private volatile long currentOffset;
+    private volatile long safeOffset;
+    private volatile long consumedOffset;
+    private volatile long delivered;
+
+    /**
+     * @param subscriptions of the topic
+     * @param startOffset offset of the first message to deliver
+     * @param request to subscribe
+     * @param checkpointer to report the positions reached to or {@code null} if the subscription is not named
+     * @param dispatcher to run the subscription with
+     */
+    protected PollingSubscription(PollingSubscriptions subscriptions, long startOffset, SubscribeRequest request,
+                                  Checkpointer checkpointer, SubscriptionDispatcher dispatcher) {
+        this.subscriptions = subscriptions;
+        this.journal = subscriptions.getJournal();
+        this.topicName = subscriptions.getTopicName();
+        this.currentOffset = startOffset;
+        this.safeOffset = startOffset;
+        this.consumedOffset = startOffset;
+        this.request = request;
+        this.checkpointer = checkpointer;
+        this.dispatcher = dispatcher;
+        this.callback = request.getCallback();
+        this.batchCallback = request.getBatchCallback();
+        this.maxBatchSize = request.getMaxBatchSize();
+        this.maxLingerNanos = request.getMaxLinger().toNanos();
+        this.waitStrategy = request.getWaitStrategy();
+        if (request.getParallelism() > 1) {
+            this.parallelDispatch = new ParallelDispatch(request, dispatcher);
+            this.lane = parallelDispatch.lane(this::completed);
+        } else {
+            this.parallelDispatch = null;
+            this.lane = null;
+        }
+    }
+
+    /**
+     * Register the subscription with the topic and hand its loop over to the dispatcher.
+     */
+    public void start() {
+        subscriptions.add(this);
+        onStart();
+        Runnable loop = batchCallback != null ? this::pollBatches : this::poll;
+        dispatcher.dispatch("Poller for " + topicName, () -> run(loop));
+    }
+
+    /**
+     * @param offset in the journal
+     * @return the position of the offset
+     */
+    protected abstract Position position(long offset);
+
+    /**
+     * @param position created by {@link #position(long)}
+     * @return the offset of the position
+     */
+    protected abstract long offset(Position position);
+
+    /**
+     * Invoked once the subscription is registered with the topic, before its loop is dispatched.
+     * Does nothing by default.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Invoked once the consumed offset moved on. Does nothing by default.
+     */
+    protected void onConsumed() {
+    }
+
+    /**
+     * @return the offset of the first message not delivered yet
+     */
+    public long getConsumedOffset() {
+        return consumedOffset;
+    }
+
+    /**
+     * Run the loop on the current thread, which gets interrupted
+     * when the subscription is closed.
+     */
+    private void run(Runnable loop) {
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                poller = Thread.currentThread();
+            }
+            try {
+                loop.run();
+            } finally {
+                synchronized (this) {
+                    poller = null;
+                }
+                if (parallelDispatch != null) {
+                    // Wait for the callbacks running before committing the position
+                    parallelDispatch.close();
+                }
+                if (checkpointer != null) {
+                    // Commit the position of a message delivered while closing
+                    checkpointer.close();
+                }
+                // The dispatcher may reuse the thread
+                Thread.interrupted();
+            }
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void poll() {
+        try {
+            while (!closed) {
+                if (!request.hasDemand()) {
+                    // Do not read further messages until the subscriber asks for them
+                    request.awaitDemand(DEMAND_WAIT_MS);
+                    continue;
+                }
+                long offset = nextOffset();
+                Message message = subscriptions.waitNext(offset, waitStrategy, Long.MAX_VALUE);
+                // A wait both unparked and interrupted by close may return normally
+                if (message == null || closed) {
+                    continue;
+                }
+                if (matches(message)) {
+                    handleMessage(offset, message);
+                } else if (lane != null) {
+                    this.currentOffset = offset + 1;
+                    lane.skip(position(currentOffset));
+                } else {
+                    this.currentOffset = offset + 1;
+                    consumed(currentOffset);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Poller thread for consumer on topic " + topicName + " stopped.");
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    private void pollBatches() {
+        try {
+            while (!closed) {
+                long offset = nextOffset();
+                Message message = subscriptions.waitNext(offset, waitStrategy, Long.MAX_VALUE);
+                if (message != null && !closed) {
+                    List<Received> batch = collectBatch(offset, message);
+                    if (!batch.isEmpty()) {
+                        handleBatch(batch);
+                    }
+                    consumed(currentOffset);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Poller thread for consumer on topic " + topicName + " stopped.");
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Close the subscription once the journal could not be read, rather than
+     * leaving it without a poller.
+     */
+    private void failed(RuntimeException e) {
+        log.error(format("Closing %s after failing to read the journal", this), e);
+        close();
+    }
+
+    /**
+     * Collect the matching messages from the first one until the batch
+     * is full or no further message was appended within the linger time.
+     * The batch is empty if none of the messages available matched.
+     */
+    private List<Received> collectBatch(long firstOffset, Message first) throws InterruptedException {
+        List<Received> batch = new ArrayList<>();
+        long deadline = 0;
+        long offset = firstOffset;
+        Message message = first;
+        while (message != null) {
+            this.currentOffset = offset + 1;
+            if (matches(message)) {
+                if (batch.isEmpty()) {
+                    deadline = System.nanoTime() + maxLingerNanos;
+                }
+                batch.add(new Received(position(offset), message));
+                if (batch.size() >= maxBatchSize) {
+                    break;
+                }
+            }
+            offset = nextOffset();
+            message = journal.get(offset);
+            long remaining = deadline - System.nanoTime();
+            if (message == null && !batch.isEmpty() && remaining > 0) {
+                message = subscriptions.waitNext(offset, waitStrategy, remaining);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return the offset of the next message, past the messages removed before being consumed
+     */
+    private long nextOffset() {
+        long offset = journal.getNextOffset(currentOffset);
+        if (offset > currentOffset) {
+            log.warn(format("Subscription to topic %s skipped %d messages removed before being consumed",
+                    topicName, offset - currentOffset));
+            notifyGap(offset);
+        }
+        return offset;
+    }
+
+    private void notifyGap(long next) {
+        BiConsumer<Position, Position> gapCallback = request.getGapCallback();
+        if (gapCallback != null) {
+            try {
+                gapCallback.accept(position(currentOffset), position(next));
+            } catch (Exception e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param offset of the first message not delivered yet
+     */
+    private void consumed(long offset) {
+        this.consumedOffset = offset;
+        onConsumed();
+    }
+
+    private boolean matches(Message message) {
+        return request.matches(message.getProperties());
+    }
+
+    private void handleBatch(List<Received> batch) {
+        try {
+            batchCallback.accept(batch);
+        } catch (Exception e) {
+            log.warn(e.getMessage(), e);
+        }
+        this.delivered += batch.size();
+        checkpoint(position(currentOffset));
+    }
+
+    private void handleMessage(long offset, Message message) throws InterruptedException {
+        if (lane != null) {
+            Received received = new Received(position(offset), message);
+            lane.dispatch(received, position(offset + 1));
+            this.currentOffset = offset + 1;
+            return;
+        }
+        try {
+            Received received = new Received(position(offset), message);
+            callback.accept(received);
+        } catch (Exception e) {
+            log.warn(e.getMessage(), e);
+        }
+        this.currentOffset = offset + 1;
+        this.delivered++;
+        consumed(currentOffset);
+        checkpoint(position(currentOffset));
+    }
+
+    /**
+     * @param safe low-water mark of the messages completed in parallel
+     */
+    private void completed(Position safe) {
+        this.safeOffset = offset(safe);
+        consumed(safeOffset);
+        checkpoint(safe);
+    }
+
+    private void checkpoint(Position next) {
+        if (checkpointer != null) {
+            checkpointer.update(next);
+        }
+    }
+
+    @Override
+    public SubscriptionStats stats() {
+        long offset = lane != null ? this.safeOffset : this.currentOffset;
+        long lag = Math.max(0, journal.getLastOffset() + 1 - offset);
+        return new SubscriptionStats(position(offset), lag, lane != null ? lane.getCompleted() : delivered, startTime);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        subscriptions.remove(this);
+        if (poller != null) {
+            poller.interrupt();
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        String name = request.getName();
+        return format("Subscription %sto topic %s at offset %d", name != null ? name + ' ' : "", topicName, currentOffset);
+    }
+
+    /**
+     * @param timeoutMs maximum time to wait
+     * @return {@code true} if the loop stopped, {@code false} if the wait timed out
+     */
+    boolean awaitStopped(long timeoutMs) {
+        if (Thread.currentThread() == poller) {
+            // Closed by its own callback
+            return true;
+        }
+        try {
+            return stopped.await(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.WaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The subscriptions polling the journal of a topic. The subscriptions caught up
+ * wait for the next message according to their {@link WaitStrategy}, the senders
+ * wake up the parked ones once they appended messages.
+ */
+public final class PollingSubscriptions {
+
+    /**
+     * Number of checks for a message before a spinning subscription parks, tens of microseconds.
+     */
+    static final int MAX_SPINS = 10000;
+
+    /**
+     * Maximum time to wait for the subscriptions to stop when the topic is closed.
+     */
+    static final long STOP_TIMEOUT_MS = 5000;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final String topicName;
+
+    private final PolledJournal<Message> journal;
+
+    private final long maxParkNanos;
+
+    /**
+     * Threads of the subscriptions parked until the next message is sent.
+     */
+    private final Set<Thread> parked = ConcurrentHashMap.newKeySet();
+
+    private final Set<PollingSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param topicName name of the topic
+     * @param journal of the topic
+     */
+    public PollingSubscriptions(String topicName, PolledJournal<Message> journal) {
+        this(topicName, journal, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param topicName name of the topic
+     * @param journal of the topic
+     * @param maxParkNanos maximum time a parked subscription waits before checking the journal again,
+     *                     for the messages appended without waking up the subscriptions
+     */
+    public PollingSubscriptions(String topicName, PolledJournal<Message> journal, long maxParkNanos) {
+        this.topicName = topicName;
+        this.journal = journal;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    /**
+     * @return the subscriptions started and not closed yet
+     */
+    public Set<PollingSubscription> getSubscriptions() {
+        return unmodifiableSet(subscriptions);
+    }
+
+    /**
+     * Only the parked subscriptions are woken up, the spinning ones see the
+     * message appended without being signalled.
+     */
+    public void unparkWaiting() {
+        if (!parked.isEmpty()) {
+            for (Thread thread : parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Close the subscriptions and wait for their loops to stop, so that
+     * the journal can be closed.
+     */
+    public void close() {
+        // Closing removes the subscriptions
+        List<PollingSubscription> closing = new ArrayList<>(subscriptions);
+        for (PollingSubscription subscription : closing) {
+            subscription.close();
+        }
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        for (PollingSubscription subscription : closing) {
+            if (!subscription.awaitStopped(deadline - System.currentTimeMillis())) {
+                log.warn("Subscription to topic {} still running after {} ms", topicName, STOP_TIMEOUT_MS);
+            }
+        }
+    }
+
+    String getTopicName() {
+        return topicName;
+    }
+
+    PolledJournal<Message> getJournal() {
+        return journal;
+    }
+
+    void add(PollingSubscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    void remove(PollingSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Wait until the message at the offset is appended.
+     *
+     * @param offset of the message
+     * @param strategy to wait with
+     * @param timeoutNanos maximum time to wait or {@code Long.MAX_VALUE} to wait until the message is appended
+     * @return the message or {@code null} if the wait timed out or the message was removed
+     * @throws InterruptedException if the subscription was closed
+     */
+    Message waitNext(long offset, WaitStrategy strategy, long timeoutNanos) throws InterruptedException {
+        boolean timed = timeoutNanos != Long.MAX_VALUE;
+        long deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+        int spins = 0;
+        while (offset > journal.getLastOffset()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                break;
+            }
+            switch (strategy) {
+            case busySpin:
+                break;
+            case yielding:
+                Thread.yield();
+                break;
+            case spinning:
+                if (spins < MAX_SPINS) {
+                    spins++;
+                    break;
+                }
+                park(offset, remaining);
+                break;
+            default:
+                park(offset, remaining);
+            }
+        }
+        return journal.get(offset);
+    }
+
+    /**
+     * The thread is registered before checking the journal once more, so that a
+     * message appended concurrently either is seen or unparks the thread.
+     */
+    private void park(long offset, long timeoutNanos) {
+        Thread current = Thread.currentThread();
+        parked.add(current);
+        try {
+            if (offset > journal.getLastOffset()) {
+                log.debug("Waiting for next message");
+                long parkNanos = Math.min(timeoutNanos, maxParkNanos);
+                if (parkNanos == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, parkNanos);
+                }
+            }
+        } finally {
+            parked.remove(current);
+        }
+    }
+}
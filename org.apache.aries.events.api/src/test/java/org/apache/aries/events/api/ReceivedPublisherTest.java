@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.api;
+
+import static java.util.Collections.singletonMap;
+import static org.apache.aries.events.api.SubscribeRequestBuilder.toPublisher;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+
+public class ReceivedPublisherTest {
+
+    private SubscribeRequest subscribed;
+
+    private final Messaging messaging = new Messaging() {
+        @Override
+        public void send(String topic, Message message) {
+        }
+
+        @Override
+        public CompletionStage<Position> sendAsync(String topic, Message message) {
+            return null;
+        }
+
+        @Override
+        public List<Position> send(String topic, List<Message> messages) {
+            return null;
+        }
+
+        @Override
+        public Subscription subscribe(SubscribeRequestBuilder request) {
+            subscribed = request.build();
+            return new Subscription() {
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public SubscriptionStats stats() {
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public Position earliestPosition(String topic) {
+            return null;
+        }
+
+        @Override
+        public Position latestPosition(String topic) {
+            return null;
+        }
+
+        @Override
+        public Position positionFromString(String position) {
+            return null;
+        }
+    };
+
+    @Test
+    public void testRequestSettings() {
+        Instant time = Instant.now();
+        PropertyFilter filter = PropertyFilter.equalTo("my", "testvalue");
+        messaging.publisher(toPublisher("test").filter(filter).startAt(time).name("sub")
+                .waitStrategy(WaitStrategy.yielding)).subscribe(new CountingSubscriber());
+        assertEquals("test", subscribed.getTopic());
+        assertEquals(time, subscribed.getStartTime());
+        assertEquals(filter, subscribed.getFilters().get(0));
+        assertEquals("sub", subscribed.getName());
+        assertEquals(WaitStrategy.yielding, subscribed.getWaitStrategy());
+        assertNotNull(subscribed.getCallback());
+    }
+
+    @Test
+    public void testSerialSignals() throws InterruptedException {
+        CountingSubscriber subscriber = new CountingSubscriber();
+        messaging.publisher(toPublisher("test")).subscribe(subscriber);
+        // Backends may invoke the callback from several threads, e.g. one per partition
+        int threads = 4;
+        int messages = 1000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < messages; j++) {
+                    subscribed.getCallback().accept(received());
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await(10, TimeUnit.SECONDS);
+        assertEquals(threads * messages, subscriber.received.get());
+        assertEquals(1, subscriber.maxConcurrent);
+        assertTrue(subscriber.errors.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoCallback() {
+        messaging.subscribe(toPublisher("test"));
+    }
+
+    @Test
+    public void testDemand() throws InterruptedException {
+        CountingSubscriber subscriber = new CountingSubscriber(0);
+        messaging.publisher(toPublisher("test")).subscribe(subscriber);
+        assertFalse(subscribed.hasDemand());
+        assertFalse(subscribed.awaitDemand(10));
+        subscriber.subscription.request(1);
+        assertTrue(subscribed.awaitDemand(10));
+        // Messages handed over beyond the demand are held until requested
+        subscribed.getCallback().accept(received());
+        subscribed.getCallback().accept(received());
+        assertEquals(1, subscriber.received.get());
+        assertFalse(subscribed.hasDemand());
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.received.get());
+        assertTrue(subscribed.hasDemand());
+    }
+
+    private static Received received() {
+        return new Received(null, new Message(new byte[0], singletonMap("my", "testvalue")));
+    }
+
+    private static class CountingSubscriber implements Subscriber<Received> {
+        private final long initialDemand;
+        private final AtomicInteger received = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        private volatile int maxConcurrent;
+        private org.reactivestreams.Subscription subscription;
+
+        CountingSubscriber() {
+            this(Long.MAX_VALUE);
+        }
+
+        CountingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(org.reactivestreams.Subscription s) {
+            subscription = s;
+            if (initialDemand > 0) {
+                s.request(initialDemand);
+            }
+        }
+
+        @Override
+        public void onNext(Received received) {
+            int current = concurrent.incrementAndGet();
+            maxConcurrent = Math.max(maxConcurrent, current);
+            Thread.yield();
+            this.received.incrementAndGet();
+            concurrent.decrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.add(t);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.impl.ParallelDispatch.Lane;
+import org.junit.Test;
+
+public class ParallelDispatchTest {
+
+    @Test
+    public void testOrderingByKey() throws InterruptedException {
+        Map<String, List<Long>> delivered = new ConcurrentHashMap<>();
+        CountDownLatch completed = new CountDownLatch(1000);
+        ParallelDispatch dispatch = parallelDispatch(4, received -> {
+            delivered.computeIfAbsent(received.getMessage().getKey(), key -> new CopyOnWriteArrayList<>())
+                    .add(((LongPosition) received.getPosition()).offset);
+            completed.countDown();
+        });
+        try {
+            Lane lane = dispatch.lane(safe -> { });
+            for (long offset = 0; offset < 1000; offset++) {
+                lane.dispatch(received(offset, "key" + offset % 10), new LongPosition(offset + 1));
+            }
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+        } finally {
+            dispatch.close();
+        }
+        assertEquals(10, delivered.size());
+        for (List<Long> offsets : delivered.values()) {
+            assertEquals(100, offsets.size());
+            for (int i = 1; i < offsets.size(); i++) {
+                assertTrue(offsets.get(i - 1) < offsets.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLowWaterMark() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch others = new CountDownLatch(9);
+        ParallelDispatch dispatch = parallelDispatch(2, received -> {
+            if ("slow".equals(received.getMessage().getKey())) {
+                awaitQuietly(release);
+            } else {
+                others.countDown();
+            }
+        });
+        try {
+            List<Position> progress = new CopyOnWriteArrayList<>();
+            Lane lane = dispatch.lane(progress::add);
+            lane.dispatch(received(0, "slow"), new LongPosition(1));
+            for (long offset = 1; offset < 10; offset++) {
+                // All the other messages go to the worker not blocked by the slow message
+                lane.dispatch(received(offset, "fast"), new LongPosition(offset + 1));
+            }
+            assertTrue(others.await(10, TimeUnit.SECONDS));
+            // Blocked by the first message, not completed yet
+            assertNull(lane.getSafePosition());
+            assertTrue(progress.isEmpty());
+            assertEquals(9, lane.getCompleted());
+
+            release.countDown();
+            awaitSafePosition(lane, 10);
+            assertEquals(new LongPosition(10), progress.get(progress.size() - 1));
+            assertEquals(10, lane.getCompleted());
+
+            lane.skip(new LongPosition(11));
+            assertEquals(new LongPosition(11), lane.getSafePosition());
+        } finally {
+            release.countDown();
+            dispatch.close();
+        }
+    }
+
+    @Test
+    public void testInterruptedDispatch() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        ParallelDispatch dispatch = parallelDispatch(1, received -> awaitQuietly(release));
+        try {
+            Lane lane = dispatch.lane(safe -> { });
+            AtomicReference<Long> dispatched = new AtomicReference<>();
+            AtomicBoolean interrupted = new AtomicBoolean();
+            Thread dispatcher = new Thread(() -> {
+                long offset = 0;
+                try {
+                    // Fills the queue of the blocked worker, then blocks
+                    for (;; offset++) {
+                        lane.dispatch(received(offset, "key"), new LongPosition(offset + 1));
+                        dispatched.set(offset);
+                    }
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            });
+            dispatcher.start();
+            while (dispatcher.getState() != Thread.State.WAITING) {
+                Thread.sleep(10);
+            }
+            dispatcher.interrupt();
+            dispatcher.join(10000);
+            assertTrue(interrupted.get());
+
+            // The message interrupted is not delivered and does not hold back the low-water mark
+            release.countDown();
+            awaitSafePosition(lane, dispatched.get() + 1);
+            assertEquals(dispatched.get() + 1, lane.getCompleted());
+        } finally {
+            release.countDown();
+            dispatch.close();
+        }
+    }
+
+    @Test
+    public void testCallbackError() throws InterruptedException {
+        ParallelDispatch dispatch = parallelDispatch(1, received -> {
+            if (((LongPosition) received.getPosition()).offset == 0) {
+                throw new AssertionError("Failed callback");
+            }
+        });
+        try {
+            Lane lane = dispatch.lane(safe -> { });
+            lane.dispatch(received(0, "key"), new LongPosition(1));
+            lane.dispatch(received(1, "key"), new LongPosition(2));
+            // The worker survives the error and delivers the next message
+            awaitSafePosition(lane, 2);
+            assertEquals(2, lane.getCompleted());
+        } finally {
+            dispatch.close();
+        }
+    }
+
+    private static ParallelDispatch parallelDispatch(int parallelism, Consumer<Received> callback) {
+        SubscribeRequestBuilder request = SubscribeRequestBuilder.to("test", callback).parallelism(parallelism);
+        return new ParallelDispatch(request.build(), SubscriptionDispatcher.threadPerSubscription());
+    }
+
+    private static Received received(long offset, String key) {
+        Message message = new Message(String.valueOf(offset).getBytes(UTF_8), emptyMap(), key);
+        return new Received(new LongPosition(offset), message);
+    }
+
+    private static void awaitSafePosition(Lane lane, long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (! new LongPosition(offset).equals(lane.getSafePosition())) {
+            assertFalse("Safe position not reached", System.currentTimeMillis() > deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class LongPosition implements Position {
+
+        private final long offset;
+
+        private LongPosition(long offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public String positionToString() {
+            return String.valueOf(offset);
+        }
+
+        @Override
+        public int compareTo(Position position) {
+            return Long.compare(offset, ((LongPosition) position).offset);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof LongPosition && ((LongPosition) other).offset == offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(offset);
+        }
+
+        @Override
+        public String toString() {
+            return positionToString();
+        }
+    }
+}
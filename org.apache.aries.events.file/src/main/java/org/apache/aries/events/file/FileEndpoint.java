@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+@ObjectClassDefinition(name = "Apache Aries Events - File journal",
+        description = "Journal of memory-mapped segment files")
+public @interface FileEndpoint {
+
+    @AttributeDefinition(name = "Directory",
+            description = "The directory holding a sub-directory of segment files per topic.")
+    String directory() default "events";
+
+    @AttributeDefinition(name = "Segment Size",
+            description = "The size in bytes of the segment files. A new segment is rolled when the current one is full.")
+    int segmentSize() default 64 * 1024 * 1024;
+
+    @AttributeDefinition(name = "Index Interval",
+            description = "The number of bytes between two entries of the sparse offset index of a segment. " +
+                    "Reading a message scans at most this number of bytes from the closest entry.")
+    int indexInterval() default 4096;
+
+    @AttributeDefinition(name = "Fsync Policy",
+            description = "When the messages are forced to the disk: message (before each send returns), " +
+                    "group (before each send returns, shared by the concurrent senders) or interval (periodically).")
+    FsyncPolicy fsyncPolicy() default FsyncPolicy.group;
+
+    @AttributeDefinition(name = "Fsync Interval",
+            description = "The time in milliseconds between two forces with the interval fsync policy.")
+    long fsyncIntervalMs() default 1000;
+
+    @AttributeDefinition(name = "Retention Bytes",
+            description = "The minimum number of bytes retained per topic. The oldest segments beyond are deleted when rolling and periodically. " +
+                    "With 0, the segments are not deleted based on their size.")
+    long retentionBytes() default 0;
+
+    @AttributeDefinition(name = "Retention",
+            description = "The time in milliseconds the messages are retained. The segments holding older messages only " +
+                    "are deleted when rolling and periodically. With 0, the segments are not deleted based on their age.")
+    long retentionMs() default 0;
+
+}
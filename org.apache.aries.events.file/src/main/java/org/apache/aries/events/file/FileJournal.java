@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.impl.MessageCodec;
+import org.apache.aries.events.impl.PolledJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of a topic, made of the segment files of its directory.
+ * A new segment is rolled when the current one is full, the oldest segments
+ * beyond the retention are deleted when rolling and periodically.
+ * <p>
+ * The appends are serialized on the journal. The readers do not lock: the
+ * cursor publishes the messages appended, or the synced offset the messages
+ * forced to the disk unless the fsync policy is interval, and the array of
+ * segments is replaced when rolling, so that a reader keeps reading a segment
+ * deleted meanwhile.
+ */
+class FileJournal implements PolledJournal<Message>, AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final FsyncPolicy fsyncPolicy;
+    private final long retentionBytes;
+    private final long retentionMs;
+    private final MessageCodec codec = new MessageCodec();
+
+    /**
+     * Ordered by base offset, the last one being written.
+     */
+    private volatile Segment[] segments;
+
+    /**
+     * Offset of the last message appended, {@code -1} if none.
+     */
+    private volatile long cursor;
+
+    /**
+     * Offset of the last message forced to the disk.
+     */
+    private volatile long synced;
+    private final Object syncLock = new Object();
+
+    /**
+     * Only accessed by the writer.
+     */
+    private long lastAppendTime;
+
+    FileJournal(Path directory, FileEndpoint config) throws IOException {
+        this.directory = directory;
+        this.segmentSize = config.segmentSize();
+        this.indexInterval = config.indexInterval();
+        this.fsyncPolicy = config.fsyncPolicy();
+        this.retentionBytes = config.retentionBytes();
+        this.retentionMs = config.retentionMs();
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(Segment::isSegment).sorted().collect(Collectors.toList());
+        }
+        Segment[] opened = new Segment[files.size()];
+        for (int i = 0; i < opened.length; i++) {
+            opened[i] = Segment.open(files.get(i), indexInterval);
+        }
+        if (opened.length == 0) {
+            opened = new Segment[] { Segment.create(directory, 0, segmentSize, indexInterval) };
+        }
+        this.segments = opened;
+        Segment last = opened[opened.length - 1];
+        this.cursor = last.getNextOffset() - 1;
+        this.synced = cursor;
+        this.lastAppendTime = last.getLastTime();
+        log.debug(format("Opened %d segments in %s up to offset %d", opened.length, directory, cursor));
+    }
+
+    /**
+     * @param message to append
+     * @return the offset of the message
+     */
+    synchronized long append(Message message) {
+        ByteBuffer encoded = codec.encode(message);
+        if (encoded.remaining() > segmentSize - Segment.RECORD_HEADER) {
+            throw new IllegalArgumentException(format("Message of %d bytes exceeds the segment size of %d bytes",
+                    encoded.remaining(), segmentSize));
+        }
+        long offset = cursor + 1;
+        // Keep the append times ordered even if the clock goes backwards
+        lastAppendTime = Math.max(lastAppendTime, System.currentTimeMillis());
+        Segment[] current = segments;
+        if (!current[current.length - 1].append(offset, lastAppendTime, encoded)) {
+            roll(offset).append(offset, lastAppendTime, encoded);
+        }
+        cursor = offset;
+        return offset;
+    }
+
+    /**
+     * @param messages to append in order
+     * @return the offset of the first message
+     */
+    synchronized long append(List<Message> messages) {
+        long first = cursor + 1;
+        for (Message message : messages) {
+            append(message);
+        }
+        return first;
+    }
+
+    private Segment roll(long offset) {
+        Segment[] current = segments;
+        // The rolled segment is complete, force it whatever the policy
+        current[current.length - 1].force();
+        Segment next;
+        try {
+            next = Segment.create(directory, offset, segmentSize, indexInterval);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Segment[] rolled = Arrays.copyOf(current, current.length + 1);
+        rolled[current.length] = next;
+        segments = retain(rolled);
+        log.debug("Rolled segment " + next);
+        return next;
+    }
+
+    /**
+     * Delete the oldest segments beyond the retention, for the topics not rolling
+     * a new segment while their messages expire.
+     */
+    synchronized void retain() {
+        segments = retain(segments);
+    }
+
+    /**
+     * Delete the oldest segments holding only messages older than the retention time
+     * or that the other segments exceed the retention bytes without.
+     */
+    private Segment[] retain(Segment[] current) {
+        long total = 0;
+        for (Segment segment : current) {
+            total += segment.size();
+        }
+        long expired = System.currentTimeMillis() - retentionMs;
+        int from = 0;
+        while (from < current.length - 1) {
+            Segment oldest = current[from];
+            boolean old = retentionMs > 0 && oldest.getLastTime() < expired;
+            boolean exceeding = retentionBytes > 0 && total - oldest.size() >= retentionBytes;
+            if (!old && !exceeding) {
+                break;
+            }
+            total -= oldest.size();
+            from++;
+        }
+        for (int i = 0; i < from; i++) {
+            try {
+                current[i].delete();
+                log.debug("Deleted segment " + current[i]);
+            } catch (IOException e) {
+                log.warn("Failed to delete segment " + current[i], e);
+            }
+        }
+        return Arrays.copyOfRange(current, from, current.length);
+    }
+
+    /**
+     * Wait until the messages appended up to the offset are on the disk, as required by the fsync policy.
+     *
+     * @param offset of the last message to persist
+     */
+    void sync(long offset) {
+        if (fsyncPolicy == FsyncPolicy.interval || (fsyncPolicy == FsyncPolicy.group && synced >= offset)) {
+            return;
+        }
+        synchronized (syncLock) {
+            // A force by another sender may have covered the offset meanwhile
+            if (fsyncPolicy == FsyncPolicy.group && synced >= offset) {
+                return;
+            }
+            force();
+        }
+    }
+
+    /**
+     * Force the messages appended so far to the disk.
+     */
+    void force() {
+        synchronized (syncLock) {
+            // The segments rolled before were forced when rolling
+            long last = cursor;
+            Segment[] current = segments;
+            current[current.length - 1].force();
+            synced = last;
+        }
+    }
+
+    long getFirstOffset() {
+        return segments[0].getBaseOffset();
+    }
+
+    /**
+     * @return the offset of the last message visible to the readers, the last message forced to the disk
+     *         unless the fsync policy is interval, so that no message is consumed before it is durable
+     */
+    @Override
+    public long getLastOffset() {
+        return fsyncPolicy == FsyncPolicy.interval ? cursor : synced;
+    }
+
+    /**
+     * @param offset to read from
+     * @return the offset, the first offset if the offset was deleted already
+     *         or the base offset of the next segment if the offset is missing
+     *         from the end of a segment truncated by a crash
+     */
+    @Override
+    public long getNextOffset(long offset) {
+        Segment[] current = segments;
+        int index = indexOf(current, offset);
+        if (index < 0) {
+            return current[0].getBaseOffset();
+        }
+        if (offset >= current[index].getNextOffset() && index < current.length - 1) {
+            return current[index + 1].getBaseOffset();
+        }
+        return offset;
+    }
+
+    /**
+     * @param offset of the message
+     * @return the message or {@code null} if it is not visible yet or was deleted
+     */
+    @Override
+    public Message get(long offset) {
+        if (offset > getLastOffset() || offset < 0) {
+            return null;
+        }
+        Segment[] current = segments;
+        int index = indexOf(current, offset);
+        if (index < 0 || offset >= current[index].getNextOffset()) {
+            return null;
+        }
+        return current[index].read(offset);
+    }
+
+    /**
+     * @param time in milliseconds since the epoch
+     * @return the offset of the first message appended at or after the time
+     *         or the offset of the next message if there is none
+     */
+    long getOffsetAt(long time) {
+        long last = getLastOffset();
+        for (Segment segment : segments) {
+            if (segment.getNextOffset() > segment.getBaseOffset() && segment.getLastTime() >= time) {
+                long low = segment.getBaseOffset();
+                long high = Math.min(segment.getNextOffset(), last + 1);
+                while (low < high) {
+                    long mid = (low + high) >>> 1;
+                    if (segment.timeOf(mid) < time) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return low;
+            }
+        }
+        return last + 1;
+    }
+
+    /**
+     * @return the index of the segment holding the offset, {@code -1} if the offset was deleted
+     */
+    private static int indexOf(Segment[] current, long offset) {
+        int low = 0;
+        int high = current.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (current[mid].getBaseOffset() <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return current[low].getBaseOffset() <= offset ? low : -1;
+    }
+
+    @Override
+    public synchronized void close() {
+        force();
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("Failed to close segment " + segment, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.aries.events.api.CheckpointStore;
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Messaging;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.api.Type;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.FileCheckpointStore;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.Designate;
+
+/**
+ * Messaging journaling the messages of each topic in memory-mapped segment files
+ * of the local file system. The topics are kept in the {@code topics} directory
+ * and the positions of the named subscriptions in the {@code checkpoints} directory.
+ */
+@Component
+@Type("file")
+@Designate(ocd = FileEndpoint.class)
+public class FileMessaging implements Messaging {
+    /**
+     * Time between two deletions of the segments beyond the retention of the topics.
+     */
+    static final long RETENTION_INTERVAL_MS = 100;
+
+    private final Map<String, FileTopic> topics = new ConcurrentHashMap<>();
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private SubscriptionDispatcher dispatcher;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private CheckpointStore checkpointStore;
+
+    private FileEndpoint config;
+    private Path topicsDirectory;
+    private CheckpointStore fileCheckpointStore;
+    private ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService checkpointWriter = Checkpointer.newWriter();
+
+    public FileMessaging() {
+    }
+
+    public FileMessaging(SubscriptionDispatcher dispatcher, CheckpointStore checkpointStore) {
+        this.dispatcher = dispatcher;
+        this.checkpointStore = checkpointStore;
+    }
+
+    @Activate
+    public void activate(FileEndpoint config) {
+        this.config = config;
+        Path directory = Paths.get(config.directory());
+        this.topicsDirectory = directory.resolve("topics");
+        this.fileCheckpointStore = new FileCheckpointStore(directory.resolve("checkpoints"));
+        boolean sync = config.fsyncPolicy() == FsyncPolicy.interval;
+        boolean retain = config.retentionMs() > 0 || config.retentionBytes() > 0;
+        if (sync || retain) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "File journal maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (sync) {
+            scheduler.scheduleWithFixedDelay(this::force, config.fsyncIntervalMs(), config.fsyncIntervalMs(), MILLISECONDS);
+        }
+        if (retain) {
+            scheduler.scheduleWithFixedDelay(this::retain, RETENTION_INTERVAL_MS, RETENTION_INTERVAL_MS, MILLISECONDS);
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            awaitTermination(scheduler);
+        }
+        // The topics close their subscriptions before their journal
+        topics.values().forEach(FileTopic::close);
+        topics.clear();
+        checkpointWriter.shutdown();
+    }
+
+    @Override
+    public void send(String topicName, Message message) {
+        getOrCreate(topicName).send(message);
+    }
+
+    @Override
+    public CompletionStage<Position> sendAsync(String topicName, Message message) {
+        return completedFuture(getOrCreate(topicName).send(message));
+    }
+
+    @Override
+    public List<Position> send(String topicName, List<Message> messages) {
+        return getOrCreate(topicName).send(messages);
+    }
+
+    @Override
+    public Subscription subscribe(SubscribeRequestBuilder requestBuilder) {
+        SubscribeRequest request = requestBuilder.build();
+        FileTopic topic = getOrCreate(request.getTopic());
+        if (request.getName() == null) {
+            return topic.subscribe(request, request.getPosition(), null);
+        }
+        Checkpointer checkpointer = new Checkpointer(checkpointStore(), checkpointWriter, request);
+        String checkpoint = checkpointer.load();
+        Position start = checkpoint != null ? positionFromString(checkpoint) : request.getPosition();
+        return topic.subscribe(request, start, checkpointer);
+    }
+
+    @Override
+    public Position earliestPosition(String topicName) {
+        return getOrCreate(topicName).earliestPosition();
+    }
+
+    @Override
+    public Position latestPosition(String topicName) {
+        return getOrCreate(topicName).latestPosition();
+    }
+
+    @Override
+    public Position positionFromString(String position) {
+        return new FilePosition(Long.parseLong(position));
+    }
+
+    private void force() {
+        topics.values().forEach(FileTopic::force);
+    }
+
+    private void retain() {
+        topics.values().forEach(FileTopic::retain);
+    }
+
+    private static void awaitTermination(ScheduledExecutorService scheduler) {
+        try {
+            scheduler.awaitTermination(1, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileTopic getOrCreate(String topicName) {
+        return topics.computeIfAbsent(topicName, topicName2 -> new FileTopic(topicName2, journal(topicName2), dispatcher()));
+    }
+
+    private FileJournal journal(String topicName) {
+        try {
+            return new FileJournal(topicsDirectory.resolve(URLEncoder.encode(topicName, "UTF-8")), config);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SubscriptionDispatcher dispatcher() {
+        return dispatcher != null ? dispatcher : SubscriptionDispatcher.threadPerSubscription();
+    }
+
+    private CheckpointStore checkpointStore() {
+        return checkpointStore != null ? checkpointStore : fileCheckpointStore;
+    }
+
+}
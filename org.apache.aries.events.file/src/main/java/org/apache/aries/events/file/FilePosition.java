@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import org.apache.aries.events.api.Position;
+
+class FilePosition implements Position {
+
+    private final long offset;
+
+    FilePosition(long offset) {
+        this.offset = offset;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String positionToString() {
+        return Long.toString(offset);
+    }
+
+    @Override
+    public int compareTo(Position p) {
+        return Long.compare(offset, ((FilePosition) p).offset);
+    }
+}
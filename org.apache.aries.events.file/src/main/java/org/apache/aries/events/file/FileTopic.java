@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Seek;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.PollingSubscription;
+import org.apache.aries.events.impl.PollingSubscriptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Topic backed by a file journal. The subscriptions poll the journal from their
+ * own thread, the senders wake up the subscriptions parked once caught up.
+ * Unless the fsync policy is interval, the messages are delivered once forced
+ * to the disk, so that no position consumed is reused after a crash.
+ */
+class FileTopic implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final FileJournal journal;
+    private final SubscriptionDispatcher dispatcher;
+
+    private final PollingSubscriptions subscriptions;
+
+    public FileTopic(String topicName, FileJournal journal, SubscriptionDispatcher dispatcher) {
+        this.journal = journal;
+        this.dispatcher = dispatcher;
+        this.subscriptions = new PollingSubscriptions(topicName, journal);
+    }
+
+    public Position send(Message message) {
+        long offset = this.journal.append(message);
+        this.journal.sync(offset);
+        subscriptions.unparkWaiting();
+        return new FilePosition(offset);
+    }
+
+    public List<Position> send(List<Message> messages) {
+        long first = this.journal.append(messages);
+        this.journal.sync(first + messages.size() - 1);
+        subscriptions.unparkWaiting();
+        List<Position> positions = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            positions.add(new FilePosition(first + i));
+        }
+        return positions;
+    }
+
+    /**
+     * Force the messages to the disk, for the interval fsync policy.
+     */
+    public void force() {
+        this.journal.force();
+    }
+
+    /**
+     * Delete the segments beyond the retention.
+     */
+    public void retain() {
+        this.journal.retain();
+    }
+
+    /**
+     * Close the subscriptions, then the journal they read.
+     */
+    @Override
+    public void close() {
+        this.subscriptions.close();
+        this.journal.close();
+    }
+
+    /**
+     * @param request to subscribe
+     * @param start position overriding the position of the request or {@code null}
+     * @param checkpointer to report the positions reached to or {@code null} if the subscription is not named
+     * @return the subscription
+     */
+    public Subscription subscribe(SubscribeRequest request, Position start, Checkpointer checkpointer) {
+        long startOffset = getStartOffset((FilePosition) start, request.getStartTime(), request.getSeek());
+        log.debug("Consuming from " + startOffset);
+        TopicSubscription subscription = new TopicSubscription(startOffset, request, checkpointer);
+        subscription.start();
+        return subscription;
+    }
+
+    public Position earliestPosition() {
+        return new FilePosition(this.journal.getFirstOffset());
+    }
+
+    public Position latestPosition() {
+        return new FilePosition(this.journal.getLastOffset() + 1);
+    }
+
+    private long getStartOffset(FilePosition position, Instant startTime, Seek seek) {
+        if (position != null) {
+            return position.getOffset();
+        } else if (startTime != null) {
+            return this.journal.getOffsetAt(startTime.toEpochMilli());
+        } else {
+            if (seek == Seek.earliest) {
+                return this.journal.getFirstOffset();
+            } else {
+                return this.journal.getLastOffset() + 1;
+            }
+        }
+    }
+
+    class TopicSubscription extends PollingSubscription {
+
+        TopicSubscription(long startOffset, SubscribeRequest request, Checkpointer checkpointer) {
+            super(subscriptions, startOffset, request, checkpointer, dispatcher);
+        }
+
+        @Override
+        protected Position position(long offset) {
+            return new FilePosition(offset);
+        }
+
+        @Override
+        protected long offset(Position position) {
+            return ((FilePosition) position).getOffset();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+/**
+ * When the messages appended to the segment files are forced to the disk.
+ * The subscriptions only receive the messages forced, unless the policy is interval.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Force each message, or each batch of messages, before the send returns.
+     */
+    message,
+
+    /**
+     * Force before the send returns, a single force covering the messages
+     * appended concurrently by all the senders waiting for it.
+     */
+    group,
+
+    /**
+     * Force periodically. The send returns and the subscriptions receive the message
+     * as soon as it is appended, the messages appended since the last force may be
+     * lost on a crash.
+     */
+    interval;
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.impl.MessageCodec;
+
+/**
+ * Segment file holding the messages from a base offset, memory-mapped in full.
+ * A record is made of its length, its checksum, its offset, its append time
+ * and the encoded message. The length is written last and the file is zero
+ * filled, so that a record torn by a crash is detected by its checksum and
+ * the file is truncated to the last complete record when opened.
+ * <p>
+ * A sparse index maps an offset every {@code indexInterval} bytes to the position
+ * of its record, a record is read by scanning from the closest entry before it.
+ * The index is kept on the heap and rebuilt when the file is opened.
+ * <p>
+ * There must be a single writer at a time. The readers do not lock and only
+ * read the offsets published by the journal.
+ */
+class Segment {
+    static final String SUFFIX = ".log";
+
+    /**
+     * Length, checksum, offset and append time.
+     */
+    static final int RECORD_HEADER = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    private final Path file;
+    private final long baseOffset;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int indexInterval;
+
+    /**
+     * Only accessed by the writer.
+     */
+    private final ByteBuffer writer;
+    private final CRC32 crc = new CRC32();
+    private int limit;
+    private int lastIndexed;
+
+    /**
+     * Relative offset in the high bits and position in the low bits of each entry.
+     */
+    private volatile long[] index = new long[64];
+    private volatile int indexSize;
+
+    private volatile long nextOffset;
+    private volatile long lastTime;
+
+    private Segment(Path file, long baseOffset, FileChannel channel, int size, int indexInterval) throws IOException {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.channel = channel;
+        this.buffer = channel.map(READ_WRITE, 0, size);
+        this.writer = buffer.duplicate();
+        this.indexInterval = indexInterval;
+        this.nextOffset = baseOffset;
+    }
+
+    /**
+     * @param directory of the topic
+     * @param baseOffset offset of the first message of the segment
+     * @param size of the file in bytes
+     * @param indexInterval number of bytes between two index entries
+     * @return a new empty segment
+     */
+    static Segment create(Path directory, long baseOffset, int size, int indexInterval) throws IOException {
+        Path file = directory.resolve(fileName(baseOffset));
+        FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE);
+        return new Segment(file, baseOffset, channel, size, indexInterval);
+    }
+
+    /**
+     * Open an existing segment and recover its complete records.
+     *
+     * @param file of the segment
+     * @param indexInterval number of bytes between two index entries
+     * @return the segment positioned after its last complete record
+     */
+    static Segment open(Path file, int indexInterval) throws IOException {
+        long baseOffset = baseOffset(file);
+        FileChannel channel = FileChannel.open(file, READ, WRITE);
+        Segment segment = new Segment(file, baseOffset, channel, (int) channel.size(), indexInterval);
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SUFFIX);
+    }
+
+    static boolean isSegment(Path file) {
+        return file.getFileName().toString().matches("\\d{20}" + SUFFIX.replace(".", "\\."));
+    }
+
+    private static long baseOffset(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private void recover() {
+        int position = 0;
+        long offset = baseOffset;
+        while (position + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER
+                    || buffer.getLong(position + 2 * Integer.BYTES) != offset
+                    || buffer.getInt(position + Integer.BYTES) != checksum(position, length)) {
+                break;
+            }
+            index(offset, position);
+            lastTime = buffer.getLong(position + 2 * Integer.BYTES + Long.BYTES);
+            position += RECORD_HEADER + length;
+            offset++;
+        }
+        if (position + Integer.BYTES <= buffer.capacity()) {
+            // Discard a torn record
+            writer.putInt(position, 0);
+        }
+        limit = position;
+        nextOffset = offset;
+    }
+
+    /**
+     * @param offset of the message, the next offset of the segment
+     * @param time of the append
+     * @param encoded message
+     * @return {@code false} if the segment is full
+     */
+    boolean append(long offset, long time, ByteBuffer encoded) {
+        int length = encoded.remaining();
+        if (length > buffer.capacity() - limit - RECORD_HEADER) {
+            return false;
+        }
+        int position = limit;
+        writer.putLong(position + 2 * Integer.BYTES, offset);
+        writer.putLong(position + 2 * Integer.BYTES + Long.BYTES, time);
+        writer.position(position + RECORD_HEADER);
+        writer.put(encoded);
+        writer.putInt(position + Integer.BYTES, checksum(position, length));
+        writer.putInt(position, length);
+        index(offset, position);
+        limit = position + RECORD_HEADER + length;
+        lastTime = time;
+        nextOffset = offset + 1;
+        return true;
+    }
+
+    /**
+     * Checksum of the offset, the append time and the encoded message of a record.
+     */
+    private int checksum(int position, int length) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + RECORD_HEADER + length);
+        record.position(position + 2 * Integer.BYTES);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private void index(long offset, int position) {
+        if (indexSize > 0 && position - lastIndexed < indexInterval) {
+            return;
+        }
+        long[] entries = index;
+        if (indexSize == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[indexSize] = (offset - baseOffset) << 32 | position;
+        // Publish the entry before the size
+        index = entries;
+        indexSize++;
+        lastIndexed = position;
+    }
+
+    /**
+     * @param offset of a message of the segment
+     * @return the message, backed by the mapped file
+     */
+    Message read(long offset) {
+        int position = positionOf(offset);
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + RECORD_HEADER + buffer.getInt(position));
+        record.position(position + RECORD_HEADER);
+        return MessageCodec.decode(record.slice());
+    }
+
+    /**
+     * @param offset of a message of the segment
+     * @return the time the message was appended at
+     */
+    long timeOf(long offset) {
+        return buffer.getLong(positionOf(offset) + 2 * Integer.BYTES + Long.BYTES);
+    }
+
+    private int positionOf(long offset) {
+        int size = indexSize;
+        long[] entries = index;
+        long relative = offset - baseOffset;
+        // Last entry at or before the offset
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (entries[mid] >>> 32 <= relative) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long current = entries[low] >>> 32;
+        int position = (int) entries[low];
+        while (current < relative) {
+            position += RECORD_HEADER + buffer.getInt(position);
+            current++;
+        }
+        return position;
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * @return the offset following the last message of the segment
+     */
+    long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * @return the append time of the last message or {@code 0} if the segment is empty
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * @return the number of bytes written, only accessed by the writer
+     */
+    int size() {
+        return limit;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Close the file. The messages read before remain readable.
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
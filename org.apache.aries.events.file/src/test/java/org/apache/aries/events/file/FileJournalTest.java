@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+
+import org.apache.aries.events.api.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSparseIndex() throws Exception {
+        try (FileJournal journal = journal(tmp.getRoot().toPath(), 4096)) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, journal.append(message(i)));
+            }
+            journal.sync(999);
+            assertEquals(0, journal.getFirstOffset());
+            assertEquals(999, journal.getLastOffset());
+            for (int i = 999; i >= 0; i -= 7) {
+                assertEquals(message(i), journal.get(i));
+            }
+            assertNull(journal.get(1000));
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        Path directory = tmp.getRoot().toPath();
+        try (FileJournal journal = journal(directory, 256)) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(message(i));
+            }
+        }
+        try (FileJournal journal = journal(directory, 256)) {
+            assertEquals(19, journal.getLastOffset());
+            assertEquals(message(5), journal.get(5));
+            assertEquals(20, journal.append(message(20)));
+            journal.sync(20);
+            assertEquals(message(20), journal.get(20));
+        }
+    }
+
+    @Test
+    public void testOffsetAt() throws Exception {
+        try (FileJournal journal = journal(tmp.getRoot().toPath(), 256)) {
+            journal.append(message(0));
+            long time = System.currentTimeMillis() + 1;
+            while (System.currentTimeMillis() < time) {
+                Thread.sleep(1);
+            }
+            journal.sync(journal.append(message(1)));
+            assertEquals(0, journal.getOffsetAt(0));
+            assertEquals(1, journal.getOffsetAt(time));
+            assertEquals(2, journal.getOffsetAt(Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testSyncedVisible() throws Exception {
+        try (FileJournal journal = journal(tmp.getRoot().toPath(), 256)) {
+            long offset = journal.append(message(0));
+            assertEquals(-1, journal.getLastOffset());
+            assertNull(journal.get(offset));
+            journal.sync(offset);
+            assertEquals(offset, journal.getLastOffset());
+            assertEquals(message(0), journal.get(offset));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMessageTooLarge() throws Exception {
+        try (FileJournal journal = journal(tmp.getRoot().toPath(), 32)) {
+            journal.append(message(0));
+        }
+    }
+
+    private FileJournal journal(Path directory, int segmentSize) throws Exception {
+        FileEndpoint config = mock(FileEndpoint.class);
+        when(config.segmentSize()).thenReturn(segmentSize);
+        when(config.indexInterval()).thenReturn(128);
+        when(config.fsyncPolicy()).thenReturn(FsyncPolicy.group);
+        return new FileJournal(directory, config);
+    }
+
+    private Message message(int index) {
+        return new Message(String.format("%06d", index).getBytes(UTF_8), emptyMap());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.file;
+
+import static org.apache.aries.events.api.SubscribeRequestBuilder.to;
+import static org.apache.aries.events.api.SubscribeRequestBuilder.toBatches;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonMap;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.Seek;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.apache.aries.events.api.Subscription;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileMessagingTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Set<Subscription> subscriptions = new HashSet<>();
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+
+    private FileMessaging messaging;
+
+    @After
+    public void after() {
+        subscriptions.forEach(Subscription::close);
+        if (messaging != null) {
+            messaging.deactivate();
+        }
+    }
+
+    @Test
+    public void testSend() {
+        messaging = messaging(config(FsyncPolicy.message, 1024 * 1024, 0));
+        send("test", "testcontent");
+        Position position = messaging.sendAsync("test", message("testcontent2")).toCompletableFuture().join();
+        assertEquals("1", position.positionToString());
+        subscribe(to("test", this::receive).seek(Seek.earliest));
+        await().until(() -> received, contains("testcontent", "testcontent2"));
+        List<Position> positions = messaging.send("test", Arrays.asList(message("testcontent3"), message("testcontent4")));
+        assertEquals("3", positions.get(1).positionToString());
+        await().until(() -> received, contains("testcontent", "testcontent2", "testcontent3", "testcontent4"));
+        assertEquals("4", messaging.latestPosition("test").positionToString());
+    }
+
+    @Test
+    public void testBatches() {
+        messaging = messaging(config(FsyncPolicy.group, 1024 * 1024, 0));
+        List<List<Received>> batches = new CopyOnWriteArrayList<>();
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        subscribe(toBatches("test", batches::add).seek(Seek.earliest));
+        await().until(batches::size, equalTo(1));
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void testRecovery() {
+        FileEndpoint config = config(FsyncPolicy.interval, 256, 0);
+        messaging = messaging(config);
+        for (int i = 0; i < 10; i++) {
+            send("test", "testcontent" + i);
+        }
+        messaging.deactivate();
+        messaging = messaging(config);
+        assertEquals("10", messaging.latestPosition("test").positionToString());
+        send("test", "testcontent10");
+        subscribe(to("test", this::receive).seek(Seek.earliest));
+        await().until(received::size, equalTo(11));
+        assertEquals("testcontent10", received.get(10));
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        FileEndpoint config = config(FsyncPolicy.message, 1024 * 1024, 0);
+        messaging = messaging(config);
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        messaging.deactivate();
+        // Corrupt the last byte of the second message, the messages are encoded in 42 and 43 bytes
+        Path segment = segments("test").get(0);
+        int end = 2 * Segment.RECORD_HEADER + 42 + 43;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 'X' }), end - 1);
+        }
+        messaging = messaging(config);
+        assertEquals("1", messaging.latestPosition("test").positionToString());
+        send("test", "testcontent3");
+        subscribe(to("test", this::receive).seek(Seek.earliest));
+        await().until(() -> received, contains("testcontent", "testcontent3"));
+    }
+
+    @Test
+    public void testRetention() throws IOException {
+        // Records of 68 bytes, three per segment
+        messaging = messaging(config(FsyncPolicy.group, 256, 512));
+        for (int i = 10; i < 50; i++) {
+            send("test", "testcontent" + i);
+        }
+        // Three segments are needed to retain 512 bytes, besides the one being written
+        assertEquals(4, segments("test").size());
+        assertEquals("30", messaging.earliestPosition("test").positionToString());
+        subscribe(to("test", this::receive).seek(Seek.earliest));
+        await().until(received::size, equalTo(10));
+        assertEquals("testcontent40", received.get(0));
+    }
+
+    @Test
+    public void testRetentionTime() throws IOException {
+        FileEndpoint config = config(FsyncPolicy.group, 256, 0);
+        when(config.retentionMs()).thenReturn(50L);
+        messaging = messaging(config);
+        for (int i = 10; i < 20; i++) {
+            send("test", "testcontent" + i);
+        }
+        assertTrue(segments("test").size() > 1);
+        // The expired segments are deleted without rolling a new one, except the one being written
+        await().until(() -> segments("test").size(), equalTo(1));
+        assertEquals("9", messaging.earliestPosition("test").positionToString());
+    }
+
+    @Test
+    public void testNamedSubscription() {
+        messaging = messaging(config(FsyncPolicy.group, 1024 * 1024, 0));
+        send("test", "testcontent");
+        Subscription subscription = messaging.subscribe(to("test", this::receive).seek(Seek.earliest).name("sub"));
+        await().until(received::size, equalTo(1));
+        subscription.close();
+        send("test", "testcontent2");
+        messaging.deactivate();
+        messaging = messaging(config(FsyncPolicy.group, 1024 * 1024, 0));
+        subscribe(to("test", this::receive).seek(Seek.earliest).name("sub"));
+        await().until(() -> received, contains("testcontent", "testcontent2"));
+    }
+
+    private FileMessaging messaging(FileEndpoint config) {
+        FileMessaging messaging = new FileMessaging();
+        messaging.activate(config);
+        return messaging;
+    }
+
+    private FileEndpoint config(FsyncPolicy fsyncPolicy, int segmentSize, long retentionBytes) {
+        FileEndpoint config = mock(FileEndpoint.class);
+        when(config.directory()).thenReturn(tmp.getRoot().getPath());
+        when(config.segmentSize()).thenReturn(segmentSize);
+        when(config.indexInterval()).thenReturn(64);
+        when(config.fsyncPolicy()).thenReturn(fsyncPolicy);
+        when(config.fsyncIntervalMs()).thenReturn(10L);
+        when(config.retentionBytes()).thenReturn(retentionBytes);
+        return config;
+    }
+
+    private List<Path> segments(String topic) throws IOException {
+        try (Stream<Path> files = Files.list(tmp.getRoot().toPath().resolve("topics").resolve(topic))) {
+            List<Path> segments = files.filter(Segment::isSegment).sorted().collect(Collectors.toList());
+            assertTrue(!segments.isEmpty());
+            return segments;
+        }
+    }
+
+    private void subscribe(SubscribeRequestBuilder request) {
+        subscriptions.add(messaging.subscribe(request));
+    }
+
+    private void receive(Received rec) {
+        received.add(new String(rec.getMessage().getPayload(), UTF_8));
+    }
+
+    private void send(String topic, String content) {
+        messaging.send(topic, message(content));
+    }
+
+    private Message message(String content) {
+        return new Message(content.getBytes(UTF_8), singletonMap("my", "testvalue"));
+    }
+}
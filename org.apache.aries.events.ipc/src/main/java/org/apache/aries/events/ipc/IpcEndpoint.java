@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.ipc;
+
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+@ObjectClassDefinition(name = "Apache Aries Events - Shared memory messaging",
+        description = "Messaging between the processes of a host through memory-mapped ring files")
+public @interface IpcEndpoint {
+
+    @AttributeDefinition(name = "Directory",
+            description = "The directory holding a ring file per topic, shared by the processes exchanging messages. " +
+                    "On Linux, /dev/shm is backed by memory rather than by a disk.")
+    String directory() default "/dev/shm/aries-events";
+
+    @AttributeDefinition(name = "Checkpoint Directory",
+            description = "The directory holding the positions of the named subscriptions, which must outlive " +
+                    "a reboot unlike the ring files. Empty to keep them in the checkpoints sub-directory of the " +
+                    "ring files directory.")
+    String checkpointDirectory() default "aries-events/checkpoints";
+
+    @AttributeDefinition(name = "Ring Size",
+            description = "The number of bytes of encoded messages retained per topic, beyond which the oldest " +
+                    "messages are overwritten. Only applies to the ring files created, existing ones keep their size.")
+    int ringSize() default 64 * 1024 * 1024;
+
+    @AttributeDefinition(name = "Index Size",
+            description = "The maximum number of messages retained per topic, rounded up to a power of two. " +
+                    "Only applies to the ring files created, existing ones keep their size.")
+    int indexSize() default 1024 * 1024;
+
+    @AttributeDefinition(name = "Poll Interval",
+            description = "The time in microseconds a subscription with the blocking wait strategy waits before " +
+                    "checking for the messages sent by other processes, which can not wake it up. The subscriptions " +
+                    "with the spinning strategies see these messages as soon as they are sent.")
+    long pollIntervalUs() default 100;
+
+}
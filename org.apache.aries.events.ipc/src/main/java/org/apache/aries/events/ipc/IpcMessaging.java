@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.ipc;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.aries.events.api.CheckpointStore;
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Messaging;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.api.Type;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.FileCheckpointStore;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.Designate;
+
+/**
+ * Messaging between the processes of a host, sharing a memory-mapped ring file
+ * per topic in the {@code topics} directory. The positions of the named
+ * subscriptions are kept in the checkpoint directory, on a disk by default as
+ * the ring files are usually kept in memory. A topic is written
+ * by a single process at a time, the first one sending to it, and read by any
+ * number of processes without locking. The positions and seek semantics are the
+ * ones of the in memory messaging.
+ */
+@Component
+@Type("ipc")
+@Designate(ocd = IpcEndpoint.class)
+public class IpcMessaging implements Messaging {
+    private final Map<String, IpcTopic> topics = new ConcurrentHashMap<>();
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private SubscriptionDispatcher dispatcher;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private CheckpointStore checkpointStore;
+
+    private IpcEndpoint config;
+    private Path topicsDirectory;
+    private CheckpointStore fileCheckpointStore;
+    private final ScheduledExecutorService checkpointWriter = Checkpointer.newWriter();
+
+    public IpcMessaging() {
+    }
+
+    public IpcMessaging(SubscriptionDispatcher dispatcher, CheckpointStore checkpointStore) {
+        this.dispatcher = dispatcher;
+        this.checkpointStore = checkpointStore;
+    }
+
+    @Activate
+    public void activate(IpcEndpoint config) {
+        this.config = config;
+        Path directory = Paths.get(config.directory());
+        this.topicsDirectory = directory.resolve("topics");
+        String checkpointDirectory = config.checkpointDirectory();
+        this.fileCheckpointStore = new FileCheckpointStore(checkpointDirectory == null || checkpointDirectory.isEmpty()
+                ? directory.resolve("checkpoints")
+                : Paths.get(checkpointDirectory));
+    }
+
+    @Deactivate
+    public void deactivate() {
+        // The topics close their subscriptions before their ring file
+        topics.values().forEach(IpcTopic::close);
+        topics.clear();
+        checkpointWriter.shutdown();
+    }
+
+    @Override
+    public void send(String topicName, Message message) {
+        getOrCreate(topicName).send(message);
+    }
+
+    @Override
+    public CompletionStage<Position> sendAsync(String topicName, Message message) {
+        return completedFuture(getOrCreate(topicName).send(message));
+    }
+
+    @Override
+    public List<Position> send(String topicName, List<Message> messages) {
+        return getOrCreate(topicName).send(messages);
+    }
+
+    @Override
+    public Subscription subscribe(SubscribeRequestBuilder requestBuilder) {
+        SubscribeRequest request = requestBuilder.build();
+        IpcTopic topic = getOrCreate(request.getTopic());
+        if (request.getName() == null) {
+            return topic.subscribe(request, request.getPosition(), null);
+        }
+        Checkpointer checkpointer = new Checkpointer(checkpointStore(), checkpointWriter, request);
+        String checkpoint = checkpointer.load();
+        Position start = checkpoint != null ? positionFromString(checkpoint) : request.getPosition();
+        return topic.subscribe(request, start, checkpointer);
+    }
+
+    @Override
+    public Position earliestPosition(String topicName) {
+        return getOrCreate(topicName).earliestPosition();
+    }
+
+    @Override
+    public Position latestPosition(String topicName) {
+        return getOrCreate(topicName).latestPosition();
+    }
+
+    @Override
+    public Position positionFromString(String position) {
+        return new IpcPosition(Long.parseLong(position));
+    }
+
+    private IpcTopic getOrCreate(String topicName) {
+        return topics.computeIfAbsent(topicName, topicName2 ->
+                new IpcTopic(topicName2, ringFile(topicName2), MICROSECONDS.toNanos(config.pollIntervalUs()), dispatcher()));
+    }
+
+    private RingFile ringFile(String topicName) {
+        try {
+            Files.createDirectories(topicsDirectory);
+            Path file = topicsDirectory.resolve(URLEncoder.encode(topicName, "UTF-8") + ".ring");
+            return RingFile.open(file, config.ringSize(), config.indexSize());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SubscriptionDispatcher dispatcher() {
+        return dispatcher != null ? dispatcher : SubscriptionDispatcher.threadPerSubscription();
+    }
+
+    private CheckpointStore checkpointStore() {
+        return checkpointStore != null ? checkpointStore : fileCheckpointStore;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.ipc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Seek;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.PollingSubscription;
+import org.apache.aries.events.impl.PollingSubscriptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Topic backed by a ring file shared with other processes. The subscriptions poll
+ * the ring from their own thread. The senders of this process wake up the
+ * subscriptions parked once caught up, while the messages sent by other processes
+ * are seen by the parked subscriptions within the poll interval, or as soon as
+ * they are sent by the spinning subscriptions.
+ */
+class IpcTopic implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final RingFile journal;
+    private final SubscriptionDispatcher dispatcher;
+
+    /**
+     * Serializes the appends of this process, the other processes are locked out by the ring file.
+     */
+    private final Object writeLock = new Object();
+
+    private final PollingSubscriptions subscriptions;
+
+    /**
+     * @param topicName name of the topic
+     * @param journal ring file of the topic
+     * @param pollIntervalNanos maximum time a parked subscription waits before checking for messages sent by other processes
+     * @param dispatcher to run the subscriptions with
+     */
+    public IpcTopic(String topicName, RingFile journal, long pollIntervalNanos, SubscriptionDispatcher dispatcher) {
+        this.journal = journal;
+        this.dispatcher = dispatcher;
+        this.subscriptions = new PollingSubscriptions(topicName, journal, pollIntervalNanos);
+    }
+
+    public Position send(Message message) {
+        long offset;
+        synchronized (writeLock) {
+            acquireWriter();
+            offset = this.journal.append(message);
+        }
+        subscriptions.unparkWaiting();
+        return new IpcPosition(offset);
+    }
+
+    public List<Position> send(List<Message> messages) {
+        List<Position> positions = new ArrayList<>(messages.size());
+        synchronized (writeLock) {
+            acquireWriter();
+            for (Message message : messages) {
+                positions.add(new IpcPosition(this.journal.append(message)));
+            }
+        }
+        subscriptions.unparkWaiting();
+        return positions;
+    }
+
+    /**
+     * The first message sent by this process makes it the single writer of the topic.
+     */
+    private void acquireWriter() {
+        try {
+            this.journal.acquireWriter();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the subscriptions, then the ring file they read.
+     */
+    @Override
+    public void close() {
+        this.subscriptions.close();
+        this.journal.close();
+    }
+
+    /**
+     * @param request to subscribe
+     * @param start position overriding the position of the request or {@code null}
+     * @param checkpointer to report the positions reached to or {@code null} if the subscription is not named
+     * @return the subscription
+     */
+    public Subscription subscribe(SubscribeRequest request, Position start, Checkpointer checkpointer) {
+        long startOffset = getStartOffset((IpcPosition) start, request.getStartTime(), request.getSeek());
+        log.debug("Consuming from " + startOffset);
+        TopicSubscription subscription = new TopicSubscription(startOffset, request, checkpointer);
+        subscription.start();
+        return subscription;
+    }
+
+    public Position earliestPosition() {
+        return new IpcPosition(this.journal.getFirstOffset());
+    }
+
+    public Position latestPosition() {
+        return new IpcPosition(this.journal.getLastOffset() + 1);
+    }
+
+    private long getStartOffset(IpcPosition position, Instant startTime, Seek seek) {
+        if (position != null) {
+            return position.getOffset();
+        } else if (startTime != null) {
+            return this.journal.getOffsetAt(startTime.toEpochMilli());
+        } else {
+            if (seek == Seek.earliest) {
+                return this.journal.getFirstOffset();
+            } else {
+                return this.journal.getLastOffset() + 1;
+            }
+        }
+    }
+
+    class TopicSubscription extends PollingSubscription {
+
+        TopicSubscription(long startOffset, SubscribeRequest request, Checkpointer checkpointer) {
+            super(subscriptions, startOffset, request, checkpointer, dispatcher);
+        }
+
+        @Override
+        protected Position position(long offset) {
+            return new IpcPosition(offset);
+        }
+
+        @Override
+        protected long offset(Position position) {
+            return ((IpcPosition) position).getOffset();
+        }
+    }
+}
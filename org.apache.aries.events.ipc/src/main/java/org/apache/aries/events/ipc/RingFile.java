@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.ipc;
+
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.impl.MessageCodec;
+import org.apache.aries.events.impl.PolledJournal;
+
+import sun.misc.Unsafe;
+
+/**
+ * Ring buffer of messages in a memory-mapped file, shared by the processes
+ * mapping the same file. The file is made of a header, a ring of index entries
+ * and a ring of records:
+ * <ul>
+ * <li>the header holds the sizes of the rings, the offset of the oldest message
+ * retained and the offset of the last message published, on separate cache lines
+ * and in the native byte order</li>
+ * <li>the index entry of an offset holds the offset plus one, the position of its
+ * record in the stream of records and its append time</li>
+ * <li>a record is made of its length, its checksum and the encoded message,
+ * aligned on 8 bytes. A record that does not fit before the end of the ring
+ * starts over from its beginning.</li>
+ * </ul>
+ * There is a single writer per file, across the processes, holding a lock on
+ * the file. The writer moves the first offset past the messages before their
+ * index entries or records are overwritten, then publishes the message appended
+ * with an ordered store of the last offset.
+ * <p>
+ * The readers do not lock. They load the last offset with a volatile load before
+ * reading the messages up to it, and load the first offset after a load fence
+ * once a message is read. A message is read from its index entry and record,
+ * which are valid if the first offset did not move past the message meanwhile,
+ * the index entry still holds its offset and the checksum of the record matches.
+ * A message published but not visible in full yet is read again.
+ * <p>
+ * The offsets are accessed with {@link Unsafe} on the address of the mapping,
+ * since the memory model does not cover a {@link MappedByteBuffer} shared by
+ * processes and Java 8 has no ordered access to a buffer.
+ */
+class RingFile implements PolledJournal<Message>, AutoCloseable {
+    static final int MAGIC = 0x41455249;
+    static final int VERSION = 1;
+
+    private static final int DATA_CAPACITY = 8;
+    private static final int INDEX_CAPACITY = 12;
+    private static final int FIRST = 64;
+    private static final int CURSOR = 128;
+    private static final int TAIL = 136;
+    private static final int HEADER_SIZE = 192;
+
+    /**
+     * Offset plus one, record position and append time.
+     */
+    private static final int INDEX_ENTRY = 3 * Long.BYTES;
+
+    /**
+     * Length and checksum.
+     */
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    /**
+     * Lock regions beyond the end of the file.
+     */
+    private static final long INIT_LOCK = Long.MAX_VALUE - 2;
+    private static final long WRITER_LOCK = Long.MAX_VALUE - 1;
+
+    /**
+     * Number of reads of a message published before it is deemed corrupted.
+     */
+    private static final int MAX_RETRIES = 100000;
+
+    private static final Unsafe UNSAFE;
+    private static final long BUFFER_ADDRESS;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+            BUFFER_ADDRESS = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final int dataCapacity;
+    private final int indexMask;
+    private final int dataStart;
+
+    /**
+     * Only accessed by the writer.
+     */
+    private FileLock writerLock;
+    private ByteBuffer writer;
+    private final MessageCodec codec = new MessageCodec();
+    private final CRC32 crc = new CRC32();
+    private long first;
+    private long cursor;
+    private long tail;
+    private long lastAppendTime;
+
+    private RingFile(Path file, FileChannel channel, int dataCapacity, int indexCapacity) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.dataCapacity = dataCapacity;
+        this.indexMask = indexCapacity - 1;
+        this.dataStart = HEADER_SIZE + indexCapacity * INDEX_ENTRY;
+        this.buffer = channel.map(READ_WRITE, 0, fileSize(dataCapacity, indexCapacity));
+        this.address = UNSAFE.getLong(buffer, BUFFER_ADDRESS);
+    }
+
+    /**
+     * Open the ring file, creating it if it does not exist. An existing file keeps its sizes.
+     *
+     * @param file of the ring
+     * @param dataCapacity number of bytes of records of a new file, rounded up to 8 bytes
+     * @param indexCapacity maximum number of messages of a new file, rounded up to a power of two
+     * @return the ring file
+     */
+    static RingFile open(Path file, int dataCapacity, int indexCapacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE);
+        try {
+            // Serialize the initialization across the processes and the instances of this process
+            synchronized (RingFile.class) {
+                try (FileLock lock = channel.lock(INIT_LOCK, 1, false)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    channel.read(header, 0);
+                    if (header.getInt(0) == MAGIC) {
+                        return openExisting(file, channel, header);
+                    }
+                    if (channel.size() > 0 && header.getInt(0) != 0) {
+                        throw new IOException(format("%s is not a ring file", file));
+                    }
+                    return create(file, channel, align(dataCapacity), powerOfTwo(indexCapacity));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static RingFile openExisting(Path file, FileChannel channel, ByteBuffer header) throws IOException {
+        int version = header.getInt(Integer.BYTES);
+        if (version != VERSION) {
+            throw new IOException(format("Unsupported version %d of ring file %s", version, file));
+        }
+        return new RingFile(file, channel, header.getInt(DATA_CAPACITY), header.getInt(INDEX_CAPACITY));
+    }
+
+    /**
+     * The magic number is written last, once the file is initialized.
+     */
+    private static RingFile create(Path file, FileChannel channel, int dataCapacity, int indexCapacity) throws IOException {
+        if (fileSize(dataCapacity, indexCapacity) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(format("Ring of %d bytes and %d messages is too large", dataCapacity, indexCapacity));
+        }
+        RingFile ring = new RingFile(file, channel, dataCapacity, indexCapacity);
+        MappedByteBuffer buffer = ring.buffer;
+        for (int position = 0; position < ring.dataStart; position += Long.BYTES) {
+            buffer.putLong(position, 0);
+        }
+        buffer.putInt(Integer.BYTES, VERSION);
+        buffer.putInt(DATA_CAPACITY, dataCapacity);
+        buffer.putInt(INDEX_CAPACITY, indexCapacity);
+        UNSAFE.putLong(ring.address + FIRST, 0);
+        UNSAFE.putLong(ring.address + CURSOR, -1);
+        buffer.putLong(TAIL, 0);
+        buffer.putInt(0, MAGIC);
+        return ring;
+    }
+
+    private static long fileSize(int dataCapacity, int indexCapacity) {
+        return HEADER_SIZE + (long) indexCapacity * INDEX_ENTRY + dataCapacity;
+    }
+
+    private static int align(int size) {
+        return (size + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    private static int powerOfTwo(int count) {
+        int capacity = Integer.highestOneBit(Math.max(1, count));
+        return capacity < count ? capacity << 1 : capacity;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Become the writer of the ring, if not already.
+     *
+     * @throws IllegalStateException if another process or instance writes to the ring
+     */
+    void acquireWriter() throws IOException {
+        if (writerLock != null) {
+            return;
+        }
+        try {
+            writerLock = channel.tryLock(WRITER_LOCK, 1, false);
+        } catch (OverlappingFileLockException e) {
+            writerLock = null;
+        }
+        if (writerLock == null) {
+            throw new IllegalStateException(format("Ring file %s is written by another writer", file));
+        }
+        // Resume after the last message published by the previous writer
+        writer = buffer.duplicate();
+        first = getFirstOffset();
+        cursor = getLastOffset();
+        tail = buffer.getLong(TAIL);
+        lastAppendTime = cursor >= 0 ? buffer.getLong(indexEntry(cursor) + 2 * Long.BYTES) : 0;
+    }
+
+    /**
+     * @param message to append, by the writer only
+     * @return the offset of the message
+     */
+    long append(Message message) {
+        if (writerLock == null) {
+            throw new IllegalStateException(format("Ring file %s is not written by this instance", file));
+        }
+        ByteBuffer encoded = codec.encode(message);
+        int length = encoded.remaining();
+        int size = align(RECORD_HEADER + length);
+        if (size > dataCapacity) {
+            throw new IllegalArgumentException(format("Message of %d bytes exceeds the ring size of %d bytes", size, dataCapacity));
+        }
+        long offset = cursor + 1;
+        long position = tail;
+        int physical = (int) (position % dataCapacity);
+        if (physical + size > dataCapacity) {
+            position += dataCapacity - physical;
+            physical = 0;
+        }
+        long end = position + size;
+        evictBefore(offset, end - dataCapacity);
+
+        crc.reset();
+        crc.update(encoded.array(), encoded.arrayOffset() + encoded.position(), length);
+        int record = dataStart + physical;
+        writer.putInt(record, length);
+        writer.putInt(record + Integer.BYTES, (int) crc.getValue());
+        writer.position(record + RECORD_HEADER);
+        writer.put(encoded);
+
+        // Keep the append times ordered even if the clock goes backwards
+        lastAppendTime = Math.max(lastAppendTime, System.currentTimeMillis());
+        int entry = indexEntry(offset);
+        writer.putLong(entry + Long.BYTES, position);
+        writer.putLong(entry + 2 * Long.BYTES, lastAppendTime);
+        writer.putLong(entry, offset + 1);
+
+        writer.putLong(TAIL, end);
+        // Release the message to the readers
+        UNSAFE.putOrderedLong(null, address + CURSOR, offset);
+        cursor = offset;
+        tail = end;
+        return offset;
+    }
+
+    /**
+     * Move the first offset past the messages whose index entry or record is
+     * about to be overwritten, before overwriting them.
+     */
+    private void evictBefore(long offset, long position) {
+        long evicted = first;
+        while (evicted < offset
+                && (offset - evicted > indexMask || writer.getLong(indexEntry(evicted) + Long.BYTES) < position)) {
+            evicted++;
+        }
+        if (evicted != first) {
+            first = evicted;
+            UNSAFE.putOrderedLong(null, address + FIRST, evicted);
+            // Not reordered with the overwrites that follow
+            UNSAFE.storeFence();
+        }
+    }
+
+    /**
+     * Not reordered with the reads of the messages before.
+     */
+    long getFirstOffset() {
+        UNSAFE.loadFence();
+        return UNSAFE.getLongVolatile(null, address + FIRST);
+    }
+
+    /**
+     * @return the offset of the last message published, {@code -1} if none
+     */
+    @Override
+    public long getLastOffset() {
+        // Acquire the messages published
+        return UNSAFE.getLongVolatile(null, address + CURSOR);
+    }
+
+    /**
+     * @param offset to read from
+     * @return the offset, or the first offset if the offset was overwritten already
+     */
+    @Override
+    public long getNextOffset(long offset) {
+        return Math.max(offset, getFirstOffset());
+    }
+
+    /**
+     * @param offset of the message
+     * @return the message or {@code null} if it was not published yet or was overwritten
+     * @throws IllegalStateException if the message can not be read
+     */
+    @Override
+    public Message get(long offset) {
+        for (int retries = 0; offset >= 0 && offset <= getLastOffset(); retries++) {
+            int entry = indexEntry(offset);
+            long position = buffer.getLong(entry + Long.BYTES);
+            Message message = buffer.getLong(entry) == offset + 1 ? readRecord(position) : null;
+            if (offset < getFirstOffset()) {
+                return null;
+            }
+            if (message != null && buffer.getLong(entry) == offset + 1) {
+                return message;
+            }
+            if (retries == MAX_RETRIES) {
+                throw new IllegalStateException(format("Corrupted message at offset %d of ring file %s", offset, file));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a message decoded from a copy of the record or {@code null} if the record is not valid
+     */
+    private Message readRecord(long position) {
+        int record = dataStart + (int) (position % dataCapacity);
+        int length = buffer.getInt(record);
+        if (length < 0 || record + RECORD_HEADER + length > buffer.capacity()) {
+            return null;
+        }
+        int checksum = buffer.getInt(record + Integer.BYTES);
+        byte[] copy = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(record + RECORD_HEADER);
+        view.get(copy);
+        CRC32 crc = new CRC32();
+        crc.update(copy, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return MessageCodec.decode(ByteBuffer.wrap(copy));
+    }
+
+    /**
+     * Binary search over the append times of the index.
+     *
+     * @param time in milliseconds since the epoch
+     * @return the offset of the first message appended at or after the time
+     *         or the offset of the next message if there is none
+     */
+    long getOffsetAt(long time) {
+        long low = getFirstOffset();
+        long high = getLastOffset() + 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            int entry = indexEntry(mid);
+            long appendTime = buffer.getLong(entry + 2 * Long.BYTES);
+            // Overwritten messages are older than the remaining ones
+            if (buffer.getLong(entry) != mid + 1 || mid < getFirstOffset() || appendTime < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexEntry(long offset) {
+        return HEADER_SIZE + (int) (offset & indexMask) * INDEX_ENTRY;
+    }
+
+    /**
+     * The mapping is released once garbage collected, the file is kept for the other processes.
+     */
+    @Override
+    public void close() {
+        try {
+            if (writerLock != null) {
+                writerLock.release();
+                writerLock = null;
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.ipc;
+
+import static org.apache.aries.events.api.SubscribeRequestBuilder.to;
+import static org.apache.aries.events.api.SubscribeRequestBuilder.toBatches;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonMap;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.Seek;
+import org.apache.aries.events.api.SubscribeRequestBuilder;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.WaitStrategy;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The processes sharing the ring files are simulated by instances mapping the same files.
+ */
+public class IpcMessagingTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Set<Subscription> subscriptions = new HashSet<>();
+
+    private final Set<IpcMessaging> instances = new HashSet<>();
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+
+    @After
+    public void after() {
+        subscriptions.forEach(Subscription::close);
+        instances.forEach(IpcMessaging::deactivate);
+    }
+
+    @Test
+    public void testSend() {
+        IpcMessaging messaging = messaging(1024 * 1024);
+        send(messaging, "test", "testcontent");
+        Position position = messaging.sendAsync("test", message("testcontent2")).toCompletableFuture().join();
+        assertEquals("1", position.positionToString());
+        subscribe(messaging, to("test", this::receive).seek(Seek.earliest));
+        await().until(() -> received, contains("testcontent", "testcontent2"));
+        List<Position> positions = messaging.send("test", Arrays.asList(message("testcontent3"), message("testcontent4")));
+        assertEquals("3", positions.get(1).positionToString());
+        await().until(() -> received, contains("testcontent", "testcontent2", "testcontent3", "testcontent4"));
+        assertEquals("4", messaging.latestPosition("test").positionToString());
+    }
+
+    @Test
+    public void testOtherProcess() {
+        IpcMessaging writer = messaging(1024 * 1024);
+        IpcMessaging reader = messaging(1024 * 1024);
+        List<String> spinning = new CopyOnWriteArrayList<>();
+        subscribe(reader, to("test", this::receive));
+        subscribe(reader, to("test", rec -> spinning.add(getContent(rec))).waitStrategy(WaitStrategy.busySpin));
+        send(writer, "test", "testcontent");
+        send(writer, "test", "testcontent2");
+        await().until(() -> received, contains("testcontent", "testcontent2"));
+        await().until(() -> spinning, contains("testcontent", "testcontent2"));
+        assertEquals("2", reader.latestPosition("test").positionToString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSingleWriter() {
+        IpcMessaging writer = messaging(1024 * 1024);
+        IpcMessaging other = messaging(1024 * 1024);
+        send(writer, "test", "testcontent");
+        send(other, "test", "testcontent2");
+    }
+
+    @Test
+    public void testBatches() {
+        IpcMessaging writer = messaging(1024 * 1024);
+        IpcMessaging reader = messaging(1024 * 1024);
+        List<List<Received>> batches = new CopyOnWriteArrayList<>();
+        send(writer, "test", "testcontent");
+        send(writer, "test", "testcontent2");
+        subscribe(reader, toBatches("test", batches::add).seek(Seek.earliest));
+        await().until(batches::size, equalTo(1));
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void testOverwrite() {
+        // Records of 56 bytes, four per ring of 256 bytes
+        IpcMessaging writer = messaging(256);
+        IpcMessaging reader = messaging(256);
+        for (int i = 10; i < 20; i++) {
+            send(writer, "test", "testcontent" + i);
+        }
+        assertEquals("6", reader.earliestPosition("test").positionToString());
+        List<Position> gaps = new CopyOnWriteArrayList<>();
+        subscribe(reader, to("test", this::receive).startAt(reader.positionFromString("2"))
+                .onGap((from, to) -> gaps.add(to)));
+        await().until(() -> received, contains("testcontent16", "testcontent17", "testcontent18", "testcontent19"));
+        assertEquals("6", gaps.get(0).positionToString());
+    }
+
+    @Test
+    public void testRestart() {
+        IpcMessaging messaging = messaging(1024 * 1024);
+        send(messaging, "test", "testcontent");
+        messaging.deactivate();
+        messaging = messaging(1024 * 1024);
+        assertEquals("1", messaging.latestPosition("test").positionToString());
+        send(messaging, "test", "testcontent2");
+        subscribe(messaging, to("test", this::receive).seek(Seek.earliest));
+        await().until(() -> received, contains("testcontent", "testcontent2"));
+    }
+
+    private IpcMessaging messaging(int ringSize) {
+        IpcEndpoint config = mock(IpcEndpoint.class);
+        when(config.directory()).thenReturn(tmp.getRoot().getPath());
+        when(config.checkpointDirectory()).thenReturn(new File(tmp.getRoot(), "checkpoints").getPath());
+        when(config.ringSize()).thenReturn(ringSize);
+        when(config.indexSize()).thenReturn(1024);
+        when(config.pollIntervalUs()).thenReturn(100L);
+        IpcMessaging messaging = new IpcMessaging();
+        messaging.activate(config);
+        instances.add(messaging);
+        return messaging;
+    }
+
+    private void subscribe(IpcMessaging messaging, SubscribeRequestBuilder request) {
+        subscriptions.add(messaging.subscribe(request));
+    }
+
+    private void receive(Received rec) {
+        received.add(getContent(rec));
+    }
+
+    private String getContent(Received rec) {
+        return new String(rec.getMessage().getPayload(), UTF_8);
+    }
+
+    private void send(IpcMessaging messaging, String topic, String content) {
+        messaging.send(topic, message(content));
+    }
+
+    private Message message(String content) {
+        return new Message(content.getBytes(UTF_8), singletonMap("my", "testvalue"));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.ipc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.aries.events.api.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RingFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testEmpty() throws Exception {
+        try (RingFile ring = RingFile.open(file(), 256, 16)) {
+            assertEquals(0, ring.getFirstOffset());
+            assertEquals(-1, ring.getLastOffset());
+            assertNull(ring.get(0));
+            assertEquals(0, ring.getOffsetAt(0));
+        }
+    }
+
+    @Test
+    public void testWrapAround() throws Exception {
+        try (RingFile ring = writer(file(), 256, 64)) {
+            // Records of 24 bytes, ten per lap of 256 bytes
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i, ring.append(message(i)));
+            }
+            assertEquals(20, ring.getFirstOffset());
+            assertEquals(29, ring.getLastOffset());
+            assertNull(ring.get(19));
+            assertEquals(message(20), ring.get(20));
+            assertEquals(message(29), ring.get(29));
+            assertNull(ring.get(30));
+            assertEquals(20, ring.getNextOffset(0));
+        }
+    }
+
+    @Test
+    public void testIndexCapacity() throws Exception {
+        try (RingFile ring = writer(file(), 4096, 3)) {
+            // Rounded up to 4 messages
+            for (int i = 0; i < 10; i++) {
+                ring.append(message(i));
+            }
+            assertEquals(6, ring.getFirstOffset());
+            assertNull(ring.get(5));
+            assertEquals(message(6), ring.get(6));
+        }
+    }
+
+    @Test
+    public void testSharedMapping() throws Exception {
+        Path file = file();
+        try (RingFile writer = writer(file, 256, 16);
+             RingFile reader = RingFile.open(file, 1024, 1024)) {
+            writer.append(message(0));
+            assertEquals(0, reader.getLastOffset());
+            assertEquals(message(0), reader.get(0));
+        }
+    }
+
+    @Test
+    public void testSingleWriter() throws Exception {
+        Path file = file();
+        try (RingFile writer = writer(file, 256, 16)) {
+            writer.append(message(0));
+            try (RingFile other = RingFile.open(file, 256, 16)) {
+                other.acquireWriter();
+                fail("Expected a single writer");
+            } catch (IllegalStateException e) {
+                assertEquals(0, writer.getLastOffset());
+            }
+        }
+        // The next writer resumes after the last message
+        try (RingFile writer = writer(file, 256, 16)) {
+            assertEquals(1, writer.append(message(1)));
+            assertEquals(message(0), writer.get(0));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotWriter() throws Exception {
+        try (RingFile ring = RingFile.open(file(), 256, 16)) {
+            ring.append(message(0));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotRingFile() throws Exception {
+        Path file = file();
+        Files.write(file, "not a ring".getBytes(UTF_8));
+        RingFile.open(file, 256, 16);
+    }
+
+    @Test
+    public void testOffsetAt() throws Exception {
+        try (RingFile ring = writer(file(), 256, 16)) {
+            ring.append(message(0));
+            long time = System.currentTimeMillis() + 1;
+            while (System.currentTimeMillis() < time) {
+                Thread.sleep(1);
+            }
+            ring.append(message(1));
+            assertEquals(0, ring.getOffsetAt(0));
+            assertEquals(1, ring.getOffsetAt(time));
+            assertEquals(2, ring.getOffsetAt(Long.MAX_VALUE));
+        }
+    }
+
+    private Path file() {
+        return tmp.getRoot().toPath().resolve("test.ring");
+    }
+
+    private RingFile writer(Path file, int dataCapacity, int indexCapacity) throws IOException {
+        RingFile ring = RingFile.open(file, dataCapacity, indexCapacity);
+        ring.acquireWriter();
+        return ring;
+    }
+
+    private Message message(int i) {
+        return new Message(("m" + i).getBytes(UTF_8), emptyMap());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Read-only view of the record {@code Headers} as message properties.
+ * A header value is decoded only when its key is accessed. The whole
+ * set of headers is decoded once, on the first iteration over the view.
+ * As for {@link Headers#lastHeader(String)}, the last header wins
+ * when a key is repeated.
+ */
+final class HeadersMap extends AbstractMap<String, String> {
+
+    private final Headers headers;
+
+    private volatile Map<String, String> decoded;
+
+    HeadersMap(Headers headers) {
+        this.headers = requireNonNull(headers);
+    }
+
+    @Override
+    public String get(Object key) {
+        if (decoded != null) {
+            return decoded.get(key);
+        }
+        return (key instanceof String) ? decode(headers.lastHeader((String) key)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (decoded != null) {
+            return decoded.containsKey(key);
+        }
+        return (key instanceof String) && headers.lastHeader((String) key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Map<String, String> result = decoded;
+        if (result == null) {
+            result = new LinkedHashMap<>();
+            for (Header header : headers) {
+                result.put(header.key(), decode(header));
+            }
+            decoded = result;
+        }
+        return result.entrySet();
+    }
+
+    private static String decode(Header header) {
+        return (header != null && header.value() != null) ? new String(header.value(), UTF_8) : null;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.apache.aries.events.api.CheckpointStore;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Keeps the positions of named subscriptions as the committed offsets
+ * of the consumer group named after the subscription.
+ */
+public class KafkaCheckpointStore implements CheckpointStore, Closeable {
+
+    private final Function<String, KafkaConsumer<String, byte[]>> consumerFactory;
+
+    /**
+     * Consumers committing the offsets, by group. They are never assigned
+     * partitions and thus do not take part in the group membership.
+     */
+    private final Map<String, KafkaConsumer<String, byte[]>> consumers = new HashMap<>();
+
+    /**
+     * @param consumerFactory creating a consumer for the given group id
+     */
+    public KafkaCheckpointStore(Function<String, KafkaConsumer<String, byte[]>> consumerFactory) {
+        this.consumerFactory = consumerFactory;
+    }
+
+    @Override
+    public synchronized String load(String topic, String name) {
+        KafkaConsumer<String, byte[]> consumer = consumer(name);
+        List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+        if (partitions == null) {
+            return null;
+        }
+        Map<Integer, Long> offsets = new TreeMap<>();
+        for (PartitionInfo partition : partitions) {
+            OffsetAndMetadata committed = consumer.committed(new TopicPartition(topic, partition.partition()));
+            if (committed != null) {
+                offsets.put(partition.partition(), committed.offset());
+            }
+        }
+        return offsets.isEmpty()
+                ? null
+                : KafkaMessaging.positionToString(new KafkaPosition(offsets));
+    }
+
+    @Override
+    public synchronized void commit(String topic, String name, String position) {
+        KafkaPosition kafkaPosition = (KafkaPosition) KafkaMessaging.fromString(position);
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        kafkaPosition.getOffsets().forEach((partition, offset) ->
+                offsets.put(new TopicPartition(topic, partition), new OffsetAndMetadata(offset)));
+        consumer(name).commitSync(offsets);
+    }
+
+    @Override
+    public synchronized void close() {
+        consumers.values().forEach(KafkaConsumer::close);
+        consumers.clear();
+    }
+
+    private KafkaConsumer<String, byte[]> consumer(String group) {
+        return consumers.computeIfAbsent(group, consumerFactory);
+    }
+}
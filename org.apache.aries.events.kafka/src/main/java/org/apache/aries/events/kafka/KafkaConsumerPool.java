@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.api.SubscriptionStats;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+import static java.time.Duration.ofHours;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Small set of consumers shared by the subscriptions. Each pooled consumer is
+ * assigned the partitions of many subscriptions and demultiplexes the records
+ * it fetches to the subscriptions by partition, saving the connections and the
+ * fetch buffers of a consumer per subscription.
+ * <p>
+ * The subscriptions to the same partition share its assignment to a single consumer,
+ * which fetches from the lowest offset they need, each subscription skipping the
+ * records before its own offset. The records are delivered by a worker per subscription
+ * and partition, the consumer threads never run the callbacks. A slow callback only
+ * holds back its partition, which is paused while any of its workers lags behind.
+ */
+class KafkaConsumerPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaConsumerPool.class);
+
+    /**
+     * Number of records fetched ahead of the callbacks unless the endpoint sets it.
+     */
+    static final int DEFAULT_WORKER_QUEUE_SIZE = 500;
+
+    private final int size;
+
+    private final Supplier<KafkaConsumer<String, byte[]>> consumerFactory;
+
+    private final SubscriptionDispatcher dispatcher;
+
+    private final int workerQueueSize;
+
+    private final List<PooledConsumer> consumers = new ArrayList<>();
+
+    private boolean closed;
+
+    /**
+     * @param size number of consumers to spread the partitions over
+     * @param consumerFactory creating the pooled consumers
+     * @param dispatcher running the pooled consumers loops and the subscriptions workers
+     * @param workerQueueSize number of records fetched ahead of the callbacks or
+     *                        {@code 0} for {@link #DEFAULT_WORKER_QUEUE_SIZE}
+     */
+    KafkaConsumerPool(int size, Supplier<KafkaConsumer<String, byte[]>> consumerFactory, SubscriptionDispatcher dispatcher,
+                      int workerQueueSize) {
+        this.size = size;
+        this.consumerFactory = requireNonNull(consumerFactory);
+        this.dispatcher = requireNonNull(dispatcher);
+        this.workerQueueSize = workerQueueSize > 0 ? workerQueueSize : DEFAULT_WORKER_QUEUE_SIZE;
+    }
+
+    /**
+     * Join the consumer already assigned the partition, or assign the partition
+     * to the least loaded consumer. The records are only delivered once the
+     * subscription is started.
+     *
+     * @param topicPartition to consume
+     * @param seek positioning the consumer on the partition, invoked from the consumer thread
+     * @param delivery of the records fetched from the partition
+     * @return the subscription to the partition, not started yet
+     */
+    PooledSubscription subscribe(TopicPartition topicPartition, Consumer<KafkaConsumer<String, byte[]>> seek, RecordDelivery delivery) {
+        PooledConsumer consumer;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The consumer pool is closed");
+            }
+            consumer = consumers.stream()
+                    .filter(pooled -> pooled.partitions.containsKey(topicPartition))
+                    .findFirst()
+                    .orElseGet(this::leastLoaded);
+            consumer.partitions.merge(topicPartition, 1, Integer::sum);
+        }
+        PooledSubscription subscription = new PooledSubscription(consumer, topicPartition, delivery);
+        CompletableFuture<Long> offset = new CompletableFuture<>();
+        consumer.execute(() -> {
+            try {
+                offset.complete(consumer.add(subscription, seek));
+            } catch (WakeupException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                consumer.remove(subscription);
+                offset.completeExceptionally(e);
+            }
+        });
+        try {
+            subscription.offset = offset.join();
+        } catch (RuntimeException e) {
+            released(consumer, topicPartition);
+            throw e;
+        }
+        return subscription;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        consumers.forEach(PooledConsumer::close);
+    }
+
+    private PooledConsumer leastLoaded() {
+        return consumers.stream()
+                .min(Comparator.comparingInt(pooled -> pooled.partitions.size()))
+                .filter(pooled -> consumers.size() >= size || pooled.partitions.isEmpty())
+                .orElseGet(this::newConsumer);
+    }
+
+    private PooledConsumer newConsumer() {
+        PooledConsumer consumer = new PooledConsumer(consumerFactory.get());
+        consumers.add(consumer);
+        dispatcher.dispatch(format("KafkaConsumerPool-%s", consumers.size()), consumer);
+        return consumer;
+    }
+
+    private synchronized void released(PooledConsumer consumer, TopicPartition topicPartition) {
+        consumer.partitions.computeIfPresent(topicPartition, (partition, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Subscription to a partition served by a pooled consumer.
+     */
+    final class PooledSubscription implements PartitionSubscription {
+
+        private final PooledConsumer consumer;
+
+        private final TopicPartition topicPartition;
+
+        private final RecordDelivery delivery;
+
+        private final RecordWorker worker;
+
+        private final long startTime = System.currentTimeMillis();
+
+        private volatile long offset;
+
+        private volatile boolean closed;
+
+        /**
+         * Offset of the next record to hand over to the worker, only accessed from the consumer thread.
+         */
+        private long fetchOffset;
+
+        /**
+         * Whether the records are handed over to the worker, only accessed from the consumer thread.
+         */
+        private boolean started;
+
+        private PooledSubscription(PooledConsumer consumer, TopicPartition topicPartition, RecordDelivery delivery) {
+            this.consumer = consumer;
+            this.topicPartition = topicPartition;
+            this.delivery = delivery;
+            this.worker = new RecordWorker(topicPartition, delivery, workerQueueSize, this::close);
+        }
+
+        /**
+         * @return the offset the subscription starts from
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Start the worker and hand the records over to it from now on.
+         */
+        void start() {
+            dispatcher.dispatch(format("KafkaWorker-%s", topicPartition), worker);
+            consumer.execute(() -> consumer.start(this));
+        }
+
+        @Override
+        public void setProgress(Consumer<KafkaPosition> progress, Runnable stopped) {
+            delivery.setProgress(progress);
+            worker.setStopped(stopped);
+        }
+
+        @Override
+        public SubscriptionStats stats() {
+            return new SubscriptionStats(delivery.next(), KafkaSubscription.lag(consumer.consumer, topicPartition),
+                    delivery.delivered(), startTime);
+        }
+
+        /**
+         * @param records fetched from the partition, the ones before the offset of the subscription are skipped
+         */
+        private void fetched(List<ConsumerRecord<String, byte[]>> records) {
+            List<ConsumerRecord<String, byte[]>> ahead = new ArrayList<>(records.size());
+            for (ConsumerRecord<String, byte[]> record : records) {
+                if (record.offset() >= fetchOffset) {
+                    ahead.add(record);
+                    fetchOffset = record.offset() + 1;
+                }
+            }
+            worker.add(ahead);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (! closed) {
+                closed = true;
+                // A further subscription to the partition may reuse the consumer, its commands are queued after this one
+                released(consumer, topicPartition);
+                consumer.execute(() -> consumer.remove(this));
+            }
+        }
+    }
+
+    /**
+     * Loop polling a pooled consumer. The consumer is not thread safe, the changes
+     * to its assignment are thus queued as commands run by the loop in between polls.
+     */
+    private static final class PooledConsumer implements Runnable {
+
+        private final KafkaConsumer<String, byte[]> consumer;
+
+        private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+
+        /**
+         * Number of subscriptions by partition assigned or being assigned, guarded by the pool.
+         */
+        private final Map<TopicPartition, Integer> partitions = new HashMap<>();
+
+        /**
+         * Subscriptions by partition, only accessed from the loop.
+         */
+        private final Map<TopicPartition, List<PooledSubscription>> subscriptions = new HashMap<>();
+
+        /**
+         * Partitions paused, only accessed from the loop.
+         */
+        private final Set<TopicPartition> paused = new HashSet<>();
+
+        private volatile boolean running = true;
+
+        private PooledConsumer(KafkaConsumer<String, byte[]> consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * @param command run by the loop, repeated if interrupted by the wake up of a further command
+         */
+        void execute(Runnable command) {
+            commands.add(command);
+            consumer.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Runnable command = subscriptions.isEmpty() ? commands.take() : commands.poll();
+                    if (command != null) {
+                        runCommand(command);
+                    } else {
+                        poll();
+                    }
+                    flowControl();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                LOG.error(format("Catch Throwable %s closing pooled consumer", t.getMessage()), t);
+                throw t;
+            } finally {
+                // Close the network connections and sockets
+                consumer.close();
+                subscriptions.values().forEach(partition -> partition.forEach(subscription -> subscription.worker.stop()));
+            }
+        }
+
+        void close() {
+            running = false;
+            execute(() -> { });
+        }
+
+        /**
+         * @return the offset the subscription starts from
+         */
+        private long add(PooledSubscription subscription, Consumer<KafkaConsumer<String, byte[]>> seek) {
+            TopicPartition topicPartition = subscription.topicPartition;
+            List<PooledSubscription> partition = subscriptions.get(topicPartition);
+            if (partition == null) {
+                partition = new ArrayList<>();
+                subscriptions.put(topicPartition, partition);
+                consumer.assign(new HashSet<>(subscriptions.keySet()));
+            }
+            if (! partition.contains(subscription)) {
+                partition.add(subscription);
+            }
+            seek.accept(consumer);
+            subscription.fetchOffset = consumer.position(topicPartition);
+            rewind(topicPartition);
+            return subscription.fetchOffset;
+        }
+
+        private void start(PooledSubscription subscription) {
+            if (subscriptions.getOrDefault(subscription.topicPartition, emptyList()).contains(subscription)) {
+                subscription.started = true;
+                // The records fetched for the other subscriptions meanwhile are fetched again
+                rewind(subscription.topicPartition);
+            }
+        }
+
+        private void remove(PooledSubscription subscription) {
+            TopicPartition topicPartition = subscription.topicPartition;
+            List<PooledSubscription> partition = subscriptions.get(topicPartition);
+            if (partition != null && partition.remove(subscription)) {
+                if (partition.isEmpty()) {
+                    subscriptions.remove(topicPartition);
+                    paused.remove(topicPartition);
+                    consumer.assign(new HashSet<>(subscriptions.keySet()));
+                }
+                subscription.worker.stop();
+            }
+        }
+
+        /**
+         * Move the consumer back to the lowest offset the subscriptions to the partition need.
+         */
+        private void rewind(TopicPartition topicPartition) {
+            long lowest = Long.MAX_VALUE;
+            for (PooledSubscription subscription : subscriptions.get(topicPartition)) {
+                lowest = Math.min(lowest, subscription.fetchOffset);
+            }
+            if (consumer.position(topicPartition) > lowest) {
+                consumer.seek(topicPartition, lowest);
+            }
+        }
+
+        private void runCommand(Runnable command) {
+            for (;;) {
+                try {
+                    command.run();
+                    return;
+                } catch (WakeupException e) {
+                    // The wake up was meant for the poll, the commands are idempotent
+                    LOG.debug("Repeating command interrupted by a wake up");
+                }
+            }
+        }
+
+        private void poll() {
+            Duration timeout = paused.isEmpty() ? ofHours(1) : KafkaSubscription.PAUSED_POLL;
+            ConsumerRecords<String, byte[]> records;
+            try {
+                records = consumer.poll(timeout);
+            } catch (WakeupException e) {
+                // Commands are pending
+                return;
+            }
+            for (TopicPartition topicPartition : records.partitions()) {
+                for (PooledSubscription subscription : subscriptions.getOrDefault(topicPartition, emptyList())) {
+                    if (subscription.started && ! subscription.closed) {
+                        subscription.fetched(records.records(topicPartition));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Pause the partitions without started subscription or with a worker lagging behind,
+         * resume them once all their workers caught up.
+         */
+        private void flowControl() {
+            for (Map.Entry<TopicPartition, List<PooledSubscription>> partition : subscriptions.entrySet()) {
+                TopicPartition topicPartition = partition.getKey();
+                boolean wasPaused = paused.contains(topicPartition);
+                boolean started = false;
+                boolean backlogged = false;
+                for (PooledSubscription subscription : partition.getValue()) {
+                    started |= subscription.started;
+                    backlogged |= subscription.started && subscription.worker.backlogged(wasPaused);
+                }
+                boolean pause = ! started || backlogged;
+                if (pause && ! wasPaused) {
+                    consumer.pause(singleton(topicPartition));
+                    paused.add(topicPartition);
+                } else if (! pause && wasPaused) {
+                    consumer.resume(singleton(topicPartition));
+                    paused.remove(topicPartition);
+                }
+            }
+        }
+    }
+}
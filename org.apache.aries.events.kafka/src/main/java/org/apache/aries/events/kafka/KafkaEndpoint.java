@@ -27,5 +27,52 @@ public @interface KafkaEndpoint {
             description = "A comma separated list of host/port pairs to use for establishing the initial connection to the Kafka cluster.")
     String kafkaBootstrapServers() default "localhost:9092";
 
+    @AttributeDefinition(name = "Consumer Pool Size",
+            description = "The number of consumers shared by all the subscriptions, each consuming the partitions of many subscriptions. " +
+                    "The subscriptions to the same partition share its consumer and the records are always delivered by workers. " +
+                    "With 0, each subscription consumes each partition with its own consumer.")
+    int consumerPoolSize() default 0;
+
+    @AttributeDefinition(name = "Worker Queue Size",
+            description = "The number of records fetched ahead of the callbacks, per subscription and partition. " +
+                    "The records are delivered by a worker thread and the partition is paused while the worker lags behind. " +
+                    "With 0, the records are delivered by the polling thread, or by workers queuing 500 records with a consumer pool.")
+    int workerQueueSize() default 0;
+
+    @AttributeDefinition(name = "Producer Profile",
+            description = "The trade-off between durability, latency and throughput of the records sent: " +
+                    "durable (full acknowledgment, no lingering), balanced (full acknowledgment, short lingering and compression) " +
+                    "or throughput (leader acknowledgment, long lingering and compression).")
+    ProducerProfile producerProfile() default ProducerProfile.durable;
+
+    @AttributeDefinition(name = "Topic Producer Profiles",
+            description = "Producer profiles of specific topics, as topic=profile entries, not affected by the overrides below. " +
+                    "The topics not listed use the producer profile.")
+    String[] topicProducerProfiles() default {};
+
+    @AttributeDefinition(name = "Acks",
+            description = "Overrides the acks of the producer profile (all, 1 or 0), keeps the profile value if empty.")
+    String acks() default "";
+
+    @AttributeDefinition(name = "Linger",
+            description = "Overrides the linger.ms of the producer profile, keeps the profile value if negative.")
+    int lingerMs() default -1;
+
+    @AttributeDefinition(name = "Batch Size",
+            description = "Overrides the batch.size in bytes of the producer profile, keeps the profile value if 0.")
+    int batchSize() default 0;
+
+    @AttributeDefinition(name = "Compression Type",
+            description = "Overrides the compression.type of the producer profile (none, gzip, snappy or lz4), keeps the profile value if empty.")
+    String compressionType() default "";
+
+    @AttributeDefinition(name = "Enable Idempotence",
+            description = "Overrides the enable.idempotence of the producer profile (true or false), keeps the profile value if empty.")
+    String enableIdempotence() default "";
+
+    @AttributeDefinition(name = "Max In Flight",
+            description = "Overrides the max.in.flight.requests.per.connection of the producer profile, keeps the profile value if 0. " +
+                    "At most 5 with idempotence and 1 without, so that retries do not reorder the records.")
+    int maxInFlight() default 0;
 
 }
@@ -18,26 +18,42 @@ package org.apache.aries.events.kafka;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Collection;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import org.apache.aries.events.api.CheckpointStore;
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Messaging;
 import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Received;
 import org.apache.aries.events.api.Seek;
 import org.apache.aries.events.api.SubscribeRequestBuilder;
 import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
 import org.apache.aries.events.api.Type;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.ParallelDispatch;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
@@ -50,6 +66,9 @@ import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,15 +78,23 @@ import static java.lang.Long.parseLong;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.Collections.unmodifiableMap;
-import static java.util.stream.StreamSupport.stream;
+import static java.util.Comparator.comparing;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.GROUP_ID_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.MAX_POLL_RECORDS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.AUTO_OFFSET_RESET_CONFIG;
 import static org.apache.kafka.clients.producer.ProducerConfig.BOOTSTRAP_SERVERS_CONFIG;
 import static org.apache.kafka.clients.producer.ProducerConfig.ACKS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.BATCH_SIZE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.COMPRESSION_TYPE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.LINGER_MS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION;
 import static org.apache.kafka.clients.producer.ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG;
 import static org.apache.kafka.clients.producer.ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG;
 
@@ -81,7 +108,7 @@ public class KafkaMessaging implements Messaging {
     /**
      * The partition to send and receive records.
      */
-    private static final int PARTITION = 0;
+    static final int PARTITION = 0;
 
     /**
      * Shared Kafka producer instance ({@code KafkaProducer}s are thread-safe).
@@ -90,76 +117,233 @@ public class KafkaMessaging implements Messaging {
 
     private Map<String, Object> producerConfig;
 
+    /**
+     * Producers of the topics configured with a specific profile, by profile.
+     */
+    private final Map<ProducerProfile, KafkaProducer<String, byte[]>> profileProducers = new EnumMap<>(ProducerProfile.class);
+
+    private Map<String, ProducerProfile> topicProfiles;
+
+    /**
+     * Consumer used to look up the head and tail offsets of topics,
+     * created on first use.
+     */
+    private KafkaConsumer<String, byte[]> offsetsConsumer;
+
+    /**
+     * Consumers shared by the subscriptions when the endpoint configures a pool,
+     * created on first use.
+     */
+    private KafkaConsumerPool consumerPool;
+
     private KafkaEndpoint endPoint;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private SubscriptionDispatcher dispatcher;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private CheckpointStore checkpointStore;
+
+    /**
+     * Store of the named subscriptions positions used unless
+     * a {@code CheckpointStore} service is available.
+     */
+    private KafkaCheckpointStore kafkaCheckpointStore;
+    private final ScheduledExecutorService checkpointWriter = Checkpointer.newWriter();
+
+    public KafkaMessaging() {
+    }
+
+    public KafkaMessaging(SubscriptionDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     @Activate
     public void activate(KafkaEndpoint endPoint) {
         this.endPoint = endPoint;
-        producerConfig = new HashMap<>();
-        producerConfig.put(KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        producerConfig.put(VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
-        producerConfig.put(BOOTSTRAP_SERVERS_CONFIG, endPoint.kafkaBootstrapServers());
-        // We favour durability over throughput
-        // and thus requires full acknowledgment
+        // We favour durability over throughput by default
+        // and thus require full acknowledgment
         // from replica leader and followers.
-        producerConfig.put(ACKS_CONFIG, "all");
+        ProducerProfile profile = endPoint.producerProfile() != null ? endPoint.producerProfile() : ProducerProfile.durable;
+        producerConfig = producerConfig(profile);
+        putIfSet(producerConfig, ACKS_CONFIG, endPoint.acks());
+        putIfSet(producerConfig, COMPRESSION_TYPE_CONFIG, endPoint.compressionType());
+        putIfSet(producerConfig, ENABLE_IDEMPOTENCE_CONFIG, endPoint.enableIdempotence());
+        if (endPoint.lingerMs() >= 0) {
+            producerConfig.put(LINGER_MS_CONFIG, endPoint.lingerMs());
+        }
+        if (endPoint.batchSize() > 0) {
+            producerConfig.put(BATCH_SIZE_CONFIG, endPoint.batchSize());
+        }
+        if (endPoint.maxInFlight() > 0) {
+            producerConfig.put(MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, endPoint.maxInFlight());
+        }
+        ProducerProfile.checkOrdering(producerConfig);
         producerConfig = unmodifiableMap(producerConfig);
+        topicProfiles = topicProfiles(endPoint.topicProducerProfiles());
+        kafkaCheckpointStore = new KafkaCheckpointStore(
+                groupId -> new KafkaConsumer<>(unmodifiableMap(consumerConfig(Seek.latest, groupId))));
     }
 
     @Deactivate
     public void deactivate() {
         closeQuietly(producer);
+        synchronized (profileProducers) {
+            profileProducers.values().forEach(this::closeQuietly);
+            profileProducers.clear();
+        }
+        closeQuietly(kafkaCheckpointStore);
+        synchronized (this) {
+            closeQuietly(consumerPool);
+            closeQuietly(offsetsConsumer);
+        }
+        checkpointWriter.shutdown();
     }
 
     @Override
     public void send(String topic, Message message) {
-        ProducerRecord<String, byte[]> record = new ProducerRecord<String, byte[]>(topic, PARTITION, null, message.getPayload(), toHeaders(message.getProperties()));
         try {
-            RecordMetadata metadata = kafkaProducer().send(record).get();
-            LOG.info(format("Sent to %s", metadata));
+            RecordMetadata metadata = sendRecord(toRecord(topic, message)).get();
+            LOG.debug("Sent to {}", metadata);
         } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(format("Failed to send mesage on topic %s", topic), e);
         }
     }
 
+    @Override
+    public CompletionStage<Position> sendAsync(String topic, Message message) {
+        return sendRecord(toRecord(topic, message))
+                .thenApply(KafkaMessaging::toPosition);
+    }
+
+    @Override
+    public List<Position> send(String topic, List<Message> messages) {
+        List<CompletableFuture<RecordMetadata>> sent = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            sent.add(sendRecord(toRecord(topic, message)));
+        }
+        // Do not wait for linger.ms, the whole batch has been handed over
+        kafkaProducer(topic).flush();
+        List<Position> positions = new ArrayList<>(sent.size());
+        try {
+            for (CompletableFuture<RecordMetadata> metadata : sent) {
+                positions.add(toPosition(metadata.get()));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(format("Failed to send messages on topic %s", topic), e);
+        }
+        LOG.debug("Sent {} messages to {}", positions.size(), topic);
+        return positions;
+    }
+
     @Override
     public Subscription subscribe(SubscribeRequestBuilder requestBuilder) {
         SubscribeRequest request = requestBuilder.build();
-        KafkaConsumer<String, byte[]> consumer = buildKafkaConsumer(request.getSeek());
-
-        TopicPartition topicPartition = new TopicPartition(request.getTopic(), PARTITION);
+        String topic = request.getTopic();
+
+        Checkpointer checkpointer = request.getName() != null ? new Checkpointer(checkpointStore(), checkpointWriter, request) : null;
+        String checkpoint = checkpointer != null ? checkpointer.load() : null;
+        KafkaPosition start = checkpoint != null
+                ? asKafkaPosition(positionFromString(checkpoint))
+                : request.getPosition() != null ? asKafkaPosition(request.getPosition()) : null;
+
+        List<TopicPartition> topicPartitions = topicPartitions(topic);
+        // The partitions are consumed concurrently, funnel their messages through one worker unless parallelism is requested
+        boolean funnel = topicPartitions.size() > 1;
+        ParallelDispatch parallelDispatch = request.getBatchCallback() == null && (request.getParallelism() > 1 || funnel)
+                ? new ParallelDispatch(request, dispatcher())
+                : null;
+        Consumer<List<Received>> batchCallback = request.getBatchCallback() != null && funnel
+                ? serial(request.getBatchCallback())
+                : request.getBatchCallback();
+        KafkaPartitionsSubscription subscriptions = new KafkaPartitionsSubscription(checkpointer, parallelDispatch);
+        List<Runnable> starts = new ArrayList<>();
+        KafkaConsumerPool consumerPool = consumerPool();
+        for (TopicPartition topicPartition : topicPartitions) {
+            RecordDelivery delivery = batchCallback != null
+                    ? RecordDelivery.batches(batchCallback, request.getMaxBatchSize(), request.getMaxLinger(), request.getFilters())
+                    : parallelDispatch != null
+                    ? RecordDelivery.parallel(parallelDispatch, request.getFilters())
+                    : RecordDelivery.single(request.getCallback(), request.getFilters());
+            delivery.setDemand(request);
+            Consumer<KafkaConsumer<String, byte[]>> seek = consumer -> seek(consumer, topicPartition, start, request);
+            if (consumerPool != null) {
+                KafkaConsumerPool.PooledSubscription subscription = consumerPool.subscribe(topicPartition, seek, delivery);
+                subscriptions.add(topicPartition.partition(), subscription.getOffset(), subscription);
+                starts.add(subscription::start);
+            } else {
+                KafkaConsumer<String, byte[]> consumer = buildKafkaConsumer(request);
+                consumer.assign(singleton(topicPartition));
+                seek.accept(consumer);
+                KafkaSubscription subscription = endPoint.workerQueueSize() > 0
+                        ? new KafkaSubscription(consumer, delivery, topicPartition, endPoint.workerQueueSize())
+                        : new KafkaSubscription(consumer, delivery);
+                subscriptions.add(topicPartition.partition(), consumer.position(topicPartition), subscription);
+                starts.add(() -> {
+                    if (subscription.getWorker() != null) {
+                        dispatcher().dispatch(format("KafkaWorker-%s-%s", topic, topicPartition.partition()), subscription.getWorker());
+                    }
+                    dispatcher().dispatch(format("KafkaSubscription-%s-%s", topic, topicPartition.partition()), subscription);
+                });
+            }
+        }
+        // Only start once all the partitions are known to the checkpointed position
+        starts.forEach(Runnable::run);
+        return subscriptions;
+    }
 
-        Collection<TopicPartition> topicPartitions = singleton(topicPartition);
-        consumer.assign(topicPartitions);
+    /**
+     * @return the batch callback invoked by one partition at a time
+     */
+    private static Consumer<List<Received>> serial(Consumer<List<Received>> batchCallback) {
+        Object lock = new Object();
+        return batch -> {
+            synchronized (lock) {
+                batchCallback.accept(batch);
+            }
+        };
+    }
 
-        if (request.getPosition() != null) {
-            consumer.seek(topicPartition, asKafkaPosition(request.getPosition()).getOffset());
-        } else if (request.getSeek() == Seek.earliest) {
-            consumer.seekToBeginning(topicPartitions);
-        } else {
-            consumer.seekToEnd(topicPartitions);
+    @Override
+    public Position earliestPosition(String topic) {
+        List<TopicPartition> topicPartitions = topicPartitions(topic);
+        synchronized (this) {
+            return toPosition(offsetsConsumer().beginningOffsets(topicPartitions));
         }
+    }
 
-        KafkaSubscription subscription = new KafkaSubscription(consumer, request.getCallback());
-        // TODO pool the threads
-        Thread thread = new Thread(subscription);
-        thread.setDaemon(true);
-        thread.start();
-        return subscription;
+    @Override
+    public Position latestPosition(String topic) {
+        List<TopicPartition> topicPartitions = topicPartitions(topic);
+        synchronized (this) {
+            return toPosition(offsetsConsumer().endOffsets(topicPartitions));
+        }
     }
 
     @Override
     public Position positionFromString(String position) {
-        String[] chunks = position.split(":");
-        if (chunks.length != 2) {
-            throw new IllegalArgumentException(format("Illegal position format %s", position));
+        return fromString(position);
+    }
+
+    /**
+     * @param position formatted as a comma separated list of {@code partition:offset}
+     */
+    static Position fromString(String position) {
+        Map<Integer, Long> offsets = new TreeMap<>();
+        for (String offset : position.split(",")) {
+            String[] chunks = offset.split(":");
+            if (chunks.length != 2) {
+                throw new IllegalArgumentException(format("Illegal position format %s", position));
+            }
+            offsets.put(parseInt(chunks[0]), parseLong(chunks[1]));
         }
-        return new KafkaPosition(parseInt(chunks[0]), parseLong(chunks[1]));
+        return new KafkaPosition(offsets);
     }
 
     static String positionToString(Position position) {
-        KafkaPosition kafkaPosition = asKafkaPosition(position);
-        return format("%s:%s", kafkaPosition.getPartition(), kafkaPosition.getOffset());
+        return asKafkaPosition(position).getOffsets().entrySet().stream()
+                .map(offset -> format("%s:%s", offset.getKey(), offset.getValue()))
+                .collect(Collectors.joining(","));
     }
 
     static Iterable<Header> toHeaders(Map<String, String> properties) {
@@ -169,8 +353,7 @@ public class KafkaMessaging implements Messaging {
     }
 
     static Map<String, String> toProperties(Headers headers) {
-        return stream(headers.spliterator(), true)
-                .collect(Collectors.toMap(Header::key, header -> new String(header.value(), UTF_8)));
+        return new HeadersMap(headers);
     }
 
     static RecordHeader toHeader(Map.Entry<String, String> property) {
@@ -178,9 +361,60 @@ public class KafkaMessaging implements Messaging {
     }
 
     static Message toMessage(ConsumerRecord<String, byte[]> record) {
-        return new Message(record.value(), toProperties(record.headers()));
+        // The deserialized value is not shared, no need to copy it again
+        return Message.wrap(ByteBuffer.wrap(record.value()), toProperties(record.headers()), record.key());
     }
 
+    static Position toPosition(RecordMetadata metadata) {
+        return new KafkaPosition(metadata.partition(), metadata.offset());
+    }
+
+    private static Position toPosition(Map<TopicPartition, Long> offsets) {
+        Map<Integer, Long> positions = new TreeMap<>();
+        offsets.forEach((topicPartition, offset) -> positions.put(topicPartition.partition(), offset));
+        return new KafkaPosition(positions);
+    }
+
+    /**
+     * The default partitioner hashes the message key, keeping the messages of a key
+     * in one partition, and spreads the messages without key over the partitions.
+     */
+    static ProducerRecord<String, byte[]> toRecord(String topic, Message message) {
+        return new ProducerRecord<String, byte[]>(topic, null, message.getKey(), message.getPayload(), toHeaders(message.getProperties()));
+    }
+
+    /**
+     * Hand the record over to the producer without waiting for the acknowledgment.
+     *
+     * @param record to be sent
+     * @return a future completed with the record metadata once the record is acknowledged
+     */
+    private CompletableFuture<RecordMetadata> sendRecord(ProducerRecord<String, byte[]> record) {
+        CompletableFuture<RecordMetadata> result = new CompletableFuture<>();
+        try {
+            kafkaProducer(record.topic()).send(record, (metadata, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(metadata);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private KafkaProducer<String, byte[]> kafkaProducer(String topic) {
+        ProducerProfile profile = topicProfiles.get(topic);
+        if (profile != null) {
+            synchronized (profileProducers) {
+                return profileProducers.computeIfAbsent(profile,
+                        p -> new KafkaProducer<>(unmodifiableMap(producerConfig(p))));
+            }
+        }
+        return kafkaProducer();
+    }
 
     private synchronized KafkaProducer<String, byte[]> kafkaProducer() {
         if (producer == null) {
@@ -189,10 +423,117 @@ public class KafkaMessaging implements Messaging {
         return producer;
     }
 
-    private KafkaConsumer<String, byte[]> buildKafkaConsumer(Seek seek) {
+    private Map<String, Object> producerConfig(ProducerProfile profile) {
+        Map<String, Object> producerConfig = new HashMap<>(profile.getConfig());
+        producerConfig.put(KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerConfig.put(VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        producerConfig.put(BOOTSTRAP_SERVERS_CONFIG, endPoint.kafkaBootstrapServers());
+        return producerConfig;
+    }
+
+    private static void putIfSet(Map<String, Object> config, String key, String value) {
+        if (value != null && ! value.trim().isEmpty()) {
+            config.put(key, value.trim());
+        }
+    }
+
+    /**
+     * @param entries formatted as {@code topic=profile}
+     * @return the profiles by topic
+     */
+    static Map<String, ProducerProfile> topicProfiles(String[] entries) {
+        Map<String, ProducerProfile> topicProfiles = new HashMap<>();
+        for (String entry : entries != null ? entries : new String[0]) {
+            String[] chunks = entry.split("=");
+            if (chunks.length != 2) {
+                throw new IllegalArgumentException(format("Illegal topic producer profile %s", entry));
+            }
+            topicProfiles.put(chunks[0].trim(), ProducerProfile.valueOf(chunks[1].trim()));
+        }
+        return topicProfiles;
+    }
+
+    private void seek(KafkaConsumer<String, byte[]> consumer, TopicPartition topicPartition, KafkaPosition start, SubscribeRequest request) {
+        // Partitions missing from the start position did not exist yet, read them from the beginning
+        if (start != null) {
+            consumer.seek(topicPartition, Math.max(start.offsetOf(topicPartition.partition()), 0));
+        } else if (request.getStartTime() != null) {
+            seekToTime(consumer, topicPartition, request.getStartTime());
+        } else if (request.getSeek() == Seek.earliest) {
+            consumer.seekToBeginning(singleton(topicPartition));
+        } else {
+            consumer.seekToEnd(singleton(topicPartition));
+        }
+    }
+
+    private void seekToTime(KafkaConsumer<String, byte[]> consumer, TopicPartition topicPartition, Instant time) {
+        OffsetAndTimestamp offset = consumer
+                .offsetsForTimes(singletonMap(topicPartition, time.toEpochMilli()))
+                .get(topicPartition);
+        if (offset != null) {
+            consumer.seek(topicPartition, offset.offset());
+        } else {
+            // No record at or after the time yet
+            consumer.seekToEnd(singleton(topicPartition));
+        }
+    }
+
+    /**
+     * @return the partitions of the topic, or the default partition if the topic does not exist yet
+     */
+    private List<TopicPartition> topicPartitions(String topic) {
+        List<PartitionInfo> partitions;
+        synchronized (this) {
+            partitions = offsetsConsumer().partitionsFor(topic);
+        }
+        if (partitions == null || partitions.isEmpty()) {
+            return singletonList(new TopicPartition(topic, PARTITION));
+        }
+        return partitions.stream()
+                .map(partition -> new TopicPartition(topic, partition.partition()))
+                .sorted(comparing(TopicPartition::partition))
+                .collect(Collectors.toList());
+    }
+
+    private synchronized KafkaConsumer<String, byte[]> offsetsConsumer() {
+        if (offsetsConsumer == null) {
+            offsetsConsumer = new KafkaConsumer<>(unmodifiableMap(consumerConfig(Seek.latest, UUID.randomUUID().toString())));
+        }
+        return offsetsConsumer;
+    }
+
+    /**
+     * @return the pool of consumers shared by the subscriptions or {@code null} if each subscription has its own consumers
+     */
+    private synchronized KafkaConsumerPool consumerPool() {
+        if (consumerPool == null && endPoint.consumerPoolSize() > 0) {
+            consumerPool = new KafkaConsumerPool(endPoint.consumerPoolSize(),
+                    () -> new KafkaConsumer<>(unmodifiableMap(consumerConfig(Seek.latest, UUID.randomUUID().toString()))),
+                    dispatcher(), endPoint.workerQueueSize());
+        }
+        return consumerPool;
+    }
+
+    private SubscriptionDispatcher dispatcher() {
+        return dispatcher != null ? dispatcher : SubscriptionDispatcher.threadPerSubscription();
+    }
 
-        String groupId = UUID.randomUUID().toString();
+    private CheckpointStore checkpointStore() {
+        return checkpointStore != null ? checkpointStore : kafkaCheckpointStore;
+    }
 
+    private KafkaConsumer<String, byte[]> buildKafkaConsumer(SubscribeRequest request) {
+        // Named subscriptions share the consumer group holding their committed offsets
+        String groupId = request.getName() != null ? request.getName() : UUID.randomUUID().toString();
+        Map<String, Object> consumerConfig = consumerConfig(request.getSeek(), groupId);
+        if (request.getBatchCallback() != null) {
+            consumerConfig.put(MAX_POLL_RECORDS_CONFIG, request.getMaxBatchSize());
+        }
+
+        return new KafkaConsumer<>(unmodifiableMap(consumerConfig));
+    }
+
+    private Map<String, Object> consumerConfig(Seek seek, String groupId) {
         Map<String, Object> consumerConfig = new HashMap<>();
         consumerConfig.put(BOOTSTRAP_SERVERS_CONFIG, endPoint.kafkaBootstrapServers());
         consumerConfig.put(GROUP_ID_CONFIG, groupId);
@@ -200,8 +541,7 @@ public class KafkaMessaging implements Messaging {
         consumerConfig.put(KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         consumerConfig.put(VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         consumerConfig.put(AUTO_OFFSET_RESET_CONFIG, seek.name());
-
-        return new KafkaConsumer<>(unmodifiableMap(consumerConfig));
+        return consumerConfig;
     }
 
 
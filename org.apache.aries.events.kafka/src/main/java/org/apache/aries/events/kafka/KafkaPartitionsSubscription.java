@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionStats;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.ParallelDispatch;
+
+/**
+ * Subscription to all the partitions of a topic, each consumed in parallel
+ * by its own {@link PartitionSubscription}. The partitions hand their messages
+ * over to a {@link ParallelDispatch}, with a single worker unless parallelism
+ * was requested. The messages are thus ordered within a partition, and so per
+ * key, but not across partitions.
+ */
+class KafkaPartitionsSubscription implements Subscription {
+
+    private final Checkpointer checkpointer;
+
+    private final ParallelDispatch parallelDispatch;
+
+    private final Map<Integer, PartitionSubscription> subscriptions = new TreeMap<>();
+
+    /**
+     * Offsets to resume from, by partition.
+     */
+    private final Map<Integer, Long> offsets = new ConcurrentSkipListMap<>();
+
+    /**
+     * Live view of the offsets handed to the checkpointer,
+     * which converts it to a string only when committing.
+     */
+    private final Position resumePosition = new Position() {
+
+        @Override
+        public String positionToString() {
+            return KafkaMessaging.positionToString(position());
+        }
+
+        @Override
+        public int compareTo(Position position) {
+            return position().compareTo(position);
+        }
+    };
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * @param checkpointer to report the positions reached to or {@code null} if the subscription is not named
+     * @param parallelDispatch running the callback or {@code null} if each partition delivers its own records,
+     *                         for a single partition or batch callbacks
+     */
+    KafkaPartitionsSubscription(Checkpointer checkpointer, ParallelDispatch parallelDispatch) {
+        this.checkpointer = checkpointer;
+        this.parallelDispatch = parallelDispatch;
+    }
+
+    /**
+     * @param partition consumed by the subscription
+     * @param offset the subscription starts from
+     * @param subscription to the partition, not started yet
+     */
+    void add(int partition, long offset, PartitionSubscription subscription) {
+        offsets.put(partition, offset);
+        subscriptions.put(partition, subscription);
+        running.incrementAndGet();
+        subscription.setProgress(this::delivered, this::stopped);
+    }
+
+    @Override
+    public SubscriptionStats stats() {
+        long lag = 0;
+        long delivered = 0;
+        for (PartitionSubscription subscription : subscriptions.values()) {
+            SubscriptionStats stats = subscription.stats();
+            delivered += stats.getDelivered();
+            lag = lag < 0 || stats.getLag() < 0 ? -1 : lag + stats.getLag();
+        }
+        return new SubscriptionStats(position(), lag, delivered, startTime);
+    }
+
+    @Override
+    public void close() {
+        subscriptions.values().forEach(PartitionSubscription::close);
+    }
+
+    private KafkaPosition position() {
+        return new KafkaPosition(offsets);
+    }
+
+    private void delivered(KafkaPosition next) {
+        offsets.put(next.getPartition(), next.getOffset());
+        if (checkpointer != null) {
+            checkpointer.update(resumePosition);
+        }
+    }
+
+    private void stopped() {
+        if (running.decrementAndGet() > 0) {
+            return;
+        }
+        if (parallelDispatch != null) {
+            // Wait for the callbacks running before committing the position
+            parallelDispatch.close();
+        }
+        // Commit once the last partition stopped delivering
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+    }
+}
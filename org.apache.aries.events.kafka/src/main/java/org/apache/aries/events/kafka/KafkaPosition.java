@@ -16,27 +16,92 @@
  */
 package org.apache.aries.events.kafka;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
 import javax.annotation.Nonnull;
 
 import org.apache.aries.events.api.Position;
 
+/**
+ * Offsets in one or several partitions of a topic.
+ *
+ * The position of a received message holds the offset of the message in its
+ * partition. The position of a subscription holds the offset to resume from
+ * in each partition consumed.
+ */
 public final class KafkaPosition implements Position {
 
-    private final int partition;
+    /** Partitions in ascending order */
+    private final int[] partitions;
 
-    private final long offset;
+    private final long[] offsets;
 
     public KafkaPosition(int partition, long offset) {
-        this.partition = partition;
-        this.offset = offset;
+        this(new int[] { partition }, new long[] { offset });
     }
 
+    /**
+     * @param offsets by partition
+     */
+    public KafkaPosition(Map<Integer, Long> offsets) {
+        this(new TreeMap<>(offsets));
+    }
+
+    private KafkaPosition(SortedMap<Integer, Long> offsets) {
+        this.partitions = new int[offsets.size()];
+        this.offsets = new long[offsets.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+            this.partitions[i] = entry.getKey();
+            this.offsets[i++] = entry.getValue();
+        }
+    }
+
+    private KafkaPosition(int[] partitions, long[] offsets) {
+        this.partitions = partitions;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the partition of a position in a single partition
+     * @throws IllegalStateException if the position spans several partitions
+     */
     public int getPartition() {
-        return partition;
+        checkSinglePartition();
+        return partitions[0];
     }
 
+    /**
+     * @return the offset of a position in a single partition
+     * @throws IllegalStateException if the position spans several partitions
+     */
     public long getOffset() {
-        return offset;
+        checkSinglePartition();
+        return offsets[0];
+    }
+
+    /**
+     * @return the offsets by partition, in partition order
+     */
+    public SortedMap<Integer, Long> getOffsets() {
+        SortedMap<Integer, Long> result = new TreeMap<>();
+        for (int i = 0; i < partitions.length; i++) {
+            result.put(partitions[i], offsets[i]);
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    /**
+     * @param partition to look up
+     * @return the offset in the partition or {@code -1} if the position does not cover the partition
+     */
+    long offsetOf(int partition) {
+        int i = Arrays.binarySearch(partitions, partition);
+        return i >= 0 ? offsets[i] : -1;
     }
 
     @Override
@@ -49,8 +114,47 @@ public final class KafkaPosition implements Position {
         return KafkaMessaging.positionToString(this);
     }
 
+    /**
+     * Compares the offsets partition by partition, in partition order.
+     * A partition not covered by a position compares as if its offset was {@code -1}.
+     * Positions in the same single partition are thus ordered by offset and a position
+     * that is ahead in every partition is greater.
+     */
     @Override
     public int compareTo(@Nonnull Position p) {
-        return Long.compare(offset, ((KafkaPosition)p).offset);
+        KafkaPosition other = (KafkaPosition) p;
+        int i = 0;
+        int j = 0;
+        while (i < partitions.length || j < other.partitions.length) {
+            int partition = Math.min(
+                    i < partitions.length ? partitions[i] : Integer.MAX_VALUE,
+                    j < other.partitions.length ? other.partitions[j] : Integer.MAX_VALUE);
+            long offset = i < partitions.length && partitions[i] == partition ? offsets[i++] : -1;
+            long otherOffset = j < other.partitions.length && other.partitions[j] == partition ? other.offsets[j++] : -1;
+            int result = Long.compare(offset, otherOffset);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        KafkaPosition that = (KafkaPosition) o;
+        return Arrays.equals(partitions, that.partitions) && Arrays.equals(offsets, that.offsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(partitions) + Arrays.hashCode(offsets);
+    }
+
+    private void checkSinglePartition() {
+        if (partitions.length != 1) {
+            throw new IllegalStateException(String.format("Position %s spans %s partitions", this, partitions.length));
+        }
     }
 }
@@ -16,45 +16,114 @@
  */
 package org.apache.aries.events.kafka;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
-import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.PropertyFilter;
 import org.apache.aries.events.api.Received;
-import org.apache.aries.events.api.Subscription;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.aries.events.api.SubscriptionStats;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static java.lang.String.format;
 import static java.time.Duration.ofHours;
+import static java.time.Duration.ofMillis;
+import static java.util.Collections.emptyList;
 import static java.util.Objects.requireNonNull;
-import static org.apache.aries.events.kafka.KafkaMessaging.toMessage;
 
-public class KafkaSubscription implements Subscription, Runnable {
+public class KafkaSubscription implements PartitionSubscription, Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaSubscription.class);
 
+    private static final String RECORDS_LAG = "records-lag";
+
+    /**
+     * How often a paused partition checks whether its worker caught up.
+     */
+    static final Duration PAUSED_POLL = ofMillis(100);
+
     private volatile boolean running = true;
 
     private final KafkaConsumer<String, byte[]> consumer;
 
-    private final Consumer<Received> callback;
+    private final RecordDelivery delivery;
+
+    /**
+     * Worker delivering the records or {@code null} if they are delivered by the polling thread.
+     */
+    private final RecordWorker worker;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private Runnable stopped = () -> { };
 
     public KafkaSubscription(KafkaConsumer<String, byte[]> consumer, Consumer<Received> callback) {
+        this(consumer, callback, emptyList());
+    }
+
+    public KafkaSubscription(KafkaConsumer<String, byte[]> consumer, Consumer<Received> callback, List<PropertyFilter> filters) {
+        this(consumer, RecordDelivery.single(callback, filters));
+    }
+
+    public KafkaSubscription(KafkaConsumer<String, byte[]> consumer, Consumer<List<Received>> batchCallback, int maxBatchSize, Duration maxLinger) {
+        this(consumer, batchCallback, maxBatchSize, maxLinger, emptyList());
+    }
+
+    public KafkaSubscription(KafkaConsumer<String, byte[]> consumer, Consumer<List<Received>> batchCallback, int maxBatchSize, Duration maxLinger,
+                             List<PropertyFilter> filters) {
+        this(consumer, RecordDelivery.batches(batchCallback, maxBatchSize, maxLinger, filters));
+    }
+
+    KafkaSubscription(KafkaConsumer<String, byte[]> consumer, RecordDelivery delivery) {
         this.consumer = requireNonNull(consumer);
-        this.callback = requireNonNull(callback);
+        this.delivery = requireNonNull(delivery);
+        this.worker = null;
+    }
+
+    /**
+     * @param consumer assigned the partition
+     * @param delivery of the records to the callback
+     * @param topicPartition assigned
+     * @param workerQueueSize number of records fetched ahead of the callback
+     */
+    KafkaSubscription(KafkaConsumer<String, byte[]> consumer, RecordDelivery delivery, TopicPartition topicPartition, int workerQueueSize) {
+        this.consumer = requireNonNull(consumer);
+        this.delivery = requireNonNull(delivery);
+        this.worker = new RecordWorker(topicPartition, delivery, workerQueueSize, this::close);
+    }
+
+    /**
+     * @return the worker to run along with the subscription or {@code null} if the subscription delivers the records
+     */
+    RecordWorker getWorker() {
+        return worker;
     }
 
     @Override
     public void run() {
         try {
-            for (;running;) {
-                ConsumerRecords<String, byte[]> records = consumer.poll(ofHours(1));
-                records.forEach(record -> callback.accept(toReceived(record)));
+            if (worker != null) {
+                fetch();
+            } else {
+                for (;running;) {
+                    if (! delivery.hasDemand()) {
+                        // Not polling stops fetching, at most the records of one poll exceed the demand
+                        delivery.awaitDemand(PAUSED_POLL);
+                        continue;
+                    }
+                    delivery.handle(consumer.poll(delivery.timeout()));
+                    delivery.lingered();
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (WakeupException e) {
             if (running) {
                 LOG.error("WakeupException while running {}", e.getMessage(), e);
@@ -68,18 +137,72 @@ public class KafkaSubscription implements Subscription, Runnable {
         } finally {
             // Close the network connections and sockets
             consumer.close();
+            if (worker != null) {
+                // The worker notifies once it stopped
+                worker.stop();
+            } else {
+                stopped.run();
+            }
+        }
+    }
+
+    /**
+     * Hand the records over to the worker, pausing the partition while the worker lags behind.
+     */
+    private void fetch() {
+        boolean paused = false;
+        for (;running;) {
+            worker.add(consumer.poll(paused ? PAUSED_POLL : ofHours(1)));
+            paused = worker.flowControl(consumer);
         }
     }
 
+    @Override
+    public void setProgress(Consumer<KafkaPosition> progress, Runnable stopped) {
+        delivery.setProgress(progress);
+        this.stopped = requireNonNull(stopped);
+        if (worker != null) {
+            worker.setStopped(stopped);
+        }
+    }
+
+    @Override
+    public SubscriptionStats stats() {
+        return new SubscriptionStats(delivery.next(), lag(consumer, null), delivery.delivered(), startTime);
+    }
+
     @Override
     public void close() {
         running = false;
         consumer.wakeup();
     }
 
-    private Received toReceived(ConsumerRecord<String, byte[]> record) {
-        Position position = new KafkaPosition(record.partition(), record.offset());
-        return new Received(position, toMessage(record));
+    /**
+     * The lag as last measured by the consumer fetcher, the consumer itself
+     * is not thread safe and can't be queried while it is polling.
+     *
+     * @param consumer fetching the partition
+     * @param topicPartition to measure the lag of or {@code null} for the first partition measured
+     * @return the number of records behind the end of the partition or {@code -1} if unknown
+     */
+    static long lag(KafkaConsumer<String, byte[]> consumer, TopicPartition topicPartition) {
+        for (Map.Entry<MetricName, ? extends Metric> entry : consumer.metrics().entrySet()) {
+            MetricName name = entry.getKey();
+            if (RECORDS_LAG.equals(name.name()) && name.tags().containsKey("partition") && measures(name, topicPartition)) {
+                Object value = entry.getValue().metricValue();
+                if (value instanceof Number && ! Double.isNaN(((Number) value).doubleValue())) {
+                    return ((Number) value).longValue();
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean measures(MetricName name, TopicPartition topicPartition) {
+        // The fetcher metrics replace the dots in the topic names
+        return topicPartition == null
+                || (String.valueOf(topicPartition.partition()).equals(name.tags().get("partition"))
+                    && topicPartition.topic().replace('.', '_').equals(name.tags().get("topic")));
     }
 
 }
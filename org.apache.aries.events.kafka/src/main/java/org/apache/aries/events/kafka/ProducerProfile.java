@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.util.Collections.unmodifiableMap;
+import static org.apache.kafka.clients.producer.ProducerConfig.ACKS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.BATCH_SIZE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.COMPRESSION_TYPE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.LINGER_MS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION;
+
+/**
+ * Named trade-offs between durability, latency and throughput of the producers.
+ */
+public enum ProducerProfile {
+
+    /**
+     * Full acknowledgment from the replica leader and followers, no duplicates
+     * on retries and no lingering. Suited for critical topics.
+     */
+    durable("all", true, 5, 0, 16384, "none"),
+
+    /**
+     * Full acknowledgment and no duplicates, with records lingering
+     * a few milliseconds to be batched and compressed.
+     */
+    balanced("all", true, 5, 5, 65536, "lz4"),
+
+    /**
+     * Acknowledgment from the replica leader only, with records lingering
+     * to fill large compressed batches. Records may be lost when the leader
+     * fails. Suited for high volume telemetry topics. Without idempotence,
+     * a single request is in flight so that retries do not reorder records.
+     */
+    throughput("1", false, 1, 20, 262144, "lz4");
+
+    private final Map<String, Object> config;
+
+    ProducerProfile(String acks, boolean idempotence, int maxInFlight, int lingerMs, int batchSize, String compressionType) {
+        Map<String, Object> config = new HashMap<>();
+        config.put(ACKS_CONFIG, acks);
+        config.put(ENABLE_IDEMPOTENCE_CONFIG, idempotence);
+        config.put(MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, maxInFlight);
+        config.put(LINGER_MS_CONFIG, lingerMs);
+        config.put(BATCH_SIZE_CONFIG, batchSize);
+        config.put(COMPRESSION_TYPE_CONFIG, compressionType);
+        this.config = unmodifiableMap(config);
+    }
+
+    /**
+     * Kafka keeps the records in order on retries with up to 5 requests in flight
+     * when idempotence is enabled, and with a single request in flight otherwise.
+     *
+     * @param config of a producer
+     * @throws IllegalArgumentException if the producer may reorder records on retries
+     */
+    static void checkOrdering(Map<String, Object> config) {
+        String idempotence = String.valueOf(config.get(ENABLE_IDEMPOTENCE_CONFIG));
+        if (! "true".equalsIgnoreCase(idempotence) && ! "false".equalsIgnoreCase(idempotence)) {
+            throw new IllegalArgumentException(format("Illegal %s %s", ENABLE_IDEMPOTENCE_CONFIG, idempotence));
+        }
+        int maxInFlight = Integer.parseInt(String.valueOf(config.get(MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION)));
+        int limit = Boolean.parseBoolean(idempotence) ? 5 : 1;
+        if (maxInFlight > limit) {
+            throw new IllegalArgumentException(format("%s %s requires %s of at most %s to keep the records in order",
+                    ENABLE_IDEMPOTENCE_CONFIG, idempotence, MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, limit));
+        }
+    }
+
+    /**
+     * @return the producer configuration of the profile
+     */
+    public Map<String, Object> getConfig() {
+        return config;
+    }
+}
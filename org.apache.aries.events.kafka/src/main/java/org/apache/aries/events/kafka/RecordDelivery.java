@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.PropertyFilter;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
+import org.apache.aries.events.impl.ParallelDispatch;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.header.Header;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Duration.ofHours;
+import static java.time.Duration.ofNanos;
+import static java.util.Objects.requireNonNull;
+import static org.apache.aries.events.kafka.KafkaMessaging.toMessage;
+
+/**
+ * Delivers the records fetched from a partition to the callback of a subscription.
+ * The records not matching the filters are skipped and, for batch callbacks, the
+ * records are split or merged into batches of at most {@code maxBatchSize} records.
+ * A batch that is not full is delivered once no further record was fetched within
+ * the linger time following its first record.
+ * <p>
+ * Not thread safe, the records must be handed over by a single thread. In parallel,
+ * the records are delivered and the progress reported by the workers of the dispatch.
+ */
+class RecordDelivery {
+
+    private final Consumer<Received> callback;
+
+    private final Consumer<List<Received>> batchCallback;
+
+    /**
+     * Lane of the parallel dispatch delivering the records or {@code null} if delivered by the calling thread.
+     */
+    private final ParallelDispatch.Lane lane;
+
+    private final int maxBatchSize;
+
+    private final long maxLingerNanos;
+
+    /**
+     * Filters evaluated on the record headers, before the records are converted into messages.
+     */
+    private final List<PropertyFilter> filters;
+
+    /**
+     * Position of the next record to be delivered, {@code null} until the first record is delivered.
+     */
+    private volatile KafkaPosition next;
+
+    private volatile long delivered;
+
+    private Consumer<KafkaPosition> progress = next -> { };
+
+    /**
+     * Request whose demand gates the fetching of further records, {@code null} if not demand driven.
+     */
+    private volatile SubscribeRequest demand;
+
+    private List<Received> batch = new ArrayList<>();
+
+    private long deadline;
+
+    private RecordDelivery(Consumer<Received> callback, Consumer<List<Received>> batchCallback, ParallelDispatch parallelDispatch,
+                           int maxBatchSize, Duration maxLinger, List<PropertyFilter> filters) {
+        this.callback = callback;
+        this.batchCallback = batchCallback;
+        this.lane = parallelDispatch != null ? parallelDispatch.lane(this::completed) : null;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLinger.toNanos();
+        this.filters = requireNonNull(filters);
+    }
+
+    static RecordDelivery single(Consumer<Received> callback, List<PropertyFilter> filters) {
+        return new RecordDelivery(requireNonNull(callback), null, null, 1, Duration.ZERO, filters);
+    }
+
+    /**
+     * @param parallelDispatch running the callback, shared by the partitions of the subscription
+     * @param filters the records must match
+     * @return the delivery of the records of a partition in parallel, ordered by key
+     */
+    static RecordDelivery parallel(ParallelDispatch parallelDispatch, List<PropertyFilter> filters) {
+        return new RecordDelivery(null, null, requireNonNull(parallelDispatch), 1, Duration.ZERO, filters);
+    }
+
+    static RecordDelivery batches(Consumer<List<Received>> batchCallback, int maxBatchSize, Duration maxLinger, List<PropertyFilter> filters) {
+        return new RecordDelivery(null, requireNonNull(batchCallback), null, maxBatchSize, maxLinger, filters);
+    }
+
+    /**
+     * @param progress notified of the position following each message or batch delivered
+     */
+    void setProgress(Consumer<KafkaPosition> progress) {
+        this.progress = requireNonNull(progress);
+    }
+
+    /**
+     * @param request whose demand gates the fetching of further records
+     */
+    void setDemand(SubscribeRequest request) {
+        this.demand = requireNonNull(request);
+    }
+
+    /**
+     * @return {@code true} unless the subscriber of a publisher did not ask for further records
+     */
+    boolean hasDemand() {
+        SubscribeRequest request = demand;
+        return request == null || request.hasDemand();
+    }
+
+    /**
+     * @param timeout maximum time to wait for demand
+     * @return {@code true} if the subscriber asked for further records
+     */
+    boolean awaitDemand(Duration timeout) throws InterruptedException {
+        SubscribeRequest request = demand;
+        return request == null || request.awaitDemand(timeout.toMillis());
+    }
+
+    KafkaPosition next() {
+        return next;
+    }
+
+    long delivered() {
+        return lane != null ? lane.getCompleted() : delivered;
+    }
+
+    /**
+     * @return how long to wait for further records before the pending batch is due
+     */
+    Duration timeout() {
+        return batch.isEmpty() ? ofHours(1) : ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    void handle(Iterable<ConsumerRecord<String, byte[]>> records) {
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (lane != null) {
+                dispatch(record);
+            } else if (! matches(record)) {
+                if (batch.isEmpty()) {
+                    next = nextPosition(record);
+                }
+            } else if (callback != null) {
+                callback.accept(toReceived(record));
+                next = nextPosition(record);
+                delivered++;
+                progress.accept(next);
+            } else {
+                if (batch.isEmpty()) {
+                    deadline = System.nanoTime() + maxLingerNanos;
+                }
+                batch.add(toReceived(record));
+                if (batch.size() >= maxBatchSize) {
+                    deliver();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver the pending batch if its linger time elapsed.
+     */
+    void lingered() {
+        if (! batch.isEmpty() && deadline - System.nanoTime() <= 0) {
+            deliver();
+        }
+    }
+
+    private void dispatch(ConsumerRecord<String, byte[]> record) {
+        if (! matches(record)) {
+            lane.skip(nextPosition(record));
+            return;
+        }
+        try {
+            lane.dispatch(toReceived(record), nextPosition(record));
+        } catch (InterruptedException e) {
+            throw new InterruptException(e);
+        }
+    }
+
+    /**
+     * @param safe low-water mark of the records completed in parallel
+     */
+    private void completed(Position safe) {
+        next = (KafkaPosition) safe;
+        progress.accept(next);
+    }
+
+    private void deliver() {
+        List<Received> delivering = batch;
+        batch = new ArrayList<>(maxBatchSize);
+        batchCallback.accept(delivering);
+        KafkaPosition last = (KafkaPosition) delivering.get(delivering.size() - 1).getPosition();
+        next = new KafkaPosition(last.getPartition(), last.getOffset() + 1);
+        delivered += delivering.size();
+        progress.accept(next);
+    }
+
+    private static KafkaPosition nextPosition(ConsumerRecord<String, byte[]> record) {
+        return new KafkaPosition(record.partition(), record.offset() + 1);
+    }
+
+    private boolean matches(ConsumerRecord<String, byte[]> record) {
+        for (PropertyFilter filter : filters) {
+            Header header = record.headers().lastHeader(filter.getKey());
+            String value = header != null && header.value() != null ? new String(header.value(), UTF_8) : null;
+            if (! filter.matchesValue(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Received toReceived(ConsumerRecord<String, byte[]> record) {
+        Position position = new KafkaPosition(record.partition(), record.offset());
+        return new Received(position, toMessage(record));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Delivers the records of a partition from its own thread, so that the fetching of
+ * further records overlaps with the callbacks. The records are queued in fetch order
+ * and delivered in that order, the positions reported thus follow the records delivered.
+ * <p>
+ * The polling thread pauses the partition once {@code capacity} records are pending
+ * and resumes it once half of them are delivered. The queue may exceed the capacity
+ * by the records of a single poll. The worker holds the records back while the
+ * subscriber of a publisher has no demand, the partition is thus paused as well.
+ */
+class RecordWorker implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordWorker.class);
+
+    private static final ConsumerRecord<String, byte[]> STOP = new ConsumerRecord<>("", 0, -1L, null, null);
+
+    private final TopicPartition topicPartition;
+
+    private final RecordDelivery delivery;
+
+    private final int capacity;
+
+    private final Runnable failed;
+
+    private final BlockingQueue<ConsumerRecord<String, byte[]>> queue = new LinkedBlockingQueue<>();
+
+    private volatile Runnable stopped = () -> { };
+
+    /**
+     * Only accessed from the polling thread.
+     */
+    private boolean paused;
+
+    /**
+     * @param topicPartition the records are fetched from
+     * @param delivery of the records to the callback
+     * @param capacity number of pending records pausing the partition
+     * @param failed notified when the callback failed, the worker stops
+     */
+    RecordWorker(TopicPartition topicPartition, RecordDelivery delivery, int capacity, Runnable failed) {
+        this.topicPartition = requireNonNull(topicPartition);
+        this.delivery = requireNonNull(delivery);
+        this.capacity = capacity;
+        this.failed = requireNonNull(failed);
+    }
+
+    /**
+     * @param stopped notified once the worker stopped delivering
+     */
+    void setStopped(Runnable stopped) {
+        this.stopped = requireNonNull(stopped);
+    }
+
+    /**
+     * @param records fetched, to be delivered in order
+     */
+    void add(Iterable<ConsumerRecord<String, byte[]>> records) {
+        records.forEach(queue::add);
+    }
+
+    /**
+     * Pause or resume the partition depending on the records pending.
+     * Must be called from the thread polling the consumer.
+     *
+     * @param consumer fetching the partition
+     * @return {@code true} if the partition is paused
+     */
+    boolean flowControl(KafkaConsumer<String, byte[]> consumer) {
+        boolean backlogged = backlogged(paused);
+        if (! paused && backlogged) {
+            consumer.pause(singleton(topicPartition));
+            paused = true;
+        } else if (paused && ! backlogged) {
+            consumer.resume(singleton(topicPartition));
+            paused = false;
+        }
+        return paused;
+    }
+
+    /**
+     * @param paused whether the partition is paused
+     * @return {@code true} if the partition should be paused, from {@code capacity}
+     *         records pending until only half of them are left
+     */
+    boolean backlogged(boolean paused) {
+        int pending = queue.size();
+        return paused ? pending > capacity / 2 : pending >= capacity;
+    }
+
+    /**
+     * Stop delivering, dropping the pending records.
+     */
+    void stop() {
+        queue.clear();
+        queue.add(STOP);
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (;;) {
+                if (queue.peek() != STOP && ! delivery.hasDemand()) {
+                    // The records stay queued, pausing the partition once the queue is full
+                    delivery.awaitDemand(KafkaSubscription.PAUSED_POLL);
+                    continue;
+                }
+                ConsumerRecord<String, byte[]> record = queue.poll(delivery.timeout().toNanos(), NANOSECONDS);
+                if (record == STOP) {
+                    return;
+                }
+                if (record != null) {
+                    delivery.handle(singletonList(record));
+                }
+                delivery.lingered();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOG.error(format("Catch exception %s closing subscription to %s", e.getMessage(), topicPartition), e);
+            failed.run();
+        } finally {
+            stopped.run();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.events.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeadersMapTest {
+
+    @Test
+    public void testGet() throws Exception {
+        Map<String, String> properties = new HeadersMap(headers());
+        assertEquals("value1", properties.get("key1"));
+        assertEquals("value2", properties.get("key2"));
+        assertNull(properties.get("key3"));
+        assertTrue(properties.containsKey("key1"));
+        assertFalse(properties.containsKey("key3"));
+    }
+
+    @Test
+    public void testLastHeaderWins() throws Exception {
+        Headers headers = headers();
+        headers.add("key1", "value3".getBytes(UTF_8));
+        Map<String, String> properties = new HeadersMap(headers);
+        assertEquals("value3", properties.get("key1"));
+        assertEquals(2, properties.size());
+        assertEquals("value3", properties.get("key1"));
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        Map<String, String> expected = new HashMap<>();
+        expected.put("key1", "value1");
+        expected.put("key2", "value2");
+        assertEquals(expected, new HeadersMap(headers()));
+        assertEquals(expected.hashCode(), new HeadersMap(headers()).hashCode());
+    }
+
+    private Headers headers() {
+        Headers headers = new RecordHeaders();
+        headers.add("key1", "value1".getBytes(UTF_8));
+        headers.add("key2", "value2".getBytes(UTF_8));
+        return headers;
+    }
+}
@@ -16,20 +16,49 @@
  */
 package org.apache.aries.events.kafka;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Messaging;
+import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.PropertyFilter;
+import org.apache.aries.events.api.Received;
+import org.apache.aries.events.api.Seek;
 import org.apache.aries.events.api.SubscribeRequestBuilder;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionStats;
 import org.apache.aries.events.kafka.setup.KafkaBaseTest;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.reactivestreams.Subscriber;
 
 import static java.nio.charset.Charset.forName;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonMap;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.GROUP_ID_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 public class KafkaMessagingTest extends KafkaBaseTest {
@@ -48,6 +77,42 @@ public class KafkaMessagingTest extends KafkaBaseTest {
         messaging.positionFromString("0:100:23");
     }
 
+    @Test
+    public void testTopicProfiles() throws Exception {
+        Map<String, ProducerProfile> topicProfiles = KafkaMessaging.topicProfiles(new String[] {"critical=durable", " telemetry = throughput "});
+        assertEquals(ProducerProfile.durable, topicProfiles.get("critical"));
+        assertEquals(ProducerProfile.throughput, topicProfiles.get("telemetry"));
+        assertEquals(2, topicProfiles.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopicProfilesIllegalArgument() throws Exception {
+        KafkaMessaging.topicProfiles(new String[] {"critical"});
+    }
+
+    @Test
+    public void testProfilesOrdering() throws Exception {
+        for (ProducerProfile profile : ProducerProfile.values()) {
+            ProducerProfile.checkOrdering(profile.getConfig());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxInFlightWithoutIdempotence() throws Exception {
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.enableIdempotence()).thenReturn("false");
+        when(kafkaEndpoint.maxInFlight()).thenReturn(5);
+        new KafkaMessaging().activate(kafkaEndpoint);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxInFlightWithIdempotence() throws Exception {
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.enableIdempotence()).thenReturn("true");
+        when(kafkaEndpoint.maxInFlight()).thenReturn(6);
+        new KafkaMessaging().activate(kafkaEndpoint);
+    }
+
     @Test(timeout = 10000)
     public void testSendAndReceive() throws Exception {
 
@@ -78,4 +143,660 @@ public class KafkaMessagingTest extends KafkaBaseTest {
         messaging.deactivate();
     }
 
-}
\ No newline at end of file
+    @Test(timeout = 10000)
+    public void testSendAsync() throws Exception {
+
+        String topic = "test_send_async";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        CompletableFuture<Position> first = messaging.sendAsync(topic, message).toCompletableFuture();
+        CompletableFuture<Position> second = messaging.sendAsync(topic, message).toCompletableFuture();
+
+        assertEquals("0:0", first.get().positionToString());
+        assertEquals("0:1", second.get().positionToString());
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 10000)
+    public void testSendBatch() throws Exception {
+
+        String topic = "test_send_batch";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        List<Position> positions = messaging.send(topic, asList(message, message, message));
+
+        assertEquals(3, positions.size());
+        assertEquals("0:0", positions.get(0).positionToString());
+        assertEquals("0:2", positions.get(2).positionToString());
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 10000)
+    public void testReceiveBatches() throws Exception {
+
+        String topic = "test_receive_batches";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic, asList(message, message, message));
+
+        Semaphore invoked = new Semaphore(0);
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .toBatches(topic, (batch) -> {
+                    sizes.add(batch.size());
+                    invoked.release(batch.size());
+                })
+                .maxBatchSize(2)
+                .startAt(new KafkaPosition(0, 0));
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(3, 10, TimeUnit.SECONDS));
+        }
+        assertEquals(asList(2, 1), sizes);
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 10000)
+    public void testPositionsAndStats() throws Exception {
+
+        String topic = "test_positions_and_stats";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        assertEquals("0:0", messaging.latestPosition(topic).positionToString());
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic, asList(message, message, message));
+
+        assertEquals("0:0", messaging.earliestPosition(topic).positionToString());
+        assertEquals("0:3", messaging.latestPosition(topic).positionToString());
+
+        Semaphore invoked = new Semaphore(0);
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> invoked.release())
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(3, 10, TimeUnit.SECONDS));
+            while (subscription.stats().getDelivered() < 3) {
+                Thread.sleep(10);
+            }
+            SubscriptionStats stats = subscription.stats();
+            assertEquals("0:3", stats.getPosition().positionToString());
+        }
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 10000)
+    public void testFilter() throws Exception {
+
+        String topic = "test_filter";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        messaging.send(topic, asList(
+                new Message(payload, singletonMap("tenant", "a")),
+                new Message(payload, singletonMap("tenant", "b")),
+                new Message(payload, singletonMap("other", "a")),
+                new Message(payload, singletonMap("tenant", "a"))));
+
+        Semaphore invoked = new Semaphore(0);
+        List<String> positions = new CopyOnWriteArrayList<>();
+
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    positions.add(received.getPosition().positionToString());
+                    invoked.release();
+                })
+                .filter(PropertyFilter.equalTo("tenant", "a"))
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(2, 10, TimeUnit.SECONDS));
+        }
+        assertEquals(asList("0:0", "0:3"), positions);
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 10000)
+    public void testStartAtTime() throws Exception {
+
+        String topic = "test_start_at_time";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic, message);
+        Thread.sleep(5);
+        Instant time = Instant.now();
+        messaging.send(topic, asList(message, message));
+
+        Semaphore invoked = new Semaphore(0);
+        List<String> positions = new CopyOnWriteArrayList<>();
+
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    positions.add(received.getPosition().positionToString());
+                    invoked.release();
+                })
+                .startAt(time);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(2, 10, TimeUnit.SECONDS));
+        }
+        assertEquals(asList("0:1", "0:2"), positions);
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testNamedSubscription() throws Exception {
+
+        String topic = "test_named_subscription";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic, asList(message, message));
+
+        Semaphore invoked = new Semaphore(0);
+        List<String> positions = new CopyOnWriteArrayList<>();
+
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    positions.add(received.getPosition().positionToString());
+                    invoked.release();
+                })
+                .name("test_consumer")
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(2, 10, TimeUnit.SECONDS));
+        }
+
+        try (KafkaCheckpointStore store = new KafkaCheckpointStore(this::checkpointConsumer)) {
+            while (! "0:2".equals(store.load(topic, "test_consumer"))) {
+                Thread.sleep(10);
+            }
+        }
+
+        messaging.send(topic, message);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(1, 10, TimeUnit.SECONDS));
+        }
+        assertEquals(asList("0:0", "0:1", "0:2"), positions);
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testPartitionByKey() throws Exception {
+
+        String topic = "test_partition_by_key";
+        createTopic(topic, 3);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            for (String key : asList("a", "b", "c", "d")) {
+                messages.add(new Message(String.valueOf(i).getBytes(forName("UTF-8")), singletonMap("prop1", "value1"), key));
+            }
+        }
+        messaging.send(topic, messages);
+
+        KafkaPosition latest = (KafkaPosition) messaging.latestPosition(topic);
+        assertEquals(3, latest.getOffsets().size());
+        assertEquals(20, latest.getOffsets().values().stream().mapToLong(Long::longValue).sum());
+
+        Semaphore invoked = new Semaphore(0);
+        Map<String, List<String>> payloads = new ConcurrentHashMap<>();
+        Map<String, Integer> partitions = new ConcurrentHashMap<>();
+
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    String key = received.getMessage().getKey();
+                    payloads.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>())
+                            .add(new String(received.getMessage().getPayload(), forName("UTF-8")));
+                    int partition = ((KafkaPosition) received.getPosition()).getPartition();
+                    assertEquals(partition, (int) partitions.computeIfAbsent(key, k -> partition));
+                    invoked.release();
+                })
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(20, 10, TimeUnit.SECONDS));
+            // The position moves on once the callback returned
+            while (! latest.equals(subscription.stats().getPosition())) {
+                Thread.sleep(10);
+            }
+            assertEquals(20, subscription.stats().getDelivered());
+        }
+        for (String key : asList("a", "b", "c", "d")) {
+            assertEquals(asList("0", "1", "2", "3", "4"), payloads.get(key));
+        }
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testSerialDelivery() throws Exception {
+
+        String topic = "test_serial_delivery";
+        createTopic(topic, 3);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            messages.add(new Message(String.valueOf(i).getBytes(forName("UTF-8")), singletonMap("prop1", "value1"), "key" + i));
+        }
+        messaging.send(topic, messages);
+
+        Semaphore invoked = new Semaphore(0);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    invoked.release();
+                })
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(30, 10, TimeUnit.SECONDS));
+        }
+        // The partitions are consumed concurrently but the callback is invoked by one thread at a time
+        assertEquals(1, maxRunning.get());
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testProducerProfiles() throws Exception {
+
+        String critical = "test_producer_profiles_critical";
+        String telemetry = "test_producer_profiles_telemetry";
+        createTopic(critical, 1);
+        createTopic(telemetry, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        when(kafkaEndpoint.producerProfile()).thenReturn(ProducerProfile.throughput);
+        when(kafkaEndpoint.lingerMs()).thenReturn(50);
+        when(kafkaEndpoint.topicProducerProfiles()).thenReturn(new String[] {critical + "=durable"});
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+
+        assertEquals("0:0", messaging.sendAsync(critical, message).toCompletableFuture().get().positionToString());
+        List<CompletableFuture<Position>> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sent.add(messaging.sendAsync(telemetry, message).toCompletableFuture());
+        }
+        assertEquals("0:9", sent.get(9).get().positionToString());
+
+        Semaphore invoked = new Semaphore(0);
+        try (Subscription subscription = messaging.subscribe(SubscribeRequestBuilder
+                .to(telemetry, (received) -> invoked.release())
+                .seek(Seek.earliest))) {
+            assertTrue(invoked.tryAcquire(10, 10, TimeUnit.SECONDS));
+        }
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testConsumerPool() throws Exception {
+
+        String topic1 = "test_consumer_pool_1";
+        String topic2 = "test_consumer_pool_2";
+        createTopic(topic1, 1);
+        createTopic(topic2, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        when(kafkaEndpoint.consumerPoolSize()).thenReturn(2);
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic1, asList(message, message));
+        messaging.send(topic2, message);
+
+        Semaphore earliest1 = new Semaphore(0);
+        Semaphore latest1 = new Semaphore(0);
+        Semaphore batches1 = new Semaphore(0);
+        Semaphore earliest2 = new Semaphore(0);
+
+        // Three subscriptions to the same partition, more than the pool size
+        try (Subscription subscription1 = messaging.subscribe(SubscribeRequestBuilder
+                     .to(topic1, (received) -> earliest1.release())
+                     .seek(Seek.earliest));
+             Subscription subscription2 = messaging.subscribe(SubscribeRequestBuilder
+                     .to(topic1, (received) -> latest1.release())
+                     .seek(Seek.latest));
+             Subscription subscription3 = messaging.subscribe(SubscribeRequestBuilder
+                     .toBatches(topic1, (batch) -> batches1.release(batch.size()))
+                     .maxBatchSize(10)
+                     .maxLinger(Duration.ofMillis(50))
+                     .seek(Seek.earliest));
+             Subscription subscription4 = messaging.subscribe(SubscribeRequestBuilder
+                     .to(topic2, (received) -> earliest2.release())
+                     .seek(Seek.earliest))) {
+
+            assertTrue(earliest1.tryAcquire(2, 10, TimeUnit.SECONDS));
+            assertTrue(batches1.tryAcquire(2, 10, TimeUnit.SECONDS));
+            assertTrue(earliest2.tryAcquire(1, 10, TimeUnit.SECONDS));
+
+            subscription4.close();
+            messaging.send(topic1, message);
+
+            assertTrue(earliest1.tryAcquire(1, 10, TimeUnit.SECONDS));
+            assertTrue(latest1.tryAcquire(1, 10, TimeUnit.SECONDS));
+            assertTrue(batches1.tryAcquire(1, 10, TimeUnit.SECONDS));
+            assertEquals(3, subscription1.stats().getDelivered());
+        }
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testConsumerPoolSlowCallback() throws Exception {
+
+        String topic1 = "test_consumer_pool_slow_1";
+        String topic2 = "test_consumer_pool_slow_2";
+        createTopic(topic1, 1);
+        createTopic(topic2, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        when(kafkaEndpoint.consumerPoolSize()).thenReturn(1);
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic1, message);
+        messaging.send(topic2, message);
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        Semaphore received2 = new Semaphore(0);
+        Semaphore nested = new Semaphore(0);
+        List<Subscription> nestedSubscriptions = new CopyOnWriteArrayList<>();
+
+        try (Subscription subscription1 = messaging.subscribe(SubscribeRequestBuilder
+                     .to(topic1, (received) -> {
+                         blocked.countDown();
+                         try {
+                             unblock.await();
+                         } catch (InterruptedException e) {
+                             Thread.currentThread().interrupt();
+                         }
+                     })
+                     .seek(Seek.earliest))) {
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            // The consumer shared with the blocked callback keeps serving the other subscriptions,
+            // which may subscribe from their callbacks
+            try (Subscription subscription2 = messaging.subscribe(SubscribeRequestBuilder
+                    .to(topic2, (received) -> {
+                        nestedSubscriptions.add(messaging.subscribe(SubscribeRequestBuilder
+                                .to(topic1, (nestedReceived) -> nested.release())
+                                .seek(Seek.earliest)));
+                        received2.release();
+                    })
+                    .seek(Seek.earliest))) {
+                assertTrue(received2.tryAcquire(1, 10, TimeUnit.SECONDS));
+                assertTrue(nested.tryAcquire(1, 10, TimeUnit.SECONDS));
+            } finally {
+                nestedSubscriptions.forEach(Subscription::close);
+                unblock.countDown();
+            }
+        }
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testPublisherDemand() throws Exception {
+
+        String topic = "test_publisher_demand";
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        when(kafkaEndpoint.consumerPoolSize()).thenReturn(1);
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        byte[] payload = "test".getBytes(forName("UTF-8"));
+        Message message = new Message(payload, singletonMap("prop1", "value1"));
+        messaging.send(topic, asList(message, message, message));
+
+        Semaphore received = new Semaphore(0);
+        AtomicReference<org.reactivestreams.Subscription> subscription = new AtomicReference<>();
+        messaging.publisher(SubscribeRequestBuilder.toPublisher(topic).seek(Seek.earliest)).subscribe(new Subscriber<Received>() {
+            @Override
+            public void onSubscribe(org.reactivestreams.Subscription s) {
+                subscription.set(s);
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(Received next) {
+                received.release();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        assertTrue(received.tryAcquire(1, 10, TimeUnit.SECONDS));
+        assertFalse(received.tryAcquire(1, 200, TimeUnit.MILLISECONDS));
+        subscription.get().request(2);
+        assertTrue(received.tryAcquire(2, 10, TimeUnit.SECONDS));
+        subscription.get().cancel();
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 20000)
+    public void testParallelDispatch() throws Exception {
+
+        String topic = "test_parallel_dispatch";
+        createTopic(topic, 3);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messages.add(new Message(String.valueOf(i).getBytes(forName("UTF-8")), singletonMap("prop1", "value1"), "key" + i % 7));
+        }
+        messaging.send(topic, messages);
+        Position latest = messaging.latestPosition(topic);
+
+        Semaphore invoked = new Semaphore(0);
+        Map<String, List<Integer>> payloads = new ConcurrentHashMap<>();
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    payloads.computeIfAbsent(received.getMessage().getKey(), k -> new CopyOnWriteArrayList<>())
+                            .add(Integer.valueOf(new String(received.getMessage().getPayload(), forName("UTF-8"))));
+                    invoked.release();
+                })
+                .parallelism(4)
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(50, 10, TimeUnit.SECONDS));
+            while (! latest.equals(subscription.stats().getPosition())) {
+                Thread.sleep(10);
+            }
+            assertEquals(50, subscription.stats().getDelivered());
+        }
+        assertEquals(7, payloads.size());
+        for (List<Integer> payload : payloads.values()) {
+            assertEquals(payload.stream().sorted().collect(Collectors.toList()), payload);
+        }
+
+        messaging.deactivate();
+    }
+
+    @Test(timeout = 30000)
+    public void testWorkerQueue() throws Exception {
+        workerQueue("test_worker_queue", 0);
+    }
+
+    @Test(timeout = 30000)
+    public void testWorkerQueueWithConsumerPool() throws Exception {
+        workerQueue("test_worker_queue_pool", 1);
+    }
+
+    private void workerQueue(String topic, int consumerPoolSize) throws Exception {
+        createTopic(topic, 1);
+
+        KafkaEndpoint kafkaEndpoint = Mockito.mock(KafkaEndpoint.class);
+        when(kafkaEndpoint.kafkaBootstrapServers())
+                .thenReturn(getKafkaLocal().getKafkaBootstrapServer());
+        when(kafkaEndpoint.consumerPoolSize()).thenReturn(consumerPoolSize);
+        when(kafkaEndpoint.workerQueueSize()).thenReturn(5);
+        KafkaMessaging messaging = new KafkaMessaging();
+        messaging.activate(kafkaEndpoint);
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add(new Message(String.valueOf(i).getBytes(forName("UTF-8")), singletonMap("prop1", "value1")));
+        }
+        messaging.send(topic, messages);
+
+        Semaphore invoked = new Semaphore(0);
+        List<String> positions = new CopyOnWriteArrayList<>();
+        SubscribeRequestBuilder requestBuilder = SubscribeRequestBuilder
+                .to(topic, (received) -> {
+                    positions.add(received.getPosition().positionToString());
+                    try {
+                        // Slow callback, the partition gets paused
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    invoked.release();
+                })
+                .seek(Seek.earliest);
+
+        try (Subscription subscription = messaging.subscribe(requestBuilder)) {
+            assertTrue(invoked.tryAcquire(100, 20, TimeUnit.SECONDS));
+            while (! "0:100".equals(String.valueOf(subscription.stats().getPosition()))) {
+                Thread.sleep(10);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("0:" + i, positions.get(i));
+        }
+
+        messaging.deactivate();
+    }
+
+    private KafkaConsumer<String, byte[]> checkpointConsumer(String groupId) {
+        Map<String, Object> config = new HashMap<>();
+        config.put(BOOTSTRAP_SERVERS_CONFIG, getKafkaLocal().getKafkaBootstrapServer());
+        config.put(GROUP_ID_CONFIG, groupId);
+        config.put(KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        config.put(VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        return new KafkaConsumer<>(config);
+    }
+
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.aries.events.kafka;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Random;
 import java.util.SortedMap;
@@ -47,9 +49,39 @@ public class KafkaPositionTest {
 
     @Test
     public void testCompareTo() throws Exception {
-        assertEquals(0, comparePositions(position(RAND.nextInt(), 5), position(RAND.nextInt(), 5)));
-        assertEquals(1, comparePositions(position(RAND.nextInt(), 10), position(RAND.nextInt(), 5)));
-        assertEquals(-1, comparePositions(position(RAND.nextInt(), 2), position(RAND.nextInt(), 5)));
+        int partition = RAND.nextInt(100);
+        assertEquals(0, comparePositions(position(partition, 5), position(partition, 5)));
+        assertEquals(1, comparePositions(position(partition, 10), position(partition, 5)));
+        assertEquals(-1, comparePositions(position(partition, 2), position(partition, 5)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetPartitionOfSeveralPartitions() throws Exception {
+        position(0, 5, 1, 7).getPartition();
+    }
+
+    @Test
+    public void testGetOffsets() throws Exception {
+        SortedMap<Integer, Long> offsets = position(1, 7, 0, 5).getOffsets();
+        assertEquals(Long.valueOf(5), offsets.get(0));
+        assertEquals(Long.valueOf(7), offsets.get(1));
+        assertEquals(Integer.valueOf(0), offsets.firstKey());
+    }
+
+    @Test
+    public void testPositionToStringOfSeveralPartitions() throws Exception {
+        assertEquals("0:5,1:7", position(1, 7, 0, 5).positionToString());
+        assertEquals(position(0, 5, 1, 7), KafkaMessaging.fromString("0:5,1:7"));
+    }
+
+    @Test
+    public void testCompareToSeveralPartitions() throws Exception {
+        assertEquals(0, comparePositions(position(0, 5, 1, 7), position(1, 7, 0, 5)));
+        assertEquals(1, comparePositions(position(0, 5, 1, 8), position(0, 5, 1, 7)));
+        assertEquals(-1, comparePositions(position(0, 4, 1, 8), position(0, 5, 1, 7)));
+        // A partition not covered is behind any offset
+        assertEquals(1, comparePositions(position(0, 5, 1, 0), position(0, 5)));
+        assertEquals(-1, comparePositions(position(1, 9), position(0, 0, 1, 9)));
     }
 
     @Test
@@ -69,4 +101,11 @@ public class KafkaPositionTest {
     private KafkaPosition position(int partition, long offset) {
         return new KafkaPosition(partition, offset);
     }
+
+    private KafkaPosition position(int partition1, long offset1, int partition2, long offset2) {
+        Map<Integer, Long> offsets = new HashMap<>();
+        offsets.put(partition1, offset1);
+        offsets.put(partition2, offset2);
+        return new KafkaPosition(offsets);
+    }
 }
\ No newline at end of file
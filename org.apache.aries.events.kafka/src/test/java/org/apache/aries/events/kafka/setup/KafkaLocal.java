@@ -51,6 +51,8 @@ public class KafkaLocal {
         props.put("log.dir", logDir);
         props.put("port", port);
         props.put("zookeeper.connect", zkConnect);
+        // Single broker, required to commit the offsets of consumer groups
+        props.put("offsets.topic.replication.factor", "1");
         return props;
     }
 }
@@ -17,31 +17,131 @@
  */
 package org.apache.aries.events.memory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.apache.aries.events.api.CheckpointStore;
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Messaging;
 import org.apache.aries.events.api.Position;
 import org.apache.aries.events.api.SubscribeRequestBuilder;
 import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
 import org.apache.aries.events.api.Type;
+import org.apache.aries.events.impl.Checkpointer;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.Designate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @Component
 @Type("memory")
+@Designate(ocd = MemoryConfig.class)
 public class InMemoryMessaging implements Messaging {
+    /**
+     * Time between two evictions of the messages beyond the retention of the topics.
+     */
+    static final long EVICTION_INTERVAL_MS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
     private final Map<String, Topic> topics = new ConcurrentHashMap<>();
-    private final int keepAtLeast;
+    private Retention retention;
+    private Map<String, String> topicRetention = new HashMap<>();
+    private long retentionBytes;
+    private Map<String, Long> topicRetentionBytes = new HashMap<>();
+    private ScheduledExecutorService evictor;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.drop;
+    private Map<String, SlowConsumerPolicy> topicSlowConsumerPolicies = new HashMap<>();
+    private int maxLag;
+    private long blockTimeoutMs;
+    private Snapshot snapshot;
+    private ScheduledExecutorService snapshotter;
+    private ScheduledExecutorService checkpointWriter;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private SubscriptionDispatcher dispatcher;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private CheckpointStore checkpointStore;
+
+    private final CheckpointStore memoryCheckpointStore = new MemoryCheckpointStore();
     
     public InMemoryMessaging() {
         this(10000);
     }
 
     public InMemoryMessaging(int keepAtLeast) {
-        this.keepAtLeast = keepAtLeast;
-        
+        this(keepAtLeast, null);
+    }
+
+    public InMemoryMessaging(int keepAtLeast, SubscriptionDispatcher dispatcher) {
+        this(keepAtLeast, dispatcher, null);
+    }
+
+    public InMemoryMessaging(int keepAtLeast, SubscriptionDispatcher dispatcher, CheckpointStore checkpointStore) {
+        this.retention = new Retention(keepAtLeast, 0, 0, false);
+        this.dispatcher = dispatcher;
+        this.checkpointStore = checkpointStore;
+    }
+
+    @Activate
+    public void activate(MemoryConfig config) {
+        this.retention = new Retention(config.keepAtLeast(), config.maxMessages(), config.maxAgeMs(), config.retainUnconsumed());
+        this.topicRetention = topicRetention(config.topicRetention());
+        this.retentionBytes = config.retentionBytes();
+        this.topicRetentionBytes = topicRetentionBytes(config.topicRetentionBytes());
+        this.slowConsumerPolicy = config.slowConsumerPolicy() != null ? config.slowConsumerPolicy() : SlowConsumerPolicy.drop;
+        this.topicSlowConsumerPolicies = topicSlowConsumerPolicies(config.topicSlowConsumerPolicies());
+        checkSlowConsumerPolicies();
+        this.maxLag = config.maxLag();
+        this.blockTimeoutMs = config.blockTimeoutMs();
+        String snapshotFile = config.snapshotFile();
+        if (snapshotFile != null && !snapshotFile.isEmpty()) {
+            this.snapshot = new Snapshot(Paths.get(snapshotFile));
+            restoreSnapshot();
+            if (config.snapshotIntervalMs() > 0) {
+                startSnapshotter(config.snapshotIntervalMs());
+            }
+        }
+    }
+
+    @Deactivate
+    public synchronized void deactivate() {
+        if (checkpointWriter != null) {
+            checkpointWriter.shutdown();
+            checkpointWriter = null;
+        }
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        if (snapshotter != null) {
+            snapshotter.shutdown();
+            snapshotter = null;
+        }
+        if (snapshot != null) {
+            writeSnapshot();
+        }
     }
 
     @Override
@@ -50,11 +150,39 @@ public class InMemoryMessaging implements Messaging {
         topic.send(message);
     }
 
+    @Override
+    public CompletionStage<Position> sendAsync(String topicName, Message message) {
+        Topic topic = getOrCreate(topicName);
+        return completedFuture(topic.send(message));
+    }
+
+    @Override
+    public List<Position> send(String topicName, List<Message> messages) {
+        Topic topic = getOrCreate(topicName);
+        return topic.send(messages);
+    }
+
     @Override
     public Subscription subscribe(SubscribeRequestBuilder requestBuilder) {
         SubscribeRequest request = requestBuilder.build();
         Topic topic = getOrCreate(request.getTopic());
-        return topic.subscribe(request);
+        if (request.getName() == null) {
+            return topic.subscribe(request, request.getPosition(), null);
+        }
+        Checkpointer checkpointer = new Checkpointer(checkpointStore(), checkpointWriter(), request);
+        String checkpoint = checkpointer.load();
+        Position start = checkpoint != null ? positionFromString(checkpoint) : request.getPosition();
+        return topic.subscribe(request, start, checkpointer);
+    }
+
+    @Override
+    public Position earliestPosition(String topicName) {
+        return getOrCreate(topicName).earliestPosition();
+    }
+
+    @Override
+    public Position latestPosition(String topicName) {
+        return getOrCreate(topicName).latestPosition();
     }
 
     @Override
@@ -64,7 +192,158 @@ public class InMemoryMessaging implements Messaging {
     }
 
     private Topic getOrCreate(String topicName) {
-        return topics.computeIfAbsent(topicName, topicName2 -> new Topic(topicName2, keepAtLeast));
+        return topics.computeIfAbsent(topicName, this::createTopic);
+    }
+
+    private Topic createTopic(String topicName) {
+        SlowConsumerPolicy policy = topicSlowConsumerPolicies.getOrDefault(topicName, slowConsumerPolicy);
+        long bytes = topicRetentionBytes.getOrDefault(topicName, retentionBytes);
+        if (bytes > 0) {
+            // Checked on activation, the journal overwrites by bytes so the lag in messages does not apply
+            return new Topic(topicName, new OffHeapJournal(bytes), null, SlowConsumerPolicy.drop, 0, blockTimeoutMs, dispatcher());
+        }
+        String settings = topicRetention.get(topicName);
+        Retention topicRetention = settings != null ? retention.with(settings) : retention;
+        RingJournal<Message> journal = new RingJournal<>(topicRetention.getCapacity());
+        int topicMaxLag = maxLag > 0 ? maxLag : journal.getCapacity();
+        if (!topicRetention.isEvicting()) {
+            return new Topic(topicName, journal, null, policy, topicMaxLag, blockTimeoutMs, dispatcher());
+        }
+        log.debug(format("Topic %s evicts with %s", topicName, topicRetention));
+        startEvictor();
+        return new Topic(topicName, journal, topicRetention, policy, topicMaxLag, blockTimeoutMs, dispatcher());
+    }
+
+    /**
+     * The topics kept outside of the heap overwrite their messages by bytes, a lag counted
+     * in messages does not protect the subscriptions from being overwritten.
+     *
+     * @throws IllegalArgumentException if a topic kept outside of the heap blocks or disconnects its slow consumers
+     */
+    private void checkSlowConsumerPolicies() {
+        checkSlowConsumerPolicy("topics not listed", slowConsumerPolicy, retentionBytes);
+        Set<String> topicNames = new HashSet<>(topicSlowConsumerPolicies.keySet());
+        topicNames.addAll(topicRetentionBytes.keySet());
+        for (String topicName : topicNames) {
+            checkSlowConsumerPolicy("topic " + topicName,
+                    topicSlowConsumerPolicies.getOrDefault(topicName, slowConsumerPolicy),
+                    topicRetentionBytes.getOrDefault(topicName, retentionBytes));
+        }
+    }
+
+    private static void checkSlowConsumerPolicy(String topics, SlowConsumerPolicy policy, long bytes) {
+        if (bytes > 0 && policy != SlowConsumerPolicy.drop) {
+            throw new IllegalArgumentException(format("Slow consumer policy %s is not supported for %s kept outside of the heap", policy, topics));
+        }
+    }
+
+    private synchronized ScheduledExecutorService checkpointWriter() {
+        if (checkpointWriter == null) {
+            checkpointWriter = Checkpointer.newWriter();
+        }
+        return checkpointWriter;
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "In memory messaging eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evict, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS, MILLISECONDS);
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        for (Topic topic : topics.values()) {
+            try {
+                topic.evict(now);
+            } catch (RuntimeException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void startSnapshotter(long intervalMs) {
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "In memory messaging snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::writeSnapshot, intervalMs, intervalMs, MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        long start = System.nanoTime();
+        try {
+            snapshot.write(topics);
+            log.debug(format("Wrote snapshot %s of %d topics in %d ms",
+                    snapshot.getFile(), topics.size(), NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (IOException | RuntimeException e) {
+            log.warn(format("Failed to write snapshot %s", snapshot.getFile()), e);
+        }
+    }
+
+    /**
+     * Restore the topics before they are sent to, starting empty if the snapshot is corrupted.
+     */
+    private void restoreSnapshot() {
+        long start = System.nanoTime();
+        try {
+            long count = snapshot.restore(this::getOrCreate);
+            log.info(format("Restored %d messages of %d topics from snapshot %s in %d ms",
+                    count, topics.size(), snapshot.getFile(), NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (IOException | RuntimeException e) {
+            log.warn(format("Failed to restore snapshot %s, starting without messages", snapshot.getFile()), e);
+            topics.clear();
+        }
+    }
+
+    static Map<String, SlowConsumerPolicy> topicSlowConsumerPolicies(String[] entries) {
+        Map<String, SlowConsumerPolicy> topicPolicies = new HashMap<>();
+        for (String entry : entries != null ? entries : new String[0]) {
+            String[] chunks = entry.split("=");
+            if (chunks.length != 2) {
+                throw new IllegalArgumentException(format("Illegal topic slow consumer policy %s", entry));
+            }
+            topicPolicies.put(chunks[0].trim(), SlowConsumerPolicy.valueOf(chunks[1].trim()));
+        }
+        return topicPolicies;
+    }
+
+    static Map<String, String> topicRetention(String[] entries) {
+        Map<String, String> topicRetention = new HashMap<>();
+        for (String entry : entries != null ? entries : new String[0]) {
+            int separator = entry.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException(format("Illegal topic retention %s", entry));
+            }
+            topicRetention.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+        }
+        return topicRetention;
+    }
+
+    static Map<String, Long> topicRetentionBytes(String[] entries) {
+        Map<String, Long> topicRetentionBytes = new HashMap<>();
+        for (String entry : entries != null ? entries : new String[0]) {
+            String[] chunks = entry.split("=");
+            if (chunks.length != 2) {
+                throw new IllegalArgumentException(format("Illegal topic retention %s", entry));
+            }
+            topicRetentionBytes.put(chunks[0].trim(), Long.parseLong(chunks[1].trim()));
+        }
+        return topicRetentionBytes;
+    }
+
+    private SubscriptionDispatcher dispatcher() {
+        return dispatcher != null ? dispatcher : SubscriptionDispatcher.threadPerSubscription();
+    }
+
+    private CheckpointStore checkpointStore() {
+        return checkpointStore != null ? checkpointStore : memoryCheckpointStore;
     }
 
 }
@@ -17,57 +17,80 @@
  */
 package org.apache.aries.events.memory;
 
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
+import org.apache.aries.events.impl.PolledJournal;
 
-class Journal<T> {
-    private final int keepAtLeast;
-    private final AtomicLong nextOffset = new AtomicLong();
-    private final ConcurrentNavigableMap<Long, T> messages = new ConcurrentSkipListMap<>();
-    private final AtomicLong count = new AtomicLong();
-    
-    public Journal(int keepAtLeast) {
-        this.keepAtLeast = keepAtLeast;
-    }
-    
-    public long append(T message) {
-        if (count.incrementAndGet() > keepAtLeast * 2) {
-            evict();
-        }
-        Long offset = nextOffset.getAndIncrement();
-        messages.put(offset, message);
-        return offset;
-    }
+/**
+ * Messages of a topic indexed by a sequence of offsets, retaining the most recent
+ * ones. There must be a single writer at a time, the appends are serialized by the
+ * caller, while the messages are read concurrently without locking.
+ */
+interface Journal<T> extends PolledJournal<T> {
 
-    private synchronized void evict() {
-        Iterator<Long> it = messages.keySet().iterator();
-        for (int c = 0; c < keepAtLeast; c++) {
-            messages.remove(it.next());
-        }
-        count.set(0);
+    /**
+     * @param message to append, must not be invoked concurrently
+     * @return the offset of the message
+     */
+    default long append(T message) {
+        return append(message, System.currentTimeMillis());
     }
 
-    public long getFirstOffset() {
-        try {
-            return messages.firstKey();
-        } catch (NoSuchElementException e) {
-            return 0;
-        }
-    }
+    /**
+     * @param message to append, must not be invoked concurrently
+     * @param time the message was sent, in milliseconds since the epoch,
+     *        raised to the time of the previous message if earlier
+     * @return the offset of the message
+     */
+    long append(T message, long time);
 
-    public long getLastOffset() {
-        try {
-            return messages.lastKey();
-        } catch (NoSuchElementException e) {
-            return -1;
-        }
-    }
+    /**
+     * Restart the journal at the offset, evicting all its messages. The next
+     * message appended gets the offset. Must not be invoked concurrently with
+     * an append.
+     *
+     * @param offset of the next message, after the last message appended
+     */
+    void startAt(long offset);
 
-    public Entry<Long, T> getNext(long offset) {
-        return this.messages.ceilingEntry(offset);
-    }
+    /**
+     * @return the offset of the oldest message retained
+     */
+    long getFirstOffset();
+
+    /**
+     * @return the offset of the last message appended, {@code -1} if none
+     */
+    long getLastOffset();
+
+    /**
+     * @param offset to read from
+     * @return the offset, or the first offset if the offset was overwritten already
+     */
+    long getNextOffset(long offset);
+
+    /**
+     * @param offset of the message
+     * @return the message or {@code null} if it was not appended yet or was overwritten
+     */
+    T get(long offset);
+
+    /**
+     * @param offset of the message
+     * @return the time the message was appended, in milliseconds since the epoch,
+     *         or {@code -1} if it was not appended yet or was overwritten
+     */
+    long getAppendTime(long offset);
+
+    /**
+     * Evict the messages before the offset, must not be invoked concurrently with an append.
+     *
+     * @param offset of the first message to retain, at most the offset of the next message
+     */
+    void evict(long offset);
+
+    /**
+     * @param time in milliseconds since the epoch
+     * @return the offset of the first message appended at or after the time
+     *         or the offset of the next message if there is none
+     */
+    long getOffsetAt(long time);
 }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.aries.events.api.CheckpointStore;
+
+/**
+ * Keeps the checkpoints for the lifetime of the messaging instance,
+ * like the topics themselves.
+ */
+class MemoryCheckpointStore implements CheckpointStore {
+
+    private final Map<String, Map<String, String>> checkpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public String load(String topic, String name) {
+        Map<String, String> names = checkpoints.get(topic);
+        return names != null ? names.get(name) : null;
+    }
+
+    @Override
+    public void commit(String topic, String name, String position) {
+        checkpoints.computeIfAbsent(topic, key -> new ConcurrentHashMap<>()).put(name, position);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+@ObjectClassDefinition(name = "Apache Aries Events - In memory messaging",
+        description = "In memory messaging")
+public @interface MemoryConfig {
+
+    @AttributeDefinition(name = "Keep At Least",
+            description = "The minimum number of messages retained per topic, when the messages are kept on the heap.")
+    int keepAtLeast() default 10000;
+
+    @AttributeDefinition(name = "Max Messages",
+            description = "The maximum number of messages retained per topic on the heap, when retaining unconsumed messages " +
+                    "or messages younger than the max age. With 0, the maximum is the keep at least number of messages.")
+    int maxMessages() default 0;
+
+    @AttributeDefinition(name = "Max Age",
+            description = "The time in milliseconds the messages are retained on the heap, instead of the keep at least number " +
+                    "of messages. Older messages are evicted in the background. With 0, the messages are retained by number.")
+    long maxAgeMs() default 0;
+
+    @AttributeDefinition(name = "Retain Unconsumed",
+            description = "Retain the messages on the heap until all the active subscriptions consumed them, up to the max messages.")
+    boolean retainUnconsumed() default false;
+
+    @AttributeDefinition(name = "Topic Retention",
+            description = "Retention of specific topics kept on the heap, as topic=name:value,... entries overriding the " +
+                    "keepAtLeast, maxMessages, maxAgeMs and retainUnconsumed settings above, e.g. orders=maxAgeMs:60000,retainUnconsumed:true.")
+    String[] topicRetention() default {};
+
+    @AttributeDefinition(name = "Slow Consumer Policy",
+            description = "What to do with a subscription lagging behind by more than the max lag: drop (skip the messages " +
+                    "overwritten, notifying the subscription of the gap), block (block the senders for at most the block timeout) " +
+                    "or disconnect (close the subscription). The topics kept outside of the heap only support drop, " +
+                    "as they overwrite their messages by bytes rather than by number.")
+    SlowConsumerPolicy slowConsumerPolicy() default SlowConsumerPolicy.drop;
+
+    @AttributeDefinition(name = "Topic Slow Consumer Policies",
+            description = "Slow consumer policies of specific topics, as topic=policy entries. " +
+                    "The topics not listed use the slow consumer policy.")
+    String[] topicSlowConsumerPolicies() default {};
+
+    @AttributeDefinition(name = "Max Lag",
+            description = "The number of messages a subscription may lag behind before the slow consumer policy applies. " +
+                    "With 0, the number of messages a topic kept on the heap holds before overwriting them.")
+    int maxLag() default 0;
+
+    @AttributeDefinition(name = "Block Timeout",
+            description = "The maximum time in milliseconds a sender is blocked by a slow subscription with the block policy.")
+    long blockTimeoutMs() default 1000;
+
+    @AttributeDefinition(name = "Retention Bytes",
+            description = "The minimum number of bytes of encoded messages retained per topic outside of the heap. " +
+                    "The messages are decoded when delivered. With 0, the messages are kept on the heap.")
+    long retentionBytes() default 0;
+
+    @AttributeDefinition(name = "Topic Retention Bytes",
+            description = "Retention in bytes of specific topics, as topic=bytes entries, kept outside of the heap. " +
+                    "The topics not listed use the retention bytes.")
+    String[] topicRetentionBytes() default {};
+
+    @AttributeDefinition(name = "Snapshot File",
+            description = "The file the messages of all the topics are written to on deactivation and restored from on activation, " +
+                    "with their positions. With an empty value, the messages are lost on restart.")
+    String snapshotFile() default "";
+
+    @AttributeDefinition(name = "Snapshot Interval",
+            description = "The time in milliseconds between two snapshots written in the background, in addition to the one " +
+                    "written on deactivation. With 0, the snapshot is only written on deactivation.")
+    long snapshotIntervalMs() default 0;
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import static java.lang.String.format;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.impl.MessageCodec;
+
+/**
+ * Journal storing the encoded messages in direct buffers, outside of the heap,
+ * and decoding them when they are read. The buffers are segments of at most
+ * {@link #MAX_SEGMENT_SIZE} bytes, allocated as the journal grows and reused
+ * in a ring: once the retention is reached, the oldest segment is cleared for
+ * the next messages. Thus the heap only holds the index of the positions of
+ * the messages in the segments, whatever the size of the payloads.
+ * <p>
+ * The readers read optimistically. Clearing a segment is the only write that
+ * may invalidate a message read concurrently, it takes the write lock so that
+ * the readers validate their read or retry it under the read lock.
+ */
+class OffHeapJournal implements Journal<Message> {
+    static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Append time and length of the encoded message.
+     */
+    private static final int RECORD_HEADER = Long.BYTES + Integer.BYTES;
+
+    private final int segmentSize;
+    private final AtomicReferenceArray<Segment> segments;
+    private final StampedLock lock = new StampedLock();
+    private final MessageCodec codec = new MessageCodec();
+
+    /**
+     * Index of the segment being written.
+     */
+    private volatile int current = -1;
+
+    private volatile long cursor = -1;
+    private volatile long first;
+
+    /**
+     * Only accessed by the writer.
+     */
+    private long lastAppendTime;
+
+    /**
+     * @param retentionBytes minimum number of bytes of encoded messages to retain
+     */
+    public OffHeapJournal(long retentionBytes) {
+        if (retentionBytes < 1) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        this.segmentSize = (int) Math.min(retentionBytes, MAX_SEGMENT_SIZE);
+        // One more segment than the retention so that clearing the oldest keeps enough
+        long count = (retentionBytes + segmentSize - 1) / segmentSize + 1;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(format("Retention of %d bytes is too large", retentionBytes));
+        }
+        this.segments = new AtomicReferenceArray<>((int) count);
+    }
+
+    @Override
+    public long append(Message message, long time) {
+        ByteBuffer encoded = codec.encode(message);
+        int size = RECORD_HEADER + encoded.remaining();
+        if (size > segmentSize) {
+            throw new IllegalArgumentException(format("Message of %d bytes exceeds the segment size of %d bytes", size, segmentSize));
+        }
+        long offset = cursor + 1;
+        Segment segment = current >= 0 ? segments.get(current) : null;
+        if (segment == null || segment.limit + size > segmentSize) {
+            segment = nextSegment(offset);
+        }
+        // Keep the append times ordered even if the clock goes backwards
+        lastAppendTime = Math.max(lastAppendTime, time);
+        int position = segment.limit;
+        segment.writer.putLong(position, lastAppendTime);
+        segment.writer.putInt(position + Long.BYTES, encoded.remaining());
+        segment.writer.position(position + RECORD_HEADER);
+        segment.writer.put(encoded);
+        segment.add(position, size);
+        cursor = offset;
+        return offset;
+    }
+
+    private Segment nextSegment(long offset) {
+        int next = (current + 1) % segments.length();
+        Segment segment = segments.get(next);
+        if (segment == null) {
+            segment = new Segment(ByteBuffer.allocateDirect(segmentSize), offset);
+            segments.set(next, segment);
+        } else {
+            long stamp = lock.writeLock();
+            try {
+                // The segment after the oldest one holds the oldest messages retained, unless evicted already
+                first = Math.max(first, segments.get((next + 1) % segments.length()).baseOffset);
+                segment.clear(offset);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        current = next;
+        return segment;
+    }
+
+    /**
+     * The next message is appended to a new segment, based at the offset.
+     */
+    @Override
+    public void startAt(long offset) {
+        if (offset <= cursor) {
+            throw new IllegalArgumentException(format("Offset %d is not after the last offset %d", offset, cursor));
+        }
+        first = offset;
+        cursor = offset - 1;
+        if (current >= 0) {
+            nextSegment(offset);
+        }
+    }
+
+    /**
+     * The evicted messages are hidden, their bytes are released when their segment is reused.
+     */
+    @Override
+    public void evict(long offset) {
+        long to = Math.min(offset, cursor + 1);
+        if (to > first) {
+            first = to;
+        }
+    }
+
+    @Override
+    public long getFirstOffset() {
+        return first;
+    }
+
+    @Override
+    public long getLastOffset() {
+        return cursor;
+    }
+
+    @Override
+    public long getNextOffset(long offset) {
+        return Math.max(offset, first);
+    }
+
+    @Override
+    public Message get(long offset) {
+        if (offset > cursor || offset < 0) {
+            return null;
+        }
+        ByteBuffer encoded = read(offset, this::readRecord);
+        return encoded != null ? MessageCodec.decode(encoded) : null;
+    }
+
+    @Override
+    public long getAppendTime(long offset) {
+        if (offset > cursor || offset < 0) {
+            return -1;
+        }
+        Long time = read(offset, this::readTime);
+        return time != null ? time : -1;
+    }
+
+    /**
+     * Binary search over the append times stored with the messages.
+     */
+    @Override
+    public long getOffsetAt(long time) {
+        long low = getFirstOffset();
+        long high = getLastOffset() + 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            Long appendTime = read(mid, this::readTime);
+            // Overwritten messages are older than the remaining ones
+            if (appendTime == null || appendTime < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read optimistically, then under the read lock if a segment was cleared meanwhile.
+     * A read invalidated by the clearing may fail or return garbage, which is discarded.
+     */
+    private <R> R read(long offset, LongFunction<R> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                R result = reader.apply(offset);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.apply(offset);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a copy of the encoded message or {@code null} if it was overwritten
+     */
+    private ByteBuffer readRecord(long offset) {
+        Segment segment = segmentOf(offset);
+        if (segment == null) {
+            return null;
+        }
+        int position = segment.positionOf(offset);
+        int length = segment.buffer.getInt(position + Long.BYTES);
+        if (length < 0 || position + RECORD_HEADER + length > segmentSize) {
+            throw new IllegalStateException(format("Corrupted message at offset %d", offset));
+        }
+        byte[] copy = new byte[length];
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(position + RECORD_HEADER);
+        view.get(copy);
+        return ByteBuffer.wrap(copy);
+    }
+
+    /**
+     * @return the append time or {@code null} if the message was overwritten
+     */
+    private Long readTime(long offset) {
+        Segment segment = segmentOf(offset);
+        return segment != null ? segment.buffer.getLong(segment.positionOf(offset)) : null;
+    }
+
+    /**
+     * Look up the segments from the most recent one, which holds the messages read the most.
+     */
+    private Segment segmentOf(long offset) {
+        if (offset < first) {
+            return null;
+        }
+        int index = current;
+        for (int i = 0; i < segments.length() && index >= 0; i++) {
+            Segment segment = segments.get(index);
+            if (segment == null) {
+                return null;
+            }
+            if (segment.baseOffset <= offset) {
+                return segment;
+            }
+            index = (index == 0 ? segments.length() : index) - 1;
+        }
+        return null;
+    }
+
+    private static final class Segment {
+        private final ByteBuffer buffer;
+
+        /**
+         * Only accessed by the writer.
+         */
+        private final ByteBuffer writer;
+
+        private volatile long baseOffset;
+
+        /**
+         * Positions of the messages in the buffer, by offset from the base offset.
+         */
+        private volatile int[] positions = new int[1024];
+
+        /**
+         * Only accessed by the writer.
+         */
+        private int count;
+        private int limit;
+
+        Segment(ByteBuffer buffer, long baseOffset) {
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+            this.baseOffset = baseOffset;
+        }
+
+        void add(int position, int size) {
+            int[] current = positions;
+            if (count == current.length) {
+                int[] larger = new int[current.length * 2];
+                System.arraycopy(current, 0, larger, 0, count);
+                current = larger;
+            }
+            current[count++] = position;
+            positions = current;
+            limit += size;
+        }
+
+        int positionOf(long offset) {
+            return positions[(int) (offset - baseOffset)];
+        }
+
+        void clear(long baseOffset) {
+            this.baseOffset = baseOffset;
+            this.count = 0;
+            this.limit = 0;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import static java.lang.String.format;
+
+/**
+ * Retention policy of a topic kept on the heap. By default, the last
+ * {@code keepAtLeast} messages are retained. With a maximum age, the messages
+ * younger than it are retained instead. When retaining the unconsumed messages,
+ * the messages not consumed yet by all the active subscriptions are retained
+ * as well. The hard cap bounds the number of messages retained in any case.
+ */
+final class Retention {
+    private final int keepAtLeast;
+    private final int maxMessages;
+    private final long maxAgeMs;
+    private final boolean retainUnconsumed;
+
+    Retention(int keepAtLeast, int maxMessages, long maxAgeMs, boolean retainUnconsumed) {
+        if (keepAtLeast < 1) {
+            throw new IllegalArgumentException("Keep at least must be positive");
+        }
+        if (maxMessages < 0 || maxAgeMs < 0) {
+            throw new IllegalArgumentException("Max messages and max age must not be negative");
+        }
+        this.keepAtLeast = keepAtLeast;
+        this.maxMessages = maxMessages;
+        this.maxAgeMs = maxAgeMs;
+        this.retainUnconsumed = retainUnconsumed;
+    }
+
+    /**
+     * Override the policy with the settings of a topic.
+     *
+     * @param settings comma separated name:value pairs, e.g. {@code maxAgeMs:60000,retainUnconsumed:true}
+     * @return the policy overridden with the settings
+     */
+    Retention with(String settings) {
+        int keepAtLeast = this.keepAtLeast;
+        int maxMessages = this.maxMessages;
+        long maxAgeMs = this.maxAgeMs;
+        boolean retainUnconsumed = this.retainUnconsumed;
+        for (String setting : settings.split(",")) {
+            String[] chunks = setting.split(":");
+            if (chunks.length != 2) {
+                throw new IllegalArgumentException(format("Illegal retention setting %s", setting));
+            }
+            String value = chunks[1].trim();
+            switch (chunks[0].trim()) {
+            case "keepAtLeast":
+                keepAtLeast = Integer.parseInt(value);
+                break;
+            case "maxMessages":
+                maxMessages = Integer.parseInt(value);
+                break;
+            case "maxAgeMs":
+                maxAgeMs = Long.parseLong(value);
+                break;
+            case "retainUnconsumed":
+                retainUnconsumed = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException(format("Unknown retention setting %s", setting));
+            }
+        }
+        return new Retention(keepAtLeast, maxMessages, maxAgeMs, retainUnconsumed);
+    }
+
+    /**
+     * @return the number of messages the journal holds at most
+     */
+    int getCapacity() {
+        return Math.max(keepAtLeast, maxMessages);
+    }
+
+    /**
+     * @return {@code true} if the messages must be evicted in the background,
+     *         rather than only when overwritten by the next messages
+     */
+    boolean isEvicting() {
+        return maxAgeMs > 0 || retainUnconsumed || maxMessages > keepAtLeast;
+    }
+
+    /**
+     * @param journal of the topic
+     * @param unconsumed offset of the first message not consumed by all the active subscriptions
+     * @param now current time in milliseconds since the epoch
+     * @return the offset of the first message to retain
+     */
+    long evictBefore(Journal<?> journal, long unconsumed, long now) {
+        long next = journal.getLastOffset() + 1;
+        long retained = maxAgeMs > 0 ? journal.getOffsetAt(now - maxAgeMs) : next - keepAtLeast;
+        return retainUnconsumed ? Math.min(retained, unconsumed) : retained;
+    }
+
+    @Override
+    public String toString() {
+        return format("Retention[keepAtLeast=%d, maxMessages=%d, maxAgeMs=%d, retainUnconsumed=%b]",
+                keepAtLeast, maxMessages, maxAgeMs, retainUnconsumed);
+    }
+}
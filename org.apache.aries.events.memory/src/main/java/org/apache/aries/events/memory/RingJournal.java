@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer of messages indexed by a sequence of offsets. The buffer is preallocated
+ * with a power of two number of slots, at least {@code keepAtLeast}, and the message
+ * at an offset is stored in the slot {@code offset & mask}. Appending a message
+ * overwrites the oldest one once the buffer is full and does not allocate.
+ * <p>
+ * There must be a single writer at a time, the appends are serialized by the caller.
+ * The readers do not lock: the cursor publishes the messages appended and the first
+ * offset is moved past a message before its slot is overwritten, so that a reader
+ * detects a message overwritten while it was read.
+ */
+class RingJournal<T> implements Journal<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> messages;
+    private final AtomicLongArray appendTimes;
+
+    /**
+     * Offset of the last message appended, {@code -1} if none.
+     */
+    private volatile long cursor = -1;
+
+    /**
+     * Offset of the oldest message not overwritten.
+     */
+    private volatile long first;
+
+    /**
+     * Only accessed by the writer.
+     */
+    private long lastAppendTime;
+
+    public RingJournal(int keepAtLeast) {
+        int capacity = Integer.highestOneBit(Math.max(1, keepAtLeast));
+        if (capacity < keepAtLeast) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.messages = new AtomicReferenceArray<>(capacity);
+        this.appendTimes = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * @return the number of messages held before overwriting the oldest one
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public long append(T message, long time) {
+        long offset = cursor + 1;
+        int slot = (int) (offset & mask);
+        if (offset - mask > first) {
+            // Readers of the overwritten message must see it is gone
+            first = offset - mask;
+        }
+        // Keep the append times ordered even if the clock goes backwards
+        lastAppendTime = Math.max(lastAppendTime, time);
+        appendTimes.set(slot, lastAppendTime);
+        messages.set(slot, message);
+        cursor = offset;
+        return offset;
+    }
+
+    @Override
+    public void startAt(long offset) {
+        if (offset <= cursor) {
+            throw new IllegalArgumentException(format("Offset %d is not after the last offset %d", offset, cursor));
+        }
+        evict(cursor + 1);
+        first = offset;
+        cursor = offset - 1;
+    }
+
+    /**
+     * Move the first offset before releasing the messages, so that their readers see they are gone.
+     */
+    @Override
+    public void evict(long offset) {
+        long from = first;
+        long to = Math.min(offset, cursor + 1);
+        if (to <= from) {
+            return;
+        }
+        first = to;
+        for (long evicted = from; evicted < to; evicted++) {
+            messages.set((int) (evicted & mask), null);
+        }
+    }
+
+    @Override
+    public long getFirstOffset() {
+        return first;
+    }
+
+    @Override
+    public long getLastOffset() {
+        return cursor;
+    }
+
+    @Override
+    public long getNextOffset(long offset) {
+        return Math.max(offset, first);
+    }
+
+    @Override
+    public T get(long offset) {
+        if (offset > cursor || offset < 0) {
+            return null;
+        }
+        T message = messages.get((int) (offset & mask));
+        return offset >= first ? message : null;
+    }
+
+    /**
+     * The time is read before checking that the message was not overwritten meanwhile.
+     */
+    @Override
+    public long getAppendTime(long offset) {
+        if (offset > cursor || offset < 0) {
+            return -1;
+        }
+        long time = appendTimes.get((int) (offset & mask));
+        return offset >= first ? time : -1;
+    }
+
+    /**
+     * Binary search over the append times.
+     */
+    @Override
+    public long getOffsetAt(long time) {
+        long low = getFirstOffset();
+        long high = getLastOffset() + 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long appendTime = appendTimes.get((int) (mid & mask));
+            // Overwritten messages are older than the remaining ones
+            if (mid < first || appendTime < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.aries.events.api.Message;
+import org.apache.aries.events.impl.MessageCodec;
+
+/**
+ * Snapshot of the messages of the topics in a local file, restored on activation
+ * with their offsets and send times so that the positions remain valid across
+ * restarts. A snapshot is written to a temporary file replacing the previous
+ * one once complete, while the topics are sent to: the messages sent meanwhile
+ * are left for the next snapshot. The checksum is verified before restoring any
+ * message.
+ * <p>
+ * The file starts with a magic number and the format version, followed by tagged
+ * records, and ends with the CRC32 of the preceding bytes:
+ * <pre>
+ * TOPIC   name:UTF first:long next:long    topic whose messages follow, from the first offset
+ * MESSAGE time:long length:int encoded     message at the next offset, encoded by {@link MessageCodec}
+ * OFFSET  offset:long                      offset of the next message, after messages overwritten meanwhile
+ * END     crc:long
+ * </pre>
+ */
+class Snapshot {
+    static final int MAGIC = 0x41455653;
+    static final int VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte TOPIC = 1;
+    private static final byte MESSAGE = 2;
+    private static final byte OFFSET = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final MessageCodec codec = new MessageCodec();
+
+    Snapshot(Path file) {
+        this.file = file;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param topics to snapshot by name
+     * @throws IOException if the snapshot could not be written, the previous snapshot is kept
+     */
+    synchronized void write(Map<String, Topic> topics) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, Topic> topic : topics.entrySet()) {
+                writeTopic(out, topic.getKey(), topic.getValue().getJournal());
+            }
+            out.writeByte(END);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private void writeTopic(DataOutputStream out, String name, Journal<Message> journal) throws IOException {
+        long next = journal.getLastOffset() + 1;
+        long offset = journal.getFirstOffset();
+        out.writeByte(TOPIC);
+        out.writeUTF(name);
+        out.writeLong(offset);
+        out.writeLong(next);
+        long expected = offset;
+        while (offset < next) {
+            // The time is read last, it is only valid if the message was not overwritten meanwhile
+            Message message = journal.get(offset);
+            long time = journal.getAppendTime(offset);
+            if (message == null || time < 0) {
+                offset = journal.getNextOffset(offset + 1);
+                continue;
+            }
+            if (offset != expected) {
+                out.writeByte(OFFSET);
+                out.writeLong(offset);
+            }
+            ByteBuffer encoded = codec.encode(message);
+            out.writeByte(MESSAGE);
+            out.writeLong(time);
+            out.writeInt(encoded.remaining());
+            out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+            expected = ++offset;
+        }
+    }
+
+    /**
+     * Verify the checksum of the whole snapshot, then restore it.
+     *
+     * @param topics to restore the messages to, by name
+     * @return the number of messages restored, {@code 0} if there is no snapshot
+     * @throws IOException if the snapshot could not be read or is corrupted
+     */
+    synchronized long restore(Function<String, Topic> topics) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long size = Files.size(file);
+        verify(size);
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            DataInputStream in = new DataInputStream(counting);
+            if (in.readInt() != MAGIC) {
+                throw new IOException(format("%s is not a snapshot", file));
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(format("Unsupported version %d of snapshot %s", version, file));
+            }
+            Topic topic = null;
+            long offset = 0;
+            long next = 0;
+            long count = 0;
+            for (byte tag = in.readByte(); tag != END; tag = in.readByte()) {
+                if (tag == TOPIC) {
+                    if (topic != null) {
+                        topic.restoreNextOffset(next);
+                    }
+                    topic = topics.apply(in.readUTF());
+                    offset = in.readLong();
+                    next = in.readLong();
+                } else if (tag == MESSAGE && topic != null) {
+                    long time = in.readLong();
+                    int length = in.readInt();
+                    // Followed by at least the end tag and the checksum
+                    if (length < 0 || length > size - counting.getCount() - 1 - Long.BYTES) {
+                        throw new IOException(format("Corrupted snapshot %s", file));
+                    }
+                    byte[] encoded = new byte[length];
+                    in.readFully(encoded);
+                    topic.restore(offset++, time, MessageCodec.decode(ByteBuffer.wrap(encoded)));
+                    count++;
+                } else if (tag == OFFSET && topic != null) {
+                    offset = in.readLong();
+                } else {
+                    throw new IOException(format("Corrupted snapshot %s", file));
+                }
+            }
+            if (topic != null) {
+                topic.restoreNextOffset(next);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @param size of the snapshot file
+     * @throws IOException if the checksum of the snapshot does not match its content
+     */
+    private void verify(long size) throws IOException {
+        if (size < 2 * Integer.BYTES + 1 + Long.BYTES) {
+            throw new IOException(format("Corrupted snapshot %s", file));
+        }
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (long remaining = size - Long.BYTES; remaining > 0; ) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException(format("Corrupted snapshot %s", file));
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException(format("Corrupted snapshot %s", file));
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read, to bound the lengths read from the snapshot by the bytes remaining.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
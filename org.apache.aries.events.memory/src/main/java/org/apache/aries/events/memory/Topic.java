@@ -17,46 +17,296 @@
  */
 package org.apache.aries.events.memory;
 
-import java.util.Map.Entry;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.function.Consumer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Position;
-import org.apache.aries.events.api.Received;
 import org.apache.aries.events.api.Seek;
 import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.PollingSubscription;
+import org.apache.aries.events.impl.PollingSubscriptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 class Topic {
+    /**
+     * Number of messages evicted at a time while holding the write lock.
+     */
+    static final int EVICTION_CHUNK = 1024;
+
+    private static final long NOT_BLOCKED = Long.MIN_VALUE;
+
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     private final String topicName;
     private final Journal<Message> journal;
+    private final Retention retention;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final long maxLag;
+    private final long blockTimeoutNanos;
+    private final SubscriptionDispatcher dispatcher;
+
+    /**
+     * Serializes the appends to the journal, never held by the subscriptions.
+     */
+    private final Object writeLock = new Object();
+
+    private final PollingSubscriptions subscriptions;
 
-    public Topic(String topicName, int keepAtLeast) {
+    /**
+     * Lower bound of the offsets consumed by the subscriptions, only accessed by the writer.
+     */
+    private long slowest;
+
+    /**
+     * Set when a subscription is added, which may be slower than the slowest offset cached.
+     */
+    private volatile boolean subscribed;
+
+    /**
+     * Senders blocked by a slow subscription, unparked when a subscription progresses.
+     */
+    private final Set<Thread> blockedSenders = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param topicName name of the topic
+     * @param journal to append the messages to
+     * @param retention to evict the messages with or {@code null} if the journal only overwrites them
+     * @param slowConsumerPolicy applied to the subscriptions lagging behind by more than the maximum lag
+     * @param maxLag number of messages a subscription may lag behind or {@code 0} if unbounded
+     * @param blockTimeoutMs maximum time a sender is blocked by the {@link SlowConsumerPolicy#block} policy
+     * @param dispatcher to run the subscriptions with
+     */
+    public Topic(String topicName, Journal<Message> journal, Retention retention,
+                 SlowConsumerPolicy slowConsumerPolicy, long maxLag, long blockTimeoutMs,
+                 SubscriptionDispatcher dispatcher) {
         this.topicName = topicName;
-        this.journal = new Journal<>(keepAtLeast);
+        this.journal = journal;
+        this.retention = retention;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.maxLag = maxLag;
+        this.blockTimeoutNanos = MILLISECONDS.toNanos(blockTimeoutMs);
+        this.dispatcher = dispatcher;
+        this.subscriptions = new PollingSubscriptions(topicName, journal);
     }
 
-    public synchronized Position send(Message message) {
-        long offset = this.journal.append(message);
-        notifyAll();
+    public Position send(Message message) {
+        long offset;
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (true) {
+            long required;
+            synchronized (writeLock) {
+                required = handleSlowConsumers(1, deadline);
+                if (required == NOT_BLOCKED) {
+                    offset = this.journal.append(message);
+                    break;
+                }
+            }
+            awaitSlowConsumers(required, deadline);
+        }
+        subscriptions.unparkWaiting();
         return new MemoryPosition(offset);
     }
 
-    public Subscription subscribe(SubscribeRequest request) {
-        long startOffset = getStartOffset((MemoryPosition) request.getPosition(), request.getSeek());
+    public List<Position> send(List<Message> messages) {
+        List<Position> positions = new ArrayList<>(messages.size());
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (true) {
+            long required;
+            synchronized (writeLock) {
+                required = handleSlowConsumers(messages.size(), deadline);
+                if (required == NOT_BLOCKED) {
+                    for (Message message : messages) {
+                        positions.add(new MemoryPosition(this.journal.append(message)));
+                    }
+                    break;
+                }
+            }
+            awaitSlowConsumers(required, deadline);
+        }
+        subscriptions.unparkWaiting();
+        return positions;
+    }
+
+    /**
+     * Restore a message from a snapshot, at its original offset and time.
+     * The messages are restored in order, a gap in the offsets restarts
+     * the journal at the offset of the message.
+     *
+     * @param offset of the message
+     * @param time the message was sent at, in milliseconds since the epoch
+     * @param message to restore
+     */
+    public void restore(long offset, long time, Message message) {
+        synchronized (writeLock) {
+            if (offset != journal.getLastOffset() + 1) {
+                journal.startAt(offset);
+            }
+            journal.append(message, time);
+        }
+    }
+
+    /**
+     * Restore the offset of the next message sent, after the messages restored.
+     *
+     * @param offset of the next message
+     */
+    public void restoreNextOffset(long offset) {
+        synchronized (writeLock) {
+            if (offset > journal.getLastOffset() + 1) {
+                journal.startAt(offset);
+            }
+        }
+    }
+
+    Journal<Message> getJournal() {
+        return journal;
+    }
+
+    /**
+     * Evict the messages beyond the retention, a chunk at a time so that
+     * the senders never wait for long.
+     *
+     * @param now current time in milliseconds since the epoch
+     */
+    public void evict(long now) {
+        if (retention == null) {
+            return;
+        }
+        long evictBefore = retention.evictBefore(journal, slowestConsumed(), now);
+        long first = journal.getFirstOffset();
+        while (first < evictBefore) {
+            synchronized (writeLock) {
+                journal.evict(Math.min(evictBefore, first + EVICTION_CHUNK));
+            }
+            long evicted = first;
+            first = journal.getFirstOffset();
+            if (first == evicted) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Apply the slow consumer policy to the subscriptions that would lag behind
+     * by more than the maximum lag once the messages are appended. Invoked by the
+     * writer, the slowest offset cached avoids looking up the subscriptions as
+     * long as none of them may lag behind that much. Invoked while holding the
+     * write lock, which the {@link SlowConsumerPolicy#block} policy requires to
+     * release while waiting so that the other senders are not held up meanwhile.
+     *
+     * @param count of messages about to be appended
+     * @param deadline until which the sender may be blocked, as per {@link System#nanoTime()}
+     * @return the offset the slowest subscription must have consumed before appending
+     *         or {@link #NOT_BLOCKED} if the messages can be appended
+     */
+    private long handleSlowConsumers(int count, long deadline) {
+        if (maxLag <= 0 || slowConsumerPolicy == SlowConsumerPolicy.drop) {
+            return NOT_BLOCKED;
+        }
+        long required = journal.getLastOffset() + 1 + count - maxLag;
+        if (subscribed) {
+            subscribed = false;
+            slowest = Long.MIN_VALUE;
+        }
+        if (required <= slowest) {
+            return NOT_BLOCKED;
+        }
+        slowest = slowestConsumed();
+        if (required <= slowest) {
+            return NOT_BLOCKED;
+        }
+        if (slowConsumerPolicy == SlowConsumerPolicy.disconnect) {
+            for (PollingSubscription subscription : subscriptions.getSubscriptions()) {
+                if (subscription.getConsumedOffset() < required) {
+                    log.error(format("Disconnecting %s lagging behind by more than %d messages", subscription, maxLag));
+                    subscription.close();
+                }
+            }
+        } else if (deadline - System.nanoTime() > 0) {
+            return required;
+        } else {
+            log.warn(format("Sending to topic %s despite a subscription lagging behind by more than %d messages", topicName, maxLag));
+        }
+        slowest = slowestConsumed();
+        return NOT_BLOCKED;
+    }
+
+    /**
+     * Wait without holding the write lock, the sender then checks the subscriptions again.
+     *
+     * @param required offset the slowest subscription must have consumed
+     * @param deadline until which the sender may be blocked, as per {@link System#nanoTime()}
+     */
+    private void awaitSlowConsumers(long required, long deadline) {
+        Thread sender = Thread.currentThread();
+        blockedSenders.add(sender);
+        try {
+            // Subscriptions progressing after the check unpark the sender
+            while (slowestConsumed() < required) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            blockedSenders.remove(sender);
+        }
+    }
+
+    private long slowestConsumed() {
+        long slowestConsumed = Long.MAX_VALUE;
+        for (PollingSubscription subscription : subscriptions.getSubscriptions()) {
+            slowestConsumed = Math.min(slowestConsumed, subscription.getConsumedOffset());
+        }
+        return slowestConsumed;
+    }
+
+    private void unblockSenders() {
+        for (Thread sender : blockedSenders) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * @param request to subscribe
+     * @param start position overriding the position of the request or {@code null}
+     * @param checkpointer to report the positions reached to or {@code null} if the subscription is not named
+     * @return the subscription
+     */
+    public Subscription subscribe(SubscribeRequest request, Position start, Checkpointer checkpointer) {
+        long startOffset = getStartOffset((MemoryPosition) start, request.getStartTime(), request.getSeek());
         log.debug("Consuming from " + startOffset);
-        return new TopicSubscription(startOffset, request.getCallback());
+        TopicSubscription subscription = new TopicSubscription(startOffset, request, checkpointer);
+        subscription.start();
+        return subscription;
     }
 
-    private long getStartOffset(MemoryPosition position, Seek seek) {
+    public Position earliestPosition() {
+        return new MemoryPosition(this.journal.getFirstOffset());
+    }
+
+    public Position latestPosition() {
+        return new MemoryPosition(this.journal.getLastOffset() + 1);
+    }
+
+    private long getStartOffset(MemoryPosition position, Instant startTime, Seek seek) {
         if (position != null) {
             return position.getOffset();
+        } else if (startTime != null) {
+            return this.journal.getOffsetAt(startTime.toEpochMilli());
         } else {
             if (seek == Seek.earliest) {
                 return this.journal.getFirstOffset();
@@ -66,59 +316,31 @@ class Topic {
         }
     }
 
-    private synchronized Entry<Long, Message> waitNext(long currentOffset) throws InterruptedException {
-        Entry<Long, Message> entry = journal.getNext(currentOffset);
-        if (entry != null) {
-            return entry;
-        }
-        log.debug("Waiting for next message");
-        wait();
-        return journal.getNext(currentOffset);
-    }
-
-    class TopicSubscription implements Subscription {
-        private Consumer<Received> callback;
-        private ExecutorService executor;
-        private long currentOffset;
+    class TopicSubscription extends PollingSubscription {
 
-        TopicSubscription(long startOffset, Consumer<Received> callback) {
-            this.currentOffset = startOffset;
-            this.callback = callback;
-            String name = "Poller for " + topicName;
-            this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
-            this.executor.execute(this::poll);
+        TopicSubscription(long startOffset, SubscribeRequest request, Checkpointer checkpointer) {
+            super(subscriptions, startOffset, request, checkpointer, dispatcher);
         }
 
-        private void poll() {
-            try {
-                while (true) {
-                    Entry<Long, Message> entry = waitNext(currentOffset);
-                    if (entry != null) {
-                        handleMessage(entry);
-                    }
-                }
-            } catch (InterruptedException e) {
-                log.debug("Poller thread for consumer on topic " + topicName + " stopped.");
-            }
+        @Override
+        protected Position position(long offset) {
+            return new MemoryPosition(offset);
         }
 
-        private void handleMessage(Entry<Long, Message> entry) {
-            long offset = entry.getKey();
-            try {
-                MemoryPosition position = new MemoryPosition(this.currentOffset);
-                Received received = new Received(position, entry.getValue());
-                callback.accept(received);
-            } catch (Exception e) {
-                log.warn(e.getMessage(), e);
-            }
-            this.currentOffset = offset + 1;
+        @Override
+        protected long offset(Position position) {
+            return ((MemoryPosition) position).getOffset();
         }
 
         @Override
-        public void close() {
-            executor.shutdown();
-            executor.shutdownNow();
+        protected void onStart() {
+            // Before the poller starts, so that the writer looks up the subscription before it lags behind
+            subscribed = true;
         }
 
+        @Override
+        protected void onConsumed() {
+            unblockSenders();
+        }
     }
 }
@@ -1,40 +1,68 @@
 package org.apache.aries.events.memory;
 
 import static org.apache.aries.events.api.SubscribeRequestBuilder.to;
+import static org.apache.aries.events.api.SubscribeRequestBuilder.toBatches;
+import static org.apache.aries.events.api.SubscribeRequestBuilder.toPublisher;
 import static org.awaitility.Awaitility.await;
+import static java.util.Collections.singletonMap;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
+import org.apache.aries.events.api.CheckpointStore;
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Messaging;
 import org.apache.aries.events.api.Position;
+import org.apache.aries.events.api.PropertyFilter;
 import org.apache.aries.events.api.Received;
 import org.apache.aries.events.api.Seek;
 import org.apache.aries.events.api.SubscribeRequestBuilder;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.api.SubscriptionStats;
+import org.apache.aries.events.api.WaitStrategy;
+import org.apache.aries.events.impl.FileCheckpointStore;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.reactivestreams.Subscriber;
 
 public class MessagingTest {
     
@@ -49,6 +77,9 @@ public class MessagingTest {
     private Set<Subscription> subscriptions = new HashSet<>();
 
     private Messaging messaging;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
     
     @Before
     public void before() {
@@ -81,6 +112,491 @@ public class MessagingTest {
         assertThat(received.getMessage().getProperties().get("my"), equalTo("testvalue"));
     }
     
+    @Test
+    public void testSendAsync() throws Exception {
+        send("test", "testcontent");
+        Message message = new Message(toBytes("testcontent2"), new HashMap<>());
+        Position position = messaging.sendAsync("test", message).toCompletableFuture().get();
+        assertEquals(0, position.compareTo(new MemoryPosition(1)));
+        subscribe(to("test", callback).startAt(position));
+        assertMessages(1);
+        assertThat(messageContents(), contains("testcontent2"));
+    }
+
+    @Test
+    public void testSendBatch() {
+        send("test", "testcontent");
+        subscribe(to("test", callback).seek(Seek.earliest));
+        List<Message> batch = Arrays.asList(message("testcontent2"), message("testcontent3"));
+        List<Position> positions = messaging.send("test", batch);
+        assertThat(positions.size(), equalTo(2));
+        assertEquals(0, positions.get(0).compareTo(new MemoryPosition(1)));
+        assertEquals(0, positions.get(1).compareTo(new MemoryPosition(2)));
+        assertMessages(3);
+        assertThat(getContent(messageCaptor.getValue()), equalTo("testcontent3"));
+    }
+
+    @Test
+    public void testBatches() {
+        List<List<Received>> batches = new CopyOnWriteArrayList<>();
+        messaging.send("test", Arrays.asList(message("testcontent"), message("testcontent2"), message("testcontent3")));
+        subscribe(toBatches("test", batches::add).seek(Seek.earliest).maxBatchSize(2));
+        await().until(batches::size, equalTo(2));
+        assertThat(batches.get(0).size(), equalTo(2));
+        assertThat(batches.get(1).size(), equalTo(1));
+        assertEquals(0, batches.get(1).get(0).getPosition().compareTo(new MemoryPosition(2)));
+    }
+
+    @Test
+    public void testBatchLinger() {
+        List<List<Received>> batches = new CopyOnWriteArrayList<>();
+        subscribe(toBatches("test", batches::add).maxBatchSize(10).maxLinger(Duration.ofSeconds(1)));
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        await().until(batches::size, equalTo(1));
+        List<String> contents = batches.get(0).stream().map(this::getContent).collect(Collectors.toList());
+        assertThat(contents, contains("testcontent", "testcontent2"));
+    }
+
+    @Test
+    public void testOffHeap() {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(10000);
+        when(config.topicRetentionBytes()).thenReturn(new String[] { "test=120" });
+        InMemoryMessaging offHeap = new InMemoryMessaging();
+        offHeap.activate(config);
+        messaging = offHeap;
+        // Messages of 55 bytes, two per segment of 120 bytes
+        for (int i = 0; i < 6; i++) {
+            send("test", "testcontent" + i);
+        }
+        assertEquals(0, messaging.earliestPosition("test").compareTo(new MemoryPosition(2)));
+        subscribe(to("test", callback).seek(Seek.earliest));
+        assertMessages(4);
+        assertThat(messageContents(), contains("testcontent2", "testcontent3", "testcontent4", "testcontent5"));
+        assertThat(messageCaptor.getValue().getMessage().getProperties().get("my"), equalTo("testvalue"));
+    }
+
+    @Test
+    public void testMaxAge() {
+        messaging = retention(2, "test=maxAgeMs:100,maxMessages:1000");
+        for (int i = 0; i < 10; i++) {
+            send("test", "testcontent" + i);
+        }
+        assertEquals(0, messaging.earliestPosition("test").compareTo(new MemoryPosition(0)));
+        await().until(() -> messaging.earliestPosition("test").positionToString(), equalTo("10"));
+        subscribe(to("test", callback).seek(Seek.earliest));
+        send("test", "testcontent10");
+        assertMessages(1);
+        assertThat(messageContents(), contains("testcontent10"));
+    }
+
+    @Test
+    public void testRetainUnconsumed() throws InterruptedException {
+        messaging = retention(2, "test=retainUnconsumed:true,maxMessages:1000");
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> contents = new CopyOnWriteArrayList<>();
+        subscribe(to("test", rec -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            contents.add(getContent(rec));
+        }));
+        for (int i = 0; i < 10; i++) {
+            send("test", "testcontent" + i);
+        }
+        Thread.sleep(3 * InMemoryMessaging.EVICTION_INTERVAL_MS);
+        assertEquals("0", messaging.earliestPosition("test").positionToString());
+        blocked.countDown();
+        await().until(contents::size, equalTo(10));
+        // Once consumed, only the last two messages are retained
+        await().until(() -> messaging.earliestPosition("test").positionToString(), equalTo("8"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTopicRetentionIllegalArgument() {
+        new Retention(10, 0, 0, false).with("maxAgeMs=100");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTopicRetentionBytesIllegalArgument() {
+        InMemoryMessaging.topicRetentionBytes(new String[] { "test" });
+    }
+
+    @Test
+    public void testSlowConsumerDrop() {
+        messaging = retention(4);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> contents = new CopyOnWriteArrayList<>();
+        CountDownLatch received = new CountDownLatch(1);
+        List<Position> gaps = new CopyOnWriteArrayList<>();
+        subscribe(to("test", rec -> {
+            received.countDown();
+            awaitQuietly(blocked);
+            contents.add(getContent(rec));
+        }).onGap((from, to) -> gaps.add(to)));
+        send("test", "testcontent0");
+        awaitQuietly(received);
+        for (int i = 1; i < 10; i++) {
+            send("test", "testcontent" + i);
+        }
+        blocked.countDown();
+        await().until(() -> contents.contains("testcontent9"));
+        assertEquals(1, gaps.size());
+        assertEquals("6", gaps.get(0).positionToString());
+        assertThat(contents, contains("testcontent0", "testcontent6", "testcontent7", "testcontent8", "testcontent9"));
+    }
+
+    @Test
+    public void testSlowConsumerBlock() throws InterruptedException {
+        messaging = slowConsumers(SlowConsumerPolicy.block, 2, 10000);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> contents = new CopyOnWriteArrayList<>();
+        subscribe(to("test", rec -> {
+            awaitQuietly(blocked);
+            contents.add(getContent(rec));
+        }));
+        AtomicLong sent = new AtomicLong();
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        sender.execute(() -> {
+            for (int i = 0; i < 5; i++) {
+                send("test", "testcontent" + i);
+                sent.incrementAndGet();
+            }
+        });
+        // The sender blocks as long as the subscription lags behind by two messages
+        Thread.sleep(200);
+        assertEquals(2, sent.get());
+        blocked.countDown();
+        await().until(sent::get, equalTo(5L));
+        await().until(contents::size, equalTo(5));
+        sender.shutdown();
+    }
+
+    @Test
+    public void testSlowConsumerDisconnect() throws InterruptedException {
+        messaging = slowConsumers(SlowConsumerPolicy.disconnect, 2, 0);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch received = new CountDownLatch(1);
+        List<String> contents = new CopyOnWriteArrayList<>();
+        subscribe(to("test", rec -> {
+            received.countDown();
+            awaitQuietly(blocked);
+            contents.add(getContent(rec));
+        }));
+        send("test", "testcontent0");
+        awaitQuietly(received);
+        for (int i = 1; i < 5; i++) {
+            send("test", "testcontent" + i);
+        }
+        blocked.countDown();
+        send("test", "testcontent5");
+        Thread.sleep(200);
+        assertThat(contents, contains("testcontent0"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTopicSlowConsumerPoliciesIllegalArgument() {
+        InMemoryMessaging.topicSlowConsumerPolicies(new String[] { "test=wait" });
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSlowConsumerBlockOffHeap() {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(10000);
+        when(config.slowConsumerPolicy()).thenReturn(SlowConsumerPolicy.block);
+        when(config.retentionBytes()).thenReturn(1024L);
+        new InMemoryMessaging().activate(config);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTopicSlowConsumerDisconnectOffHeap() {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(10000);
+        when(config.topicSlowConsumerPolicies()).thenReturn(new String[] { "test=disconnect" });
+        when(config.topicRetentionBytes()).thenReturn(new String[] { "test=1024" });
+        new InMemoryMessaging().activate(config);
+    }
+
+    @Test
+    public void testSlowConsumerBlockOnHeap() {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(10000);
+        when(config.slowConsumerPolicy()).thenReturn(SlowConsumerPolicy.block);
+        when(config.topicSlowConsumerPolicies()).thenReturn(new String[] { "telemetry=drop" });
+        when(config.topicRetentionBytes()).thenReturn(new String[] { "telemetry=1024" });
+        InMemoryMessaging onHeap = new InMemoryMessaging();
+        onHeap.activate(config);
+        onHeap.deactivate();
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        String file = tmp.getRoot().toPath().resolve("snapshot").toString();
+        InMemoryMessaging snapshotted = snapshot(file, 0);
+        messaging = snapshotted;
+        // Capacity of 4 messages, the first two are overwritten
+        for (int i = 0; i < 6; i++) {
+            send("test", "testcontent" + i);
+        }
+        send("test2", "testcontent");
+        snapshotted.deactivate();
+        messaging = snapshot(file, 0);
+        assertEquals("2", messaging.earliestPosition("test").positionToString());
+        assertEquals("6", messaging.latestPosition("test").positionToString());
+        assertEquals("1", messaging.latestPosition("test2").positionToString());
+        subscribe(to("test", callback).seek(Seek.earliest));
+        assertMessages(4);
+        assertThat(messageContents(), contains("testcontent2", "testcontent3", "testcontent4", "testcontent5"));
+        assertThat(messageCaptor.getValue().getMessage().getProperties().get("my"), equalTo("testvalue"));
+        assertEquals("6", messaging.send("test", Arrays.asList(message("testcontent6"))).get(0).positionToString());
+    }
+
+    @Test
+    public void testSnapshotInterval() {
+        String file = tmp.getRoot().toPath().resolve("snapshot").toString();
+        InMemoryMessaging snapshotted = snapshot(file, 50);
+        messaging = snapshotted;
+        send("test", "testcontent");
+        // Restored while the snapshotted messaging is still active
+        await().until(() -> snapshot(file, 0).latestPosition("test").positionToString(), equalTo("1"));
+        snapshotted.deactivate();
+    }
+
+    @Test
+    public void testCorruptedSnapshot() throws IOException {
+        Path file = tmp.newFile("snapshot").toPath();
+        Files.write(file, toBytes("corrupted"));
+        messaging = snapshot(file.toString(), 0);
+        assertEquals("0", messaging.latestPosition("test").positionToString());
+        send("test", "testcontent");
+        subscribe(to("test", callback).seek(Seek.earliest));
+        assertMessages(1);
+    }
+
+    @Test
+    public void testCorruptedSnapshotLength() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve("snapshot");
+        InMemoryMessaging snapshotted = snapshot(file.toString(), 0);
+        snapshotted.send("test", message("testcontent"));
+        snapshotted.deactivate();
+        byte[] bytes = Files.readAllBytes(file);
+        // Magic, version, topic tag, name, first and next offsets, message tag and time
+        int length = 4 + 4 + 1 + 2 + "test".length() + 8 + 8 + 1 + 8;
+        assertEquals(2, bytes[length - 9]);
+        ByteBuffer.wrap(bytes).putInt(length, Integer.MAX_VALUE);
+
+        // The checksum does not match
+        Files.write(file, bytes);
+        assertEquals("0", snapshot(file.toString(), 0).latestPosition("test").positionToString());
+
+        // The checksum matches, the length exceeds the file
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer.wrap(bytes).putLong(bytes.length - 8, crc.getValue());
+        Files.write(file, bytes);
+        messaging = snapshot(file.toString(), 0);
+        assertEquals("0", messaging.latestPosition("test").positionToString());
+    }
+
+    @Test
+    public void testWaitStrategies() {
+        Map<WaitStrategy, List<String>> received = new HashMap<>();
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            List<String> contents = new CopyOnWriteArrayList<>();
+            received.put(strategy, contents);
+            subscribe(to("test", rec -> contents.add(getContent(rec))).waitStrategy(strategy));
+        }
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            await().until(() -> received.get(strategy), contains("testcontent", "testcontent2"));
+        }
+    }
+
+    @Test
+    public void testWaitStrategyBatchLinger() {
+        List<List<Received>> batches = new CopyOnWriteArrayList<>();
+        subscribe(toBatches("test", batches::add).maxBatchSize(10).maxLinger(Duration.ofMillis(200))
+                .waitStrategy(WaitStrategy.spinning));
+        send("test", "testcontent");
+        await().until(batches::size, equalTo(1));
+        send("test", "testcontent2");
+        await().until(batches::size, equalTo(2));
+        assertThat(getContent(batches.get(1).get(0)), equalTo("testcontent2"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        toBatches("test", batches -> {}).maxBatchSize(0);
+    }
+
+    @Test
+    public void testSendWrapped() {
+        subscribe(to("test", callback).seek(Seek.earliest));
+        ByteBuffer payload = ByteBuffer.wrap(toBytes("xxtestcontent"));
+        payload.position(2);
+        messaging.send("test", Message.wrap(payload, new HashMap<>()));
+        assertMessages(1);
+        Message message = messageCaptor.getValue().getMessage();
+        assertThat(message.payloadBuffer(), equalTo(ByteBuffer.wrap(toBytes("testcontent"))));
+        assertThat(message.payloadBuffer().isReadOnly(), equalTo(true));
+        assertThat(message.getPayload(), equalTo(toBytes("testcontent")));
+    }
+
+    @Test
+    public void testPublisher() throws InterruptedException {
+        List<String> contents = new CopyOnWriteArrayList<>();
+        AtomicReference<org.reactivestreams.Subscription> subscription = new AtomicReference<>();
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        send("test", "testcontent3");
+        messaging.publisher(toPublisher("test").seek(Seek.earliest)).subscribe(new Subscriber<Received>() {
+            @Override
+            public void onSubscribe(org.reactivestreams.Subscription s) {
+                subscription.set(s);
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(Received received) {
+                contents.add(getContent(received));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        await().until(contents::size, equalTo(1));
+        Thread.sleep(100);
+        assertThat(contents, contains("testcontent"));
+        subscription.get().request(2);
+        await().until(contents::size, equalTo(3));
+        assertThat(contents, contains("testcontent", "testcontent2", "testcontent3"));
+        subscription.get().cancel();
+    }
+
+    @Test
+    public void testPublisherFilterAndStartTime() throws InterruptedException {
+        List<String> contents = new CopyOnWriteArrayList<>();
+        send("test", "testcontent");
+        Thread.sleep(5);
+        Instant time = Instant.now();
+        messaging.send("test", new Message(toBytes("testcontent2"), singletonMap("tenant", "a")));
+        messaging.send("test", new Message(toBytes("testcontent3"), singletonMap("tenant", "b")));
+        messaging.send("test", new Message(toBytes("testcontent4"), singletonMap("tenant", "a")));
+        messaging.publisher(toPublisher("test").startAt(time).filter(PropertyFilter.equalTo("tenant", "a")))
+                .subscribe(new Subscriber<Received>() {
+            @Override
+            public void onSubscribe(org.reactivestreams.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Received received) {
+                contents.add(getContent(received));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        await().until(() -> contents, contains("testcontent2", "testcontent4"));
+    }
+
+    @Test
+    public void testDispatcher() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            messaging = new InMemoryMessaging(10000, SubscriptionDispatcher.executor(executor));
+            Subscription subscription = messaging.subscribe(to("test", callback));
+            send("test", "testcontent");
+            assertMessages(1);
+            subscription.close();
+            subscribe(to("test", callback));
+            send("test", "testcontent2");
+            assertMessages(2);
+            assertThat(getContent(messageCaptor.getValue()), equalTo("testcontent2"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHeadTailPositions() {
+        assertThat(messaging.earliestPosition("test").positionToString(), equalTo("0"));
+        assertThat(messaging.latestPosition("test").positionToString(), equalTo("0"));
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        assertThat(messaging.earliestPosition("test").positionToString(), equalTo("0"));
+        assertThat(messaging.latestPosition("test").positionToString(), equalTo("2"));
+    }
+
+    @Test
+    public void testStats() {
+        send("test", "testcontent");
+        CountDownLatch blocked = new CountDownLatch(1);
+        Subscription subscription = messaging.subscribe(to("test", received -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).seek(Seek.earliest));
+        subscriptions.add(subscription);
+        send("test", "testcontent2");
+        SubscriptionStats stats = subscription.stats();
+        assertThat(stats.getPosition().positionToString(), equalTo("0"));
+        assertThat(stats.getLag(), equalTo(2L));
+        assertThat(stats.getDelivered(), equalTo(0L));
+        blocked.countDown();
+        await().until(() -> subscription.stats().getLag(), equalTo(0L));
+        assertThat(subscription.stats().getDelivered(), equalTo(2L));
+        assertThat(subscription.stats().getPosition().compareTo(messaging.latestPosition("test")), equalTo(0));
+    }
+
+    @Test
+    public void testFilter() {
+        subscribe(to("test", callback).filter(PropertyFilter.in("tenant", "a", "b")));
+        messaging.send("test", new Message(toBytes("testcontent"), singletonMap("tenant", "c")));
+        messaging.send("test", new Message(toBytes("testcontent2"), singletonMap("tenant", "b")));
+        send("test", "testcontent3");
+        messaging.send("test", new Message(toBytes("testcontent4"), singletonMap("tenant", "a")));
+        assertMessages(2);
+        assertThat(messageContents(), contains("testcontent2", "testcontent4"));
+        assertEquals(0, messageCaptor.getValue().getPosition().compareTo(new MemoryPosition(3)));
+    }
+
+    @Test
+    public void testFilterBatches() {
+        List<List<Received>> batches = new CopyOnWriteArrayList<>();
+        for (int c = 0; c < 5; c++) {
+            send("test", "testcontent" + c);
+        }
+        subscribe(toBatches("test", batches::add)
+                .filter(PropertyFilter.equalTo("my", "testvalue"))
+                .filter(PropertyFilter.startsWith("other", "x"))
+                .seek(Seek.earliest));
+        messaging.send("test", new Message(toBytes("testcontent5"), singletonMap("other", "xyz")));
+        Map<String, String> props = new HashMap<>();
+        props.put("my", "testvalue");
+        props.put("other", "xyz");
+        messaging.send("test", new Message(toBytes("testcontent6"), props));
+        await().until(batches::size, equalTo(1));
+        assertEquals(1, batches.get(0).size());
+        assertEquals(0, batches.get(0).get(0).getPosition().compareTo(new MemoryPosition(6)));
+    }
+
     @Test(expected=NullPointerException.class)
     public void testInvalidSubscribe() {
         subscribe(to("test", callback).seek(null));
@@ -139,6 +655,108 @@ public class MessagingTest {
         assertThat(messageContents(), contains("testcontent2"));
     }
     
+    @Test
+    public void testStartAtTime() throws InterruptedException {
+        send("test", "testcontent");
+        Thread.sleep(5);
+        Instant time = Instant.now();
+        send("test", "testcontent2");
+        send("test", "testcontent3");
+        subscribe(to("test", callback).startAt(time));
+        assertMessages(2);
+        assertThat(messageContents(), contains("testcontent2", "testcontent3"));
+    }
+
+    @Test
+    public void testStartAtFutureTime() {
+        send("test", "testcontent");
+        subscribe(to("test", callback).startAt(Instant.now().plusSeconds(60)).seek(Seek.earliest));
+        send("test", "testcontent2");
+        assertMessages(1);
+        assertThat(messageContents(), contains("testcontent2"));
+    }
+
+    @Test
+    public void testNamedSubscription() {
+        CheckpointStore store = new MemoryCheckpointStore();
+        messaging = new InMemoryMessaging(10000, null, store);
+        send("test", "testcontent");
+        SubscribeRequestBuilder request = to("test", callback).name("consumer").seek(Seek.earliest);
+        Subscription subscription = messaging.subscribe(request);
+        send("test", "testcontent2");
+        assertMessages(2);
+        subscription.close();
+        await().until(() -> store.load("test", "consumer"), equalTo("2"));
+        send("test", "testcontent3");
+        subscribe(request);
+        assertMessages(3);
+        assertThat(getContent(messageCaptor.getValue()), equalTo("testcontent3"));
+    }
+
+    @Test
+    public void testParallelDispatch() {
+        Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        subscribe(to("test", rec -> {
+            received.computeIfAbsent(rec.getMessage().getProperties().get("group"), group -> new CopyOnWriteArrayList<>())
+                    .add(Integer.valueOf(getContent(rec)));
+        }).parallelism(4).orderingKey("group").seek(Seek.earliest));
+        for (int c = 0; c < 100; c++) {
+            Map<String, String> props = new HashMap<>();
+            props.put("group", String.valueOf(c % 5));
+            messaging.send("test", new Message(toBytes(String.valueOf(c)), props));
+        }
+        await().until(() -> received.values().stream().mapToInt(List::size).sum(), equalTo(100));
+        for (List<Integer> group : received.values()) {
+            List<Integer> sorted = group.stream().sorted().collect(Collectors.toList());
+            assertThat(group, equalTo(sorted));
+        }
+        Subscription subscription = subscriptions.iterator().next();
+        await().until(() -> subscription.stats().getPosition().positionToString(), equalTo("100"));
+        assertThat(subscription.stats().getDelivered(), equalTo(100L));
+    }
+
+    @Test
+    public void testParallelSafePosition() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        Subscription subscription = messaging.subscribe(to("test", rec -> {
+            if ("a".equals(rec.getMessage().getKey())) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).parallelism(2).seek(Seek.earliest));
+        subscriptions.add(subscription);
+        Map<String, String> props = new HashMap<>();
+        // The keys are handed to distinct workers
+        messaging.send("test", new Message(toBytes("first"), props, "a"));
+        messaging.send("test", new Message(toBytes("second"), props, "b"));
+        await().until(() -> subscription.stats().getDelivered(), equalTo(1L));
+        assertThat(subscription.stats().getPosition().positionToString(), equalTo("0"));
+        blocked.countDown();
+        await().until(() -> subscription.stats().getPosition().positionToString(), equalTo("2"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParallelBatches() {
+        messaging.subscribe(toBatches("test", batch -> { }).parallelism(2));
+    }
+
+    @Test
+    public void testFileCheckpointStore() throws IOException {
+        CheckpointStore store = new FileCheckpointStore(tmp.newFolder().toPath());
+        messaging = new InMemoryMessaging(10000, null, store);
+        send("test", "testcontent");
+        send("test", "testcontent2");
+        Subscription subscription = messaging.subscribe(to("test", callback)
+                .name("consumer").checkpointEvery(1).seek(Seek.earliest));
+        assertMessages(2);
+        await().until(() -> store.load("test", "consumer"), equalTo("2"));
+        subscription.close();
+        assertThat(store.load("test", "other"), equalTo(null));
+    }
+
     @Test
     public void testMany() {
         AtomicLong count = new AtomicLong();
@@ -158,6 +776,44 @@ public class MessagingTest {
         verify(callback, timeout(1000).times(num)).accept(messageCaptor.capture());
     }
 
+    private InMemoryMessaging retention(int keepAtLeast, String... topicRetention) {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(keepAtLeast);
+        when(config.topicRetention()).thenReturn(topicRetention);
+        InMemoryMessaging messaging = new InMemoryMessaging();
+        messaging.activate(config);
+        return messaging;
+    }
+
+    private InMemoryMessaging slowConsumers(SlowConsumerPolicy policy, int maxLag, long blockTimeoutMs) {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(10000);
+        when(config.slowConsumerPolicy()).thenReturn(policy);
+        when(config.maxLag()).thenReturn(maxLag);
+        when(config.blockTimeoutMs()).thenReturn(blockTimeoutMs);
+        InMemoryMessaging messaging = new InMemoryMessaging();
+        messaging.activate(config);
+        return messaging;
+    }
+
+    private InMemoryMessaging snapshot(String file, long intervalMs) {
+        MemoryConfig config = mock(MemoryConfig.class);
+        when(config.keepAtLeast()).thenReturn(4);
+        when(config.snapshotFile()).thenReturn(file);
+        when(config.snapshotIntervalMs()).thenReturn(intervalMs);
+        InMemoryMessaging messaging = new InMemoryMessaging();
+        messaging.activate(config);
+        return messaging;
+    }
+
+    private void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void subscribe(SubscribeRequestBuilder request) {
         this.subscriptions.add(messaging.subscribe(request));
     }
@@ -172,10 +828,13 @@ public class MessagingTest {
     }
     
     private void send(String topic, String content) {
+        messaging.send(topic, message(content));
+    }
+
+    private Message message(String content) {
         Map<String, String> props = new HashMap<String, String>();
         props.put("my", "testvalue");
-        Message message = new Message(toBytes(content), props);
-        messaging.send(topic, message);
+        return new Message(toBytes(content), props);
     }
 
     private byte[] toBytes(String content) {
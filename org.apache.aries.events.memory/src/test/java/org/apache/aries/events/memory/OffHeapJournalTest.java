@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.aries.events.api.Message;
+import org.junit.Test;
+
+public class OffHeapJournalTest {
+
+    @Test
+    public void testEncoding() throws Exception {
+        Journal<Message> journal = new OffHeapJournal(1024);
+        Message message = new Message("testcontent".getBytes(UTF_8), singletonMap("my", "testvalue"), "key");
+        assertEquals(0, journal.append(message));
+        assertEquals(1, journal.append(new Message(new byte[0], emptyMap())));
+        assertEquals(message, journal.get(0));
+        assertEquals("key", journal.get(0).getKey());
+        assertEquals(new Message(new byte[0], emptyMap()), journal.get(1));
+        assertNull(journal.get(1).getKey());
+        assertNull(journal.get(2));
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        // Each message takes 30 bytes, two per segment
+        Journal<Message> journal = new OffHeapJournal(60);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, journal.append(message(i)));
+        }
+        // The oldest segment is cleared for the messages 8 and 9
+        assertEquals(6, journal.getFirstOffset());
+        assertEquals(9, journal.getLastOffset());
+        assertNull(journal.get(5));
+        assertEquals(message(6), journal.get(6));
+        assertEquals(message(9), journal.get(9));
+        assertEquals(6, journal.getNextOffset(0));
+        assertEquals(6, journal.getOffsetAt(0));
+    }
+
+    @Test
+    public void testOffsetAt() throws Exception {
+        Journal<Message> journal = new OffHeapJournal(1024);
+        journal.append(message(0));
+        long time = System.currentTimeMillis() + 1;
+        while (System.currentTimeMillis() < time) {
+            Thread.sleep(1);
+        }
+        journal.append(message(1));
+        assertEquals(0, journal.getOffsetAt(0));
+        assertEquals(1, journal.getOffsetAt(time));
+        assertEquals(2, journal.getOffsetAt(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testStartAt() throws Exception {
+        Journal<Message> journal = new OffHeapJournal(1024);
+        journal.append(message(0), 100);
+        journal.startAt(10);
+        assertEquals(10, journal.getFirstOffset());
+        assertNull(journal.get(0));
+        assertEquals(10, journal.append(message(10), 200));
+        assertEquals(message(10), journal.get(10));
+        assertEquals(200, journal.getAppendTime(10));
+        assertEquals(-1, journal.getAppendTime(0));
+        assertEquals(10, journal.getOffsetAt(150));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMessageTooLarge() throws Exception {
+        new OffHeapJournal(29).append(message(0));
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        int count = 100000;
+        Journal<Message> journal = new OffHeapJournal(1024);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                long offset = 0;
+                while (offset < count) {
+                    offset = journal.getNextOffset(offset);
+                    Message message = journal.get(offset);
+                    if (message != null) {
+                        assertEquals(message(offset), message);
+                        offset++;
+                    }
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            journal.append(message(i));
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertNull(failure.get());
+    }
+
+    private Message message(long index) {
+        return new Message(String.format("%06d", index).getBytes(UTF_8), emptyMap());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.aries.events.memory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RingJournalTest {
+
+    @Test
+    public void testEmpty() throws Exception {
+        Journal<String> journal = new RingJournal<>(3);
+        assertEquals(0, journal.getFirstOffset());
+        assertEquals(-1, journal.getLastOffset());
+        assertNull(journal.get(0));
+        assertEquals(0, journal.getOffsetAt(0));
+    }
+
+    @Test
+    public void testWrapAround() throws Exception {
+        // Capacity is rounded up to 4
+        Journal<String> journal = new RingJournal<>(3);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, journal.append("m" + i));
+        }
+        assertEquals(2, journal.getFirstOffset());
+        assertEquals(5, journal.getLastOffset());
+        assertNull(journal.get(1));
+        assertEquals("m2", journal.get(2));
+        assertEquals("m5", journal.get(5));
+        assertNull(journal.get(6));
+        assertEquals(2, journal.getNextOffset(0));
+        assertEquals(4, journal.getNextOffset(4));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        Journal<String> journal = new RingJournal<>(8);
+        for (int i = 0; i < 6; i++) {
+            journal.append("m" + i);
+        }
+        journal.evict(4);
+        assertEquals(4, journal.getFirstOffset());
+        assertNull(journal.get(3));
+        assertEquals("m4", journal.get(4));
+        // Eviction stops at the next message
+        journal.evict(10);
+        assertEquals(6, journal.getFirstOffset());
+        assertEquals(6, journal.append("m6"));
+        assertEquals("m6", journal.get(6));
+        // Overwriting does not move the first offset back
+        for (int i = 7; i < 10; i++) {
+            journal.append("m" + i);
+        }
+        assertEquals(6, journal.getFirstOffset());
+    }
+
+    @Test
+    public void testStartAt() throws Exception {
+        Journal<String> journal = new RingJournal<>(4);
+        journal.append("m0", 100);
+        journal.startAt(10);
+        assertEquals(10, journal.getFirstOffset());
+        assertEquals(9, journal.getLastOffset());
+        assertNull(journal.get(0));
+        // Append times are kept ordered
+        assertEquals(10, journal.append("m10", 50));
+        assertEquals(100, journal.getAppendTime(10));
+        assertEquals(11, journal.append("m11", 200));
+        assertEquals(200, journal.getAppendTime(11));
+        assertEquals(-1, journal.getAppendTime(12));
+        assertEquals("m10", journal.get(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStartAtLastOffset() throws Exception {
+        Journal<String> journal = new RingJournal<>(4);
+        journal.append("m0");
+        journal.startAt(0);
+    }
+
+    @Test
+    public void testOffsetAt() throws Exception {
+        Journal<String> journal = new RingJournal<>(4);
+        journal.append("m0");
+        long time = System.currentTimeMillis() + 1;
+        while (System.currentTimeMillis() < time) {
+            Thread.sleep(1);
+        }
+        journal.append("m1");
+        assertEquals(0, journal.getOffsetAt(0));
+        assertEquals(1, journal.getOffsetAt(time));
+        assertEquals(2, journal.getOffsetAt(Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.apache.aries.events.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of a BSON document holding message properties.
+ * When backed by a {@code RawBsonDocument}, a property is decoded
+ * only when its key is accessed. The whole set of properties is
+ * decoded once, on the first iteration over the view.
+ */
+final class BsonPropertiesMap extends AbstractMap<String, String> {
+
+    @Override
+    public String get(Object key) {
+        if (decoded != null) {
+            return decoded.get(key);
+        }
+        return (key instanceof String) ? decode(props.get(key)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (decoded != null) {
+            return decoded.containsKey(key);
+        }
+        return props.containsKey(key);
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Map<String, String> result = decoded;
+        if (result == null) {
+            result = new LinkedHashMap<>();
+            for (Entry<String, BsonValue> prop : props.entrySet()) {
+                result.put(prop.getKey(), decode(prop.getValue()));
+            }
+            decoded = result;
+        }
+        return result.entrySet();
+    }
+
+    //*********************************************
+    // Private
+    //*********************************************
+
+    private final BsonDocument props;
+    private volatile Map<String, String> decoded;
+
+    BsonPropertiesMap(BsonDocument props) {
+        this.props = props;
+    }
+
+    private static String decode(BsonValue value) {
+        return (value != null && value.isString()) ? value.asString().getValue() : null;
+    }
+
+}
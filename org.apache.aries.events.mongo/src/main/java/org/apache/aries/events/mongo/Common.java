@@ -19,11 +19,25 @@
 package org.apache.aries.events.mongo;
 
 import com.mongodb.client.MongoCollection;
+import org.apache.aries.events.api.PropertyFilter;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Indexes.ascending;
 import static com.mongodb.client.model.Indexes.descending;
 import static org.apache.aries.events.mongo.Common.Fields.INDEX;
+import static org.apache.aries.events.mongo.Common.Fields.PROPS;
+import static org.apache.aries.events.mongo.Common.Fields.TIME_STAMP;
 
 /**
  * Common string definitions
@@ -33,12 +47,46 @@ interface Common {
 
     String DEFAULT_DB_NAME = "aem-replication";
 
+    /** Collection keeping the checkpoints of named subscriptions */
+    String CHECKPOINTS = "aries.events.checkpoints";
+
     /** MongoDB field names */
     interface Fields {
         String INDEX = "i";
         String TIME_STAMP = "t";
         String PAYLOAD = "d";
         String PROPS = "p";
+        String KEY = "k";
+    }
+
+    /**
+     * Returns the index of the earliest message in the collection
+     * @param col collection to check. The collection must contain
+     *            log messages published by a Publisher instance
+     * @return the index of the earliest message or the upcoming
+     * index if the collection is empty
+     */
+    static long earliestIndex(MongoCollection<Document> col) {
+        Document doc = col.find(lte(INDEX, Long.MAX_VALUE))
+                          .sort(ascending(INDEX))
+                          .first();
+        return doc != null ? doc.getLong(INDEX) : upcomingIndex(col);
+    }
+
+    /**
+     * Returns the index of the earliest message published at or after
+     * the specified time, using the index on the time stamp field
+     * @param col collection to check. The collection must contain
+     *            log messages published by a Publisher instance
+     * @param time in milliseconds since the epoch
+     * @return the index of the earliest message published at or after the
+     * time or the upcoming index if there is none
+     */
+    static long indexAt(MongoCollection<Document> col, long time) {
+        Document doc = col.find(gte(TIME_STAMP, time))
+                          .sort(ascending(TIME_STAMP))
+                          .first();
+        return doc != null ? doc.getLong(INDEX) : upcomingIndex(col);
     }
 
     /**
@@ -60,4 +108,33 @@ interface Common {
         }
     }
 
+    /**
+     * Translates property filters into a query on the message properties
+     * @param filters the messages must all match
+     * @return the query or {@code null} if there is no filter
+     */
+    static Bson propertyQuery(List<PropertyFilter> filters) {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        List<Bson> conditions = new ArrayList<>(filters.size());
+        for (PropertyFilter filter : filters) {
+            String field = PROPS + '.' + filter.getKey();
+            switch (filter.getOperator()) {
+                case EQUALS:
+                    conditions.add(eq(field, filter.getValue()));
+                    break;
+                case PREFIX:
+                    conditions.add(regex(field, '^' + Pattern.quote(filter.getValue())));
+                    break;
+                case IN:
+                    conditions.add(in(field, filter.getValues()));
+                    break;
+                default:
+                    throw new AssertionError(filter.getOperator());
+            }
+        }
+        return conditions.size() == 1 ? conditions.get(0) : and(conditions);
+    }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.apache.aries.events.mongo;
+
+import org.apache.aries.events.api.Message;
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+import static org.apache.aries.events.mongo.Common.Fields.INDEX;
+import static org.apache.aries.events.mongo.Common.Fields.KEY;
+import static org.apache.aries.events.mongo.Common.Fields.PAYLOAD;
+import static org.apache.aries.events.mongo.Common.Fields.PROPS;
+
+/**
+ * Decodes log documents straight from the wire into messages,
+ * without an intermediate {@code Document}.
+ * The payload bytes are read once and wrapped by the message.
+ * The properties are kept as raw BSON and decoded lazily.
+ * Encoding writes the same fields, the time stamp of a log
+ * document is added by {@link MessageSenderImpl} only.
+ */
+final class IndexedMessageCodec implements Codec<IndexedMessage> {
+
+    @Override
+    public IndexedMessage decode(BsonReader reader, DecoderContext decoderContext) {
+        long index = -1L;
+        byte[] payload = new byte[0];
+        Map<String, String> props = emptyMap();
+        String key = null;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case INDEX:
+                    index = reader.readInt64();
+                    break;
+                case PAYLOAD:
+                    payload = reader.readBinaryData().getData();
+                    break;
+                case PROPS:
+                    props = new BsonPropertiesMap(RAW_CODEC.decode(reader, decoderContext));
+                    break;
+                case KEY:
+                    key = reader.readString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return new IndexedMessage(index, Message.wrap(ByteBuffer.wrap(payload), props, key));
+    }
+
+    @Override
+    public void encode(BsonWriter writer, IndexedMessage value, EncoderContext encoderContext) {
+        Message message = value.message;
+        writer.writeStartDocument();
+        writer.writeInt64(INDEX, value.index);
+        writer.writeBinaryData(PAYLOAD, new BsonBinary(message.getPayload()));
+        writer.writeStartDocument(PROPS);
+        for (Map.Entry<String, String> prop : message.getProperties().entrySet()) {
+            writer.writeString(prop.getKey(), prop.getValue());
+        }
+        writer.writeEndDocument();
+        if (message.getKey() != null) {
+            writer.writeString(KEY, message.getKey());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<IndexedMessage> getEncoderClass() {
+        return IndexedMessage.class;
+    }
+
+    //*********************************************
+    // Private
+    //*********************************************
+
+    private static final RawBsonDocumentCodec RAW_CODEC = new RawBsonDocumentCodec();
+
+}
@@ -19,10 +19,14 @@
 package org.apache.aries.events.mongo;
 
 import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Received;
+
+import java.util.List;
 
 public interface MessageReceiver extends AutoCloseable {
 
     /** returns data entry for the specified offset.
+     * Must not be used with a filtering receiver.
      * If necessary waits until data is available.
      * If data entry at the specified offset has
      * been evicted, throws NoSuchElement exception
@@ -32,6 +36,47 @@ public interface MessageReceiver extends AutoCloseable {
      */
     Message receive(long index) throws InterruptedException;
 
+    /** returns up to maxCount consecutive data entries
+     * starting at the specified offset.
+     * Must not be used with a filtering receiver.
+     * If necessary waits up to maxWait ms until data is
+     * available. If data entry at the specified offset has
+     * been evicted, throws NoSuchElement exception
+     * @param index an offset to the first desired entry
+     * @param maxCount maximum number of entries to return
+     * @param maxWait maximum time to wait (ms) for data
+     * @return requested data entries in order or an empty
+     *         list if no data became available in time
+     */
+    List<Message> receive(long index, int maxCount, long maxWait) throws InterruptedException;
+
+    /** returns up to maxCount data entries matching the
+     * filter of the receiver, if any, starting at the
+     * specified offset or after it.
+     * If necessary waits up to maxWait ms until data is
+     * available. If data entry at the specified offset has
+     * been evicted from an unfiltered log, throws
+     * NoSuchElement exception
+     * @param index an offset to the first desired entry
+     * @param maxCount maximum number of entries to return
+     * @param maxWait maximum time to wait (ms) for data
+     * @return requested data entries in order, together with
+     *         their position, or an empty list if no data became
+     *         available in time
+     */
+    List<Received> receiveFrom(long index, int maxCount, long maxWait) throws InterruptedException;
+
+    /** returns the index to continue receiving from
+     * after the latest call to receiveFrom. It follows
+     * the last entry returned or, if fewer than maxCount
+     * entries were returned, the entries scanned and
+     * skipped by the filter, so that the position moves
+     * on while no entry matches
+     * @return the index following the entries received
+     *         or skipped
+     */
+    long nextIndex();
+
     /** returns the index of the earliest available
      * data entry. It also causes the receiver to
      * pre-fetch and cache a batch of earliest available
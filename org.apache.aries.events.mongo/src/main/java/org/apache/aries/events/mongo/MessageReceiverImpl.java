@@ -19,9 +19,7 @@
 package org.apache.aries.events.mongo;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
@@ -32,32 +30,79 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Filters;
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Received;
-import org.apache.aries.events.mongo.Common.Fields;
 import org.bson.Document;
-import org.bson.types.Binary;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 
+import static com.mongodb.client.model.Sorts.ascending;
 import static java.lang.Math.min;
 import static java.lang.System.currentTimeMillis;
 import static java.lang.Thread.sleep;
 import static java.util.Collections.emptyList;
-import static org.apache.aries.events.mongo.Common.Fields.PAYLOAD;
 import static org.apache.aries.events.mongo.Common.Fields.INDEX;
 import static org.apache.aries.events.mongo.Common.upcomingIndex;
+import static org.apache.aries.events.mongo.MongoPosition.position;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 import static org.slf4j.LoggerFactory.getLogger;
 
 final class MessageReceiverImpl implements MessageReceiver {
 
     static MessageReceiver messageReceiver(MongoCollection<Document> col) {
-        return new MessageReceiverImpl(col, Optional.empty());
+        return new MessageReceiverImpl(col, Optional.empty(), null);
+    }
+
+    /**
+     * @param col collection to receive from
+     * @param filter query the received messages must match
+     *               or {@code null} to receive all of them
+     * @return a receiver only fetching the matching messages
+     */
+    static MessageReceiver messageReceiver(MongoCollection<Document> col, Bson filter) {
+        return new MessageReceiverImpl(col, Optional.empty(), filter);
     }
 
     @Override
     public Message receive(long index) throws InterruptedException {
-        fetch(index);
+        checkUnfiltered();
+        fetch(index, Long.MAX_VALUE);
         long bufferIndex = index - firstIndex;
         assert bufferIndex < buffer.size() : bufferIndex + ", " + buffer.size();
-        return buffer.get((int) bufferIndex);
+        return buffer.get((int) bufferIndex).message;
+    }
+
+    @Override
+    public List<Message> receive(long index, int maxCount, long maxWait) throws InterruptedException {
+        checkUnfiltered();
+        if (!fetch(index, maxWait)) {
+            return emptyList();
+        }
+        int bufferIndex = (int) (index - firstIndex);
+        List<Message> result = new ArrayList<>();
+        for (IndexedMessage entry : buffer.subList(bufferIndex, min(buffer.size(), bufferIndex + maxCount))) {
+            result.add(entry.message);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Received> receiveFrom(long index, int maxCount, long maxWait) throws InterruptedException {
+        nextIndex = index;
+        if (!fetch(index, maxWait)) {
+            return emptyList();
+        }
+        int bufferIndex = bufferIndex(index);
+        List<Received> result = new ArrayList<>();
+        for (IndexedMessage entry : buffer.subList(bufferIndex, min(buffer.size(), bufferIndex + maxCount))) {
+            result.add(new Received(position(entry.index), entry.message));
+        }
+        nextIndex = result.size() < maxCount ? endIndex : buffer.get(bufferIndex + maxCount - 1).index + 1L;
+        return result;
+    }
+
+    @Override
+    public long nextIndex() {
+        return nextIndex;
     }
 
     @Override
@@ -68,11 +113,7 @@ final class MessageReceiverImpl implements MessageReceiver {
 
     @Override
     public long latestIndex() {
-        long result = upcomingIndex(col);
-        if (result > 0) {
-            result -= 1;
-        }
-        return result;
+        return upcomingIndex(col);
     }
 
     @Override
@@ -92,43 +133,95 @@ final class MessageReceiverImpl implements MessageReceiver {
     private static final long FIRST_AVAILABLE = -1;
     private final Optional<MongoClient> mongoClient;
     private final MongoCollection<Document> col;
+    private final MongoCollection<IndexedMessage> messages;
     private long maxWaitTime = 1000L;
     private int fetchLimit = 100;
     private long lastReceived = currentTimeMillis();
+    private final Bson filter;
     private long firstIndex = 0L;
-    private List<Message> buffer = emptyList();
+    private long endIndex = 0L;
+    private long nextIndex = 0L;
+    private List<IndexedMessage> buffer = emptyList();
     private volatile boolean interrupted = false;
 
-    private MessageReceiverImpl(MongoCollection<Document> col, Optional<MongoClient> mongoClient) {
+    private MessageReceiverImpl(MongoCollection<Document> col, Optional<MongoClient> mongoClient, Bson filter) {
         LOGGER.debug("Creating new receiver: " + col.getNamespace().getCollectionName());
         this.mongoClient = mongoClient;
         this.col = col;
+        this.filter = filter;
+        this.messages = col.withDocumentClass(IndexedMessage.class)
+                .withCodecRegistry(fromRegistries(fromCodecs(new IndexedMessageCodec()), col.getCodecRegistry()));
     }
 
-    private void fetch(long index) throws InterruptedException {
-        while (firstIndex > index || firstIndex + buffer.size() <= index) {
-            long delay = min(maxWaitTime, (currentTimeMillis() - lastReceived) / 2);
+    private boolean fetch(long index, long maxWait) throws InterruptedException {
+        long startTime = currentTimeMillis();
+        while (firstIndex > index || endIndex <= index) {
+            long waited = currentTimeMillis() - startTime;
+            if (waited >= maxWait) {
+                return false;
+            }
+            long delay = min(maxWait - waited, min(maxWaitTime, (currentTimeMillis() - lastReceived) / 2));
             adaptivePause(delay);
             refreshBuffer(index);
         }
+        return true;
+    }
+
+    /**
+     * Position in the buffer of the first entry at the index or after it.
+     * The buffer holds consecutive entries unless the receiver is filtered.
+     */
+    private int bufferIndex(long index) {
+        if (filter == null) {
+            return (int) (index - firstIndex);
+        }
+        int low = 0;
+        int high = buffer.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.get(mid).index < index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void checkUnfiltered() {
+        if (filter != null) {
+            throw new IllegalStateException("Filtered receivers skip entries, use receiveFrom");
+        }
     }
 
     private void refreshBuffer(long index) {
         long startIndex = index;
-        try (MongoCursor<Document> cursor = col.find(Filters.gte(INDEX, startIndex)).iterator()) {
-            List<Message> collected = new ArrayList<>(fetchLimit);
+        Bson query;
+        long upper = Long.MAX_VALUE;
+        if (filter == null) {
+            query = Filters.gte(INDEX, startIndex);
+        } else {
+            // Bound the scan so that the entries skipped by the filter can be moved past
+            upper = upcomingIndex(col);
+            if (startIndex != FIRST_AVAILABLE && startIndex < upper) {
+                checkAvailable(startIndex);
+            }
+            query = Filters.and(Filters.gte(INDEX, startIndex), Filters.lt(INDEX, upper), filter);
+        }
+        try (MongoCursor<IndexedMessage> cursor = messages.find(query)
+                .sort(ascending(INDEX))
+                .limit(fetchLimit)
+                .iterator()) {
+            List<IndexedMessage> collected = new ArrayList<>(fetchLimit);
             while (cursor.hasNext()) {
                 int i = collected.size();
-                Document document = cursor.next();
-                long idx = document.get(INDEX, Long.class);
+                IndexedMessage entry = cursor.next();
+                long idx = entry.index;
                 if (startIndex == FIRST_AVAILABLE) {
                     startIndex = idx;
                 }
-                if (idx == startIndex + i) {
-                    Binary payload = document.get(PAYLOAD, Binary.class);
-                    Map<String, String> props = (Map<String, String>) document.get(Fields.PROPS);
-                    Message message = new Message(payload.getData(), props);
-                    collected.add(message);
+                if (filter != null || idx == startIndex + i) {
+                    collected.add(entry);
                 } else {
                     if (i == 0) {
                         throw new NoSuchElementException("Element [" + startIndex + "] has been evicted from the log. Oldest available: [" + idx + "]");
@@ -139,12 +232,29 @@ final class MessageReceiverImpl implements MessageReceiver {
             }
             buffer = collected;
             firstIndex = (startIndex == FIRST_AVAILABLE) ? 0L : startIndex;
+            if (filter != null && collected.size() < fetchLimit) {
+                // Every entry up to the bound was scanned
+                endIndex = Math.max(firstIndex, upper);
+            } else {
+                endIndex = collected.isEmpty() ? firstIndex : collected.get(collected.size() - 1).index + 1L;
+            }
             if (collected.size() > 0) {
                 lastReceived = currentTimeMillis();
             }
         }
     }
 
+    /**
+     * Filtered out entries leave gaps that can't be told apart from evicted ones,
+     * hence the earliest entry of the log is checked.
+     */
+    private void checkAvailable(long index) {
+        long earliest = Common.earliestIndex(col);
+        if (earliest > index) {
+            throw new NoSuchElementException("Element [" + index + "] has been evicted from the log. Oldest available: [" + earliest + "]");
+        }
+    }
+
     @SuppressWarnings("BusyWait")
     private void adaptivePause(long ms) throws InterruptedException {
         if (interrupted) {
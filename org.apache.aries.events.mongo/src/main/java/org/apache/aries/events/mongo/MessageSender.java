@@ -19,7 +19,8 @@ package org.apache.aries.events.mongo;
 
 import org.apache.aries.events.api.Message;
 
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Provides an API for publishing data to a distribution log
@@ -35,7 +36,29 @@ public interface MessageSender extends AutoCloseable {
      *             Boolean
      *             String
      *             byte[]
+     * @return the index assigned to the message
      */
-    void send(Message message);
+    long send(Message message);
+
+    /**
+     * Publishes a single message to a log without waiting
+     * for the message to be written.
+     * Messages published by the same sender are written
+     * in the order this method was invoked.
+     * @param message specifies a message to publish.
+     * @return the index assigned to the message once written
+     */
+    CompletionStage<Long> sendAsync(Message message);
+
+    /**
+     * Publishes a batch of messages to a log in a single write.
+     * The messages are appended in the order of the list.
+     * @param messages specifies the messages to publish.
+     * @return the indexes assigned to the messages, in the order of the list
+     */
+    List<Long> send(List<Message> messages);
+
+    @Override
+    void close();
 
 }
@@ -18,6 +18,8 @@
 
 package org.apache.aries.events.mongo;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
@@ -26,11 +28,23 @@ import org.apache.aries.events.api.Message;
 import org.bson.Document;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
+import static com.mongodb.ErrorCategory.DUPLICATE_KEY;
+import static com.mongodb.ErrorCategory.fromErrorCode;
 import static com.mongodb.client.model.Filters.lt;
 import static java.lang.System.currentTimeMillis;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static org.apache.aries.events.mongo.Common.Fields.INDEX;
+import static org.apache.aries.events.mongo.Common.Fields.KEY;
 import static org.apache.aries.events.mongo.Common.Fields.PAYLOAD;
 import static org.apache.aries.events.mongo.Common.Fields.PROPS;
 import static org.apache.aries.events.mongo.Common.Fields.TIME_STAMP;
@@ -52,13 +66,42 @@ final class MessageSenderImpl implements MessageSender {
     //*********************************************
 
     @Override
-    public void send(Message message) {
-        publish1(message, 3);
+    public long send(Message message) {
+        long index = publish1(message, 3);
         evict();
+        return index;
     }
 
     @Override
-    public void close() {}
+    public CompletionStage<Long> sendAsync(Message message) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        Pending next = new Pending(message, result);
+        pending.add(next);
+        try {
+            writer().execute(this::writePending);
+        } catch (RejectedExecutionException e) {
+            // Unless a batch written meanwhile took it already
+            if (pending.remove(next)) {
+                result.completeExceptionally(e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Long> send(List<Message> messages) {
+        List<Long> indexes = publishAll(messages, 3);
+        evict();
+        return indexes;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
 
     //*********************************************
     // Internals
@@ -66,8 +109,12 @@ final class MessageSenderImpl implements MessageSender {
 
     private static final Logger LOGGER = getLogger(MessageSenderImpl.class);
     private final MongoCollection<Document> collection;
-    private long nextEvictionTime = 0L;
+    private volatile long nextEvictionTime = 0L;
     private final long maxAge;
+    private static final int MAX_PENDING_BATCH = 1000;
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private ExecutorService writer;
+    private boolean closed;
 
     private MessageSenderImpl(MongoCollection<Document> collection, long maxAge) {
         LOGGER.debug("Creating new publisher: " + collection.getNamespace().getCollectionName());
@@ -101,19 +148,106 @@ final class MessageSenderImpl implements MessageSender {
            });
     }
 
-    private void publish1(Message message, int retry) {
+    private long publish1(Message message, int retry) {
         try {
             long index = upcomingIndex(collection);
             collection.insertOne(createDoc(index, message));
+            return index;
         } catch (MongoWriteException e) {
             if (retry > 0) {
-                publish1(message, retry - 1);
+                return publish1(message, retry - 1);
             } else {
                 throw e;
             }
         }
     }
 
+    /**
+     * Publishes the messages with one insert per attempt. A concurrent sender
+     * may claim an index within the range, in which case the messages that
+     * were not written are published again after the latest index. Each
+     * remaining tail is retried up to {@code retry} times.
+     */
+    private List<Long> publishAll(List<Message> messages, int retry) {
+        List<Long> indexes = new ArrayList<>(messages.size());
+        int from = 0;
+        int attempts = retry;
+        while (from < messages.size()) {
+            long index = upcomingIndex(collection);
+            List<Document> docs = new ArrayList<>(messages.size() - from);
+            for (Message message : messages.subList(from, messages.size())) {
+                docs.add(createDoc(index + docs.size(), message));
+            }
+            int written;
+            try {
+                collection.insertMany(docs);
+                written = docs.size();
+            } catch (MongoBulkWriteException e) {
+                BulkWriteError error = e.getWriteErrors().get(0);
+                if (fromErrorCode(error.getCode()) != DUPLICATE_KEY || attempts-- == 0) {
+                    throw e;
+                }
+                written = error.getIndex();
+            }
+            if (written > 0) {
+                attempts = retry;
+            }
+            for (int c = 0; c < written; c++) {
+                indexes.add(index + c);
+            }
+            from += written;
+        }
+        return indexes;
+    }
+
+    /**
+     * Writes the asynchronously sent messages queued so far as one batch.
+     */
+    private void writePending() {
+        List<Pending> batch = new ArrayList<>();
+        for (Pending next; batch.size() < MAX_PENDING_BATCH && (next = pending.poll()) != null;) {
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Pending next : batch) {
+            messages.add(next.message);
+        }
+        try {
+            List<Long> indexes = send(messages);
+            for (int c = 0; c < batch.size(); c++) {
+                batch.get(c).result.complete(indexes.get(c));
+            }
+        } catch (RuntimeException e) {
+            for (Pending next : batch) {
+                next.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the single thread writing the asynchronously sent messages,
+     * which keeps them in the order they were sent.
+     *
+     * @throws RejectedExecutionException if the sender is closed
+     */
+    private synchronized ExecutorService writer() {
+        if (closed && writer == null) {
+            throw new RejectedExecutionException("Sender is closed");
+        }
+        if (writer == null) {
+            String name = "MongoMessageSender-" + collection.getNamespace().getCollectionName();
+            writer = newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
     private long oldestTimeStamp() {
         try (MongoCursor<Document> docs = collection.find().sort(new Document(TIME_STAMP, 1)).iterator()) {
             return docs.hasNext() ? docs.next().get(TIME_STAMP, Long.class) : 0L;
@@ -130,11 +264,26 @@ final class MessageSenderImpl implements MessageSender {
         result.put(TIME_STAMP, currentTimeMillis());
         result.put(PAYLOAD,    message.getPayload());
         result.put(PROPS,      message.getProperties());
+        if (message.getKey() != null) {
+            result.put(KEY,    message.getKey());
+        }
         return result;
     }
 
     private void ensureIndexes(MongoCollection<Document> col) {
         col.createIndex(new Document(INDEX, 1), new IndexOptions().unique(true));
+        col.createIndex(new Document(TIME_STAMP, 1));
+    }
+
+    private static final class Pending {
+
+        private final Message message;
+        private final CompletableFuture<Long> result;
+
+        private Pending(Message message, CompletableFuture<Long> result) {
+            this.message = message;
+            this.result = result;
+        }
     }
 
 }
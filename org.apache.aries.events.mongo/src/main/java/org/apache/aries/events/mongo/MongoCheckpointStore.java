@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.apache.aries.events.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import org.apache.aries.events.api.CheckpointStore;
+import org.bson.Document;
+
+import static com.mongodb.client.model.Filters.eq;
+import static java.lang.System.currentTimeMillis;
+import static org.apache.aries.events.mongo.Common.Fields.TIME_STAMP;
+
+/**
+ * Keeps the position of each named subscription in a document of
+ * its own, replaced with a single upsert per commit.
+ */
+final class MongoCheckpointStore implements CheckpointStore {
+
+    //*********************************************
+    // Creation
+    //*********************************************
+
+    static CheckpointStore mongoCheckpointStore(MongoCollection<Document> col) {
+        return new MongoCheckpointStore(col);
+    }
+
+    //*********************************************
+    // Specialization
+    //*********************************************
+
+    @Override
+    public String load(String topic, String name) {
+        Document doc = col.find(eq(ID, id(topic, name))).first();
+        return doc != null ? doc.getString(POSITION) : null;
+    }
+
+    @Override
+    public void commit(String topic, String name, String position) {
+        Document doc = new Document(ID, id(topic, name))
+                .append(POSITION, position)
+                .append(TIME_STAMP, currentTimeMillis());
+        col.replaceOne(eq(ID, doc.get(ID)), doc, new ReplaceOptions().upsert(true));
+    }
+
+    //*********************************************
+    // Private
+    //*********************************************
+
+    private static final String ID = "_id";
+    private static final String POSITION = "pos";
+    private final MongoCollection<Document> col;
+
+    private MongoCheckpointStore(MongoCollection<Document> col) {
+        this.col = col;
+    }
+
+    private static String id(String topic, String name) {
+        return topic + '/' + name;
+    }
+
+}
@@ -22,25 +22,41 @@ import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import org.apache.aries.events.api.CheckpointStore;
 import org.apache.aries.events.api.Message;
 import org.apache.aries.events.api.Messaging;
 import org.apache.aries.events.api.Position;
 import org.apache.aries.events.api.SubscribeRequestBuilder;
 import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.impl.Checkpointer;
 import org.bson.Document;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.Designate;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
 
+import static java.util.stream.Collectors.toList;
+import static org.apache.aries.events.mongo.Common.CHECKPOINTS;
 import static org.apache.aries.events.mongo.Common.DEFAULT_DB_NAME;
 import static org.apache.aries.events.mongo.MongoPosition.index;
 import static org.apache.aries.events.mongo.MongoPosition.position;
 import static org.apache.aries.events.mongo.MongoSubscription.subscription;
+import static org.apache.aries.events.mongo.Common.earliestIndex;
+import static org.apache.aries.events.mongo.Common.indexAt;
+import static org.apache.aries.events.mongo.Common.propertyQuery;
+import static org.apache.aries.events.mongo.Common.upcomingIndex;
 import static org.apache.aries.events.mongo.MessageSenderImpl.messageSender;
+import static org.apache.aries.events.mongo.MongoCheckpointStore.mongoCheckpointStore;
 import static org.apache.aries.events.mongo.MessageReceiverImpl.messageReceiver;
 import static org.apache.aries.events.mongo.CachingFactory.cachingFactory;
 import static org.osgi.service.component.annotations.ConfigurationPolicy.REQUIRE;
@@ -55,12 +71,47 @@ public class MongoMessaging implements Messaging {
         sender.send(message);
     }
 
+    @Override
+    public CompletionStage<Position> sendAsync(String topic, Message message) {
+        MessageSender sender = senderFactory.get(topic);
+        return sender.sendAsync(message).thenApply(MongoPosition::position);
+    }
+
+    @Override
+    public List<Position> send(String topic, List<Message> messages) {
+        MessageSender sender = senderFactory.get(topic);
+        return sender.send(messages).stream()
+                .map(MongoPosition::position)
+                .collect(toList());
+    }
+
     @Override
     public Subscription subscribe(SubscribeRequestBuilder requestBuilder) {
         SubscribeRequest request = requestBuilder.build();
         MongoCollection<Document> collection = database.getCollection(request.getTopic());
-        MessageReceiver receiver = messageReceiver(collection);
-        return subscription(receiver, index(request.getPosition()), request.getSeek(), request.getCallback());
+        MessageReceiver receiver = messageReceiver(collection, propertyQuery(request.getFilters()));
+        Checkpointer checkpointer = request.getName() != null ? new Checkpointer(checkpointStore(), checkpointWriter, request) : null;
+        String checkpoint = checkpointer != null ? checkpointer.load() : null;
+        if (checkpoint != null) {
+            return subscription(receiver, Long.parseLong(checkpoint), request.getSeek(), request, dispatcher(), checkpointer);
+        } else if (request.getPosition() != null) {
+            return subscription(receiver, index(request.getPosition()), request.getSeek(), request, dispatcher(), checkpointer);
+        } else if (request.getStartTime() != null) {
+            long index = indexAt(collection, request.getStartTime().toEpochMilli());
+            return subscription(receiver, index, request.getSeek(), request, dispatcher(), checkpointer);
+        } else {
+            return subscription(receiver, request.getSeek(), request, dispatcher(), checkpointer);
+        }
+    }
+
+    @Override
+    public Position earliestPosition(String topic) {
+        return position(earliestIndex(database.getCollection(topic)));
+    }
+
+    @Override
+    public Position latestPosition(String topic) {
+        return position(upcomingIndex(database.getCollection(topic)));
     }
 
     @Override
@@ -77,6 +128,21 @@ public class MongoMessaging implements Messaging {
     private MongoClient client;
     private MongoDatabase database;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private SubscriptionDispatcher dispatcher;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private CheckpointStore checkpointStore;
+    private final ScheduledExecutorService checkpointWriter = Checkpointer.newWriter();
+
+    private SubscriptionDispatcher dispatcher() {
+        return dispatcher != null ? dispatcher : SubscriptionDispatcher.threadPerSubscription();
+    }
+
+    private CheckpointStore checkpointStore() {
+        return checkpointStore != null ? checkpointStore : mongoCheckpointStore(database.getCollection(CHECKPOINTS));
+    }
+
     @Activate
     protected void activate(MongoEndpoint config) {
         MongoClientURI uri = new MongoClientURI(config.mongoUri());
@@ -91,7 +157,9 @@ public class MongoMessaging implements Messaging {
 
     @Deactivate
     protected void deactivate() {
+        senderFactory.close();
         client.close();
+        checkpointWriter.shutdown();
     }
 
 }
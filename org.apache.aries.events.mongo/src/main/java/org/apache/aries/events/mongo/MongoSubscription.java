@@ -18,14 +18,22 @@
 
 package org.apache.aries.events.mongo;
 
-import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Position;
 import org.apache.aries.events.api.Received;
 import org.apache.aries.events.api.Seek;
+import org.apache.aries.events.api.SubscribeRequestBuilder.SubscribeRequest;
 import org.apache.aries.events.api.Subscription;
+import org.apache.aries.events.api.SubscriptionDispatcher;
+import org.apache.aries.events.api.SubscriptionStats;
+import org.apache.aries.events.impl.Checkpointer;
+import org.apache.aries.events.impl.ParallelDispatch;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
+import static java.lang.System.currentTimeMillis;
 import static java.lang.Thread.currentThread;
 import static java.lang.Thread.interrupted;
 import static org.apache.aries.events.mongo.MongoPosition.position;
@@ -38,20 +46,22 @@ final class MongoSubscription implements Subscription {
     //*********************************************
 
     static MongoSubscription subscription(
-            MessageReceiver receiver, long index, Seek fallBack, Consumer<Received> consumer
+            MessageReceiver receiver, long index, Seek fallBack, SubscribeRequest request,
+            SubscriptionDispatcher dispatcher, Checkpointer checkpointer
     ) {
         assert index >= 0L : "Illegal log index: [" + index + "]";
-        return new MongoSubscription(receiver, index, consumer);
+        return new MongoSubscription(receiver, index, request, dispatcher, checkpointer);
     }
 
     static MongoSubscription subscription(
-            MessageReceiver receiver, Seek seek, Consumer<Received> consumer
+            MessageReceiver receiver, Seek seek, SubscribeRequest request,
+            SubscriptionDispatcher dispatcher, Checkpointer checkpointer
     ) {
         switch (seek) {
             case latest:
-                return new MongoSubscription(receiver, LATEST_INDEX, consumer);
+                return new MongoSubscription(receiver, LATEST_INDEX, request, dispatcher, checkpointer);
             case earliest:
-                return new MongoSubscription(receiver, EARLIEST_INDEX, consumer);
+                return new MongoSubscription(receiver, EARLIEST_INDEX, request, dispatcher, checkpointer);
             default:
                 throw new AssertionError(seek);
         }
@@ -69,9 +79,20 @@ final class MongoSubscription implements Subscription {
     // Specialization
     //*********************************************
 
+    @Override
+    public SubscriptionStats stats() {
+        long current = index;
+        long lag = Math.max(0L, receiver.latestIndex() - current);
+        return new SubscriptionStats(position(current), lag, lane != null ? lane.getCompleted() : delivered, startTime);
+    }
+
     @Override
     public void close() {
+        closed = true;
         receiver.close();
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
     }
 
     @Override
@@ -85,15 +106,33 @@ final class MongoSubscription implements Subscription {
 
     private static final long LATEST_INDEX = -1;
     private static final long EARLIEST_INDEX = -2;
+    private static final int READ_AHEAD = 100;
+    private static final long DEMAND_WAIT = 100L;
     private static final Logger LOGGER = getLogger(MongoSubscription.class);
     private final MessageReceiver receiver;
-    private long index;
+    private volatile long index;
+    private volatile long delivered;
+    private volatile boolean closed;
+    private final SubscribeRequest request;
+    private final long startTime = currentTimeMillis();
     private final Consumer<Received> consumer;
+    private final Consumer<List<Received>> batchConsumer;
+    private final int maxBatchSize;
+    private final long maxLinger;
+    private final Checkpointer checkpointer;
+    private final ParallelDispatch parallelDispatch;
+    private final ParallelDispatch.Lane lane;
 
     private MongoSubscription(
-            MessageReceiver receiver, long index, Consumer<Received> consumer
+            MessageReceiver receiver, long index, SubscribeRequest request,
+            SubscriptionDispatcher dispatcher, Checkpointer checkpointer
     ) {
-        this.consumer = consumer;
+        this.checkpointer = checkpointer;
+        this.request = request;
+        this.consumer = request.getCallback();
+        this.batchConsumer = request.getBatchCallback();
+        this.maxBatchSize = request.getMaxBatchSize();
+        this.maxLinger = request.getMaxLinger().toMillis();
         this.receiver = receiver;
         if (index == EARLIEST_INDEX) {
             this.index = receiver.earliestIndex();
@@ -102,18 +141,66 @@ final class MongoSubscription implements Subscription {
         } else {
             this.index = index;
         }
-        this.index = index == LATEST_INDEX ? receiver.latestIndex() : index;
-        startBackgroundThread(() -> poll(receiver), "MongoMessageConsumer-" + receiver);
+        if (request.getParallelism() > 1) {
+            this.parallelDispatch = new ParallelDispatch(request, dispatcher);
+            this.lane = parallelDispatch.lane(this::completed);
+        } else {
+            this.parallelDispatch = null;
+            this.lane = null;
+        }
+        Runnable poller = batchConsumer != null ? () -> pollBatches(receiver)
+                : lane != null ? () -> pollParallel(receiver)
+                : () -> poll(receiver);
+        dispatcher.dispatch("MongoMessageConsumer-" + receiver, poller);
     }
 
     private void poll(MessageReceiver receiver) {
-        while (!interrupted()) {
+        while (!closed && !interrupted()) {
+            try {
+                if (!awaitDemand()) {
+                    continue;
+                }
+                for (Received received : receiver.receiveFrom(index, 1, Long.MAX_VALUE)) {
+                    LOGGER.debug("Received: " + received.getMessage());
+                    consumer.accept(received);
+                    index = MongoPosition.index(received.getPosition()) + 1L;
+                    delivered += 1L;
+                    checkpoint();
+                }
+                skipped(receiver.nextIndex());
+            } catch (InterruptedException e) {
+                currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.error("Error handling message", e);
+            }
+        }
+        LOGGER.debug("Quitting " + this);
+        receiver.close();
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+    }
+
+    /**
+     * Hands the messages over to the parallel dispatch, reading ahead of
+     * the index which only moves past the messages completed.
+     */
+    private void pollParallel(MessageReceiver receiver) {
+        long next = index;
+        while (!closed && !interrupted()) {
             try {
-                Message message = receiver.receive(index);
-                LOGGER.debug("Received: " + message);
-                Received received = new Received(position(index), message);
-                consumer.accept(received);
-                index += 1L;
+                if (!awaitDemand()) {
+                    continue;
+                }
+                for (Received received : receiver.receiveFrom(next, READ_AHEAD, Long.MAX_VALUE)) {
+                    LOGGER.debug("Received: " + received.getMessage());
+                    next = MongoPosition.index(received.getPosition()) + 1L;
+                    lane.dispatch(received, position(next));
+                }
+                if (receiver.nextIndex() > next) {
+                    next = receiver.nextIndex();
+                    lane.skip(position(next));
+                }
             } catch (InterruptedException e) {
                 currentThread().interrupt();
             } catch (Exception e) {
@@ -122,13 +209,89 @@ final class MongoSubscription implements Subscription {
         }
         LOGGER.debug("Quitting " + this);
         receiver.close();
+        parallelDispatch.close();
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+    }
+
+    /**
+     * @param safe low-water mark of the messages completed in parallel
+     */
+    private void completed(Position safe) {
+        index = MongoPosition.index(safe);
+        checkpoint();
     }
 
-    private static Thread startBackgroundThread(Runnable runnable, String threadName) {
-        Thread thread = new Thread(runnable, threadName);
-        thread.setDaemon(true);
-        thread.start();
-        return thread;
+    private void pollBatches(MessageReceiver receiver) {
+        while (!interrupted()) {
+            try {
+                List<Received> batch = collectBatch(receiver);
+                if (!batch.isEmpty()) {
+                    LOGGER.debug("Received batch of " + batch.size());
+                    batchConsumer.accept(batch);
+                    index = MongoPosition.index(batch.get(batch.size() - 1).getPosition()) + 1L;
+                    delivered += batch.size();
+                    checkpoint();
+                }
+                skipped(receiver.nextIndex());
+            } catch (InterruptedException e) {
+                currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.error("Error handling messages", e);
+            }
+        }
+        LOGGER.debug("Quitting " + this);
+        receiver.close();
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+    }
+
+    /**
+     * Does not fetch further messages while the subscriber of a publisher has no demand.
+     */
+    private boolean awaitDemand() throws InterruptedException {
+        return request.hasDemand() || request.awaitDemand(DEMAND_WAIT);
+    }
+
+    /**
+     * Moves past the messages the filter skipped, if any.
+     */
+    private void skipped(long next) {
+        if (next > index) {
+            index = next;
+            checkpoint();
+        }
+    }
+
+    private void checkpoint() {
+        if (checkpointer != null) {
+            checkpointer.update(position(index));
+        }
+    }
+
+    /**
+     * Waits for the first message and collects the following ones until
+     * the batch is full or none arrived within the linger time.
+     * The batch is empty if the messages scanned were all filtered out.
+     */
+    private List<Received> collectBatch(MessageReceiver receiver) throws InterruptedException {
+        List<Received> batch = new ArrayList<>(maxBatchSize);
+        long next = index;
+        long deadline = 0L;
+        do {
+            long maxWait = batch.isEmpty() ? Long.MAX_VALUE : deadline - currentTimeMillis();
+            for (Received received : receiver.receiveFrom(next, maxBatchSize - batch.size(), maxWait)) {
+                if (batch.isEmpty()) {
+                    deadline = currentTimeMillis() + maxLinger;
+                }
+                batch.add(received);
+                next = MongoPosition.index(received.getPosition()) + 1L;
+            }
+            next = Math.max(next, receiver.nextIndex());
+        } while (batch.size() < maxBatchSize && deadline > currentTimeMillis());
+        return batch;
     }
 
 }
\ No newline at end of file
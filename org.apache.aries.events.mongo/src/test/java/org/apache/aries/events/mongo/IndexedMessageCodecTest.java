@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.apache.aries.events.mongo;
+
+import org.apache.aries.events.api.Message;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.aries.events.mongo.Common.Fields.INDEX;
+import static org.apache.aries.events.mongo.Common.Fields.KEY;
+import static org.apache.aries.events.mongo.Common.Fields.PAYLOAD;
+import static org.apache.aries.events.mongo.Common.Fields.PROPS;
+import static org.apache.aries.events.mongo.Common.Fields.TIME_STAMP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class IndexedMessageCodecTest {
+
+    @Test public void testDecode() {
+        Map<String, String> props = new HashMap<>();
+        props.put("key1", "val1");
+        props.put("key2", "val2");
+        Document doc = new Document("_id", "someId")
+                .append(INDEX, 42L)
+                .append(TIME_STAMP, 1000L)
+                .append(PAYLOAD, new byte[] { 1, 2, 3 })
+                .append(PROPS, props);
+
+        IndexedMessage decoded = decode(doc);
+
+        assertEquals(42L, decoded.index);
+        assertEquals(new Message(new byte[] { 1, 2, 3 }, props), decoded.message);
+        assertEquals("val2", decoded.message.getProperties().get("key2"));
+        assertNull(decoded.message.getProperties().get("key3"));
+        assertFalse(decoded.message.getProperties().containsKey("key3"));
+    }
+
+    @Test public void testDecodeKey() {
+        Document doc = new Document(INDEX, 7L)
+                .append(PAYLOAD, new byte[] { 1 })
+                .append(PROPS, new Document())
+                .append(KEY, "someKey");
+
+        IndexedMessage decoded = decode(doc);
+
+        assertEquals("someKey", decoded.message.getKey());
+        assertEquals(new Message(new byte[] { 1 }, new HashMap<>(), "someKey"), decoded.message);
+    }
+
+    @Test public void testEncode() {
+        Map<String, String> props = new HashMap<>();
+        props.put("key1", "val1");
+        IndexedMessage original = new IndexedMessage(42L, new Message(new byte[] { 1, 2, 3 }, props, "someKey"));
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new IndexedMessageCodec().encode(new BsonBinaryWriter(buffer), original, EncoderContext.builder().build());
+        BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray()));
+
+        IndexedMessage decoded = new IndexedMessageCodec().decode(reader, DecoderContext.builder().build());
+
+        assertEquals(42L, decoded.index);
+        assertEquals(original.message, decoded.message);
+    }
+
+    //*********************************************
+    // Internals
+    //*********************************************
+
+    private static IndexedMessage decode(Document doc) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new DocumentCodec().encode(new BsonBinaryWriter(buffer), doc, EncoderContext.builder().build());
+        BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray()));
+        return new IndexedMessageCodec().decode(reader, DecoderContext.builder().build());
+    }
+
+}
@@ -19,20 +19,31 @@
 package org.apache.aries.events.mongo;
 
 import com.mongodb.client.MongoCollection;
+import org.apache.aries.events.api.CheckpointStore;
 import org.apache.aries.events.api.Message;
+import org.apache.aries.events.api.Received;
 import org.bson.Document;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.AbstractMap.SimpleEntry;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
+import static org.apache.aries.events.api.PropertyFilter.startsWith;
+import static org.apache.aries.events.mongo.Common.indexAt;
+import static org.apache.aries.events.mongo.Common.propertyQuery;
 import static org.apache.aries.events.mongo.MessageReceiverImpl.messageReceiver;
 import static org.apache.aries.events.mongo.MessageSenderImpl.messageSender;
+import static org.apache.aries.events.mongo.MongoCheckpointStore.mongoCheckpointStore;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SenderReceiverTest {
 
@@ -50,6 +61,112 @@ public class SenderReceiverTest {
         assertEquals(expected, actual);
     }
 
+    @Test public void testSendAsync() throws Exception {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        MessageReceiver receiver = messageReceiver(collection);
+        Message expected = new Message(new byte[]{ 1, 2, 3 }, mapOf(keyVal("key1", "val1")));
+        sender.sendAsync(expected);
+        long index = sender.sendAsync(expected).toCompletableFuture().get();
+        assertEquals(1L, index);
+        assertEquals(expected, receiver.receive(index));
+        sender.close();
+    }
+
+    @Test public void testSendAsyncClosed() throws Exception {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        sender.close();
+        CompletableFuture<Long> result = sender.sendAsync(new Message(new byte[]{ 1 }, emptyMap())).toCompletableFuture();
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test public void testSendBatch() throws InterruptedException {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        MessageReceiver receiver = messageReceiver(collection);
+        Message first = new Message(new byte[]{ 1 }, mapOf(keyVal("key1", "val1")));
+        Message second = new Message(new byte[]{ 2 }, mapOf(keyVal("key2", "val2")));
+        sender.send(first);
+        List<Long> indexes = sender.send(asList(first, second));
+        assertEquals(asList(1L, 2L), indexes);
+        assertEquals(first, receiver.receive(1));
+        assertEquals(second, receiver.receive(2));
+    }
+
+    @Test public void testReceiveBatch() throws InterruptedException {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        MessageReceiver receiver = messageReceiver(collection);
+        Message first = new Message(new byte[]{ 1 }, emptyMap());
+        Message second = new Message(new byte[]{ 2 }, emptyMap());
+        sender.send(asList(first, second, first));
+        assertEquals(asList(first, second), receiver.receive(0, 2, 1000));
+        assertEquals(asList(second, first), receiver.receive(1, 10, 1000));
+        assertEquals(emptyList(), receiver.receive(3, 10, 100));
+    }
+
+    @Test public void testReceiveFiltered() throws InterruptedException {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        MessageReceiver receiver = messageReceiver(collection, propertyQuery(asList(startsWith("tenant", "a"))));
+        Message first = new Message(new byte[]{ 1 }, mapOf(keyVal("tenant", "a1")));
+        Message second = new Message(new byte[]{ 2 }, mapOf(keyVal("tenant", "b1")));
+        Message third = new Message(new byte[]{ 3 }, emptyMap());
+        sender.send(asList(first, second, third, first));
+        List<Received> received = receiver.receiveFrom(0, 10, 1000);
+        assertEquals(2, received.size());
+        assertEquals("0", received.get(0).getPosition().positionToString());
+        assertEquals("3", received.get(1).getPosition().positionToString());
+        assertEquals(first, received.get(1).getMessage());
+        assertEquals(4L, receiver.nextIndex());
+        assertEquals(emptyList(), receiver.receiveFrom(4, 10, 100));
+        assertEquals(4L, receiver.nextIndex());
+    }
+
+    @Test public void testReceiveFilteredNoMatch() throws InterruptedException {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        MessageReceiver receiver = messageReceiver(collection, propertyQuery(asList(startsWith("tenant", "c"))));
+        Message message = new Message(new byte[]{ 1 }, mapOf(keyVal("tenant", "a1")));
+        sender.send(asList(message, message, message));
+        assertEquals(emptyList(), receiver.receiveFrom(0, 10, 1000));
+        assertEquals(3L, receiver.nextIndex());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testEvictedFiltered() throws InterruptedException {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 0);
+        MessageReceiver receiver = messageReceiver(collection, propertyQuery(asList(startsWith("tenant", "a"))));
+        Message message = new Message(new byte[]{ 1 }, mapOf(keyVal("tenant", "a1")));
+        sender.send(message);
+        sender.send(message);
+        receiver.receiveFrom(0, 10, 1000);
+    }
+
+    @Test public void testIndexAt() throws InterruptedException {
+        MongoCollection<Document> collection = mongoProvider.getCollection("events");
+        MessageSender sender = messageSender(collection, 1000 * 60 * 60 * 24 * 7);
+        Message message = new Message(new byte[]{ 1 }, emptyMap());
+        sender.send(message);
+        Thread.sleep(5);
+        long time = System.currentTimeMillis();
+        sender.send(message);
+        assertEquals(1L, indexAt(collection, time));
+        assertEquals(2L, indexAt(collection, time + 60000));
+    }
+
+    @Test public void testCheckpointStore() {
+        CheckpointStore store = mongoCheckpointStore(mongoProvider.getCollection("checkpoints"));
+        assertEquals(null, store.load("events", "consumer"));
+        store.commit("events", "consumer", "10");
+        store.commit("events", "consumer", "12");
+        store.commit("other", "consumer", "3");
+        assertEquals("12", store.load("events", "consumer"));
+        assertEquals("3", store.load("other", "consumer"));
+    }
+
     @Test(expected = NoSuchElementException.class)
     public void testEvicted() throws InterruptedException {
         MongoCollection<Document> collection = mongoProvider.getCollection("events");